@@ -20,14 +20,13 @@ package io.siddhi.extension.io.prometheus.sink;
 
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.exporter.HTTPServer;
-import io.prometheus.client.exporter.PushGateway;
 import io.siddhi.annotation.Example;
 import io.siddhi.annotation.Extension;
 import io.siddhi.annotation.Parameter;
 import io.siddhi.annotation.SystemParameter;
 import io.siddhi.annotation.util.DataType;
 import io.siddhi.core.config.SiddhiAppContext;
+import io.siddhi.core.event.Event;
 import io.siddhi.core.exception.ConnectionUnavailableException;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.stream.ServiceDeploymentInfo;
@@ -36,10 +35,23 @@ import io.siddhi.core.util.config.ConfigReader;
 import io.siddhi.core.util.snapshot.state.State;
 import io.siddhi.core.util.snapshot.state.StateFactory;
 import io.siddhi.core.util.transport.DynamicOptions;
+import io.siddhi.core.util.transport.Option;
 import io.siddhi.core.util.transport.OptionHolder;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusAggregationWindow;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusExpositionServer;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusHttpExpositionServer;
 import io.siddhi.extension.io.prometheus.sink.util.PrometheusMetricBuilder;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusMetricRouter;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusNettyExpositionServer;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusPublishPlan;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusPushBuffer;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusPushGatewayClient;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusPushScheduler;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusRegistryHolder;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusRemoteWriteClient;
 import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
 import io.siddhi.extension.io.prometheus.util.PrometheusSinkUtil;
+import io.siddhi.extension.io.prometheus.util.PrometheusSourceUtil;
 import io.siddhi.query.api.annotation.Annotation;
 import io.siddhi.query.api.definition.Attribute;
 import io.siddhi.query.api.definition.StreamDefinition;
@@ -47,25 +59,52 @@ import io.siddhi.query.api.exception.AttributeNotExistException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.BindException;
-import java.net.InetSocketAddress;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.CKMS_SUMMARY_ESTIMATOR;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_ERROR;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_MAX_METRICS;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_MAX_SERIES;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_NATIVE_HISTOGRAM;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_NATIVE_HISTOGRAM_SCHEMA;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_PUSH_CONNECTION_POOL_SIZE;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_PUSH_GZIP;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_PUSH_INTERVAL;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_SERIES_TTL;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_SERVER_THREADS;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_SERVER_TYPE;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_WINDOW_AGGREGATOR;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.DEFAULT_WINDOW_LENGTH;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.EMPTY_STRING;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.EVICT_SERIES_POLICY;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.HELP_STRING;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.METRIC_TYPE;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.NETTY_SERVER_TYPE;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.OVERFLOW_SERIES_POLICY;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.PUSHGATEWAY_PUBLISH_MODE;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.PUSH_ADD_OPERATION;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.PUSH_OPERATION;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.PUSH_TIMEOUT;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.REMOTE_WRITE_PUBLISH_MODE;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.SERVER_PUBLISH_MODE;
+import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.SKETCH_SUMMARY_ESTIMATOR;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.SPACE_STRING;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.VALUE_STRING;
 import static java.lang.Double.parseDouble;
@@ -80,7 +119,9 @@ import static java.lang.Double.parseDouble;
                 "them to the Prometheus server at the specified URL. The created metrics can be published to " +
                 "Prometheus via 'server' or 'pushGateway', depending on your preference.\n " +
                 "The metric types that are supported by the Prometheus sink are 'counter', 'gauge', 'histogram', " +
-                "and 'summary'. The values and labels of the Prometheus metrics can be updated through the events. ",
+                "and 'summary'. The values and labels of the Prometheus metrics can be updated through the events. " +
+                "The events can be mapped with the 'keyvalue' mapper, or with the 'passThrough' mapper which lets " +
+                "the sink read the labels and the value by their positions without creating a map per event.",
         parameters = {
                 @Parameter(
                         name = "job",
@@ -93,10 +134,13 @@ import static java.lang.Double.parseDouble;
                 @Parameter(
                         name = "publish.mode",
                         description = "The mode in which the metrics need to be exposed to the Prometheus server." +
-                                "The possible publishing modes are \'server\' and \'pushgateway\'.The server mode " +
+                                "The possible publishing modes are \'server\', \'pushgateway\' and " +
+                                "\'remote.write\'.The server mode " +
                                 "exposes the metrics through an HTTP server at the specified URL, and the " +
                                 "'pushGateway' mode pushes the metrics to the pushGateway that needs to be running at" +
-                                " the specified URL.",
+                                " the specified URL. The 'remote.write' mode sends the metrics at a fixed interval " +
+                                "to a receiver of the Prometheus remote write protocol, such as Prometheus itself " +
+                                "or a long term storage, with the job name and the grouping key as labels.",
                         defaultValue = "server",
                         optional = true,
                         type = {DataType.STRING}
@@ -114,7 +158,10 @@ import static java.lang.Double.parseDouble;
                         name = "server.url",
                         description = "This parameter specifies the URL where the HTTP server is initiated " +
                                 "to expose metrics in the \'server\' publish mode. This URL needs to be defined in" +
-                                " the Prometheus configuration file as a target before it can be used here.",
+                                " the Prometheus configuration file as a target before it can be used here. The " +
+                                "server exposes the metrics of all the Siddhi apps sharing the URL at /metrics, " +
+                                "and the metrics of a single Siddhi app at /metrics/<app name>. A scrape can select " +
+                                "metric families with one or more \'name[]\' query parameters.",
                         optional = true,
                         defaultValue = "http://localhost:9080",
                         type = {DataType.STRING}
@@ -128,25 +175,38 @@ import static java.lang.Double.parseDouble;
                 ),
                 @Parameter(
                         name = "metric.help",
-                        description = "A brief description of the metric and its purpose.",
+                        description = "A brief description of the metric and its purpose. The help can only be " +
+                                "dynamic when the metric name is dynamic, in which case it is resolved from the " +
+                                "first event of each metric.",
                         optional = true,
                         defaultValue = "<metric_name_with_metric_type>",
-                        type = {DataType.STRING}
+                        type = {DataType.STRING},
+                        dynamic = true
                 ),
                 @Parameter(
                         name = "metric.name",
                         description = "This parameter allows you to assign a preferred name for the metric." +
-                                " The metric name must match the regex format, i.e., [a-zA-Z_:][a-zA-Z0-9_:]*. ",
+                                " The metric name must match the regex format, i.e., [a-zA-Z_:][a-zA-Z0-9_:]*. " +
+                                "The name can be resolved from the attributes of each event, e.g., " +
+                                "'{{metric}}', so that one sink publishes a metric per distinct name. The metrics " +
+                                "are created and registered on the first event of each name, and share all the " +
+                                "other options of the sink. The attributes of the name are not used as labels. A " +
+                                "dynamic name is not supported together with 'additional.metrics' or " +
+                                "'window.length'.",
                         optional = true,
                         defaultValue = "<stream_name>",
-                        type = {DataType.STRING}
+                        type = {DataType.STRING},
+                        dynamic = true
                 ),
                 @Parameter(
                         name = "buckets",
                         description = "The bucket values preferred by the user for histogram metrics. The bucket " +
                                 "values must be in the 'string' format with each bucket value separated by a comma " +
                                 "as shown in the example below.\n" +
-                                "\"2,4,6,8\"",
+                                "\"2,4,6,8\"\n" +
+                                "Histograms find the bucket of an observation by binary search and keep a striped " +
+                                "counter per bucket, so that wide bucket definitions can be observed concurrently " +
+                                "by many threads.",
                         optional = true,
                         defaultValue = "null",
                         type = {DataType.STRING}
@@ -175,7 +235,10 @@ import static java.lang.Double.parseDouble;
                                 "value. The defined 'value' attribute must be included in the stream definition." +
                                 " The system increases the metric value for the counter and gauge metric types by " +
                                 "the value of the 'value attribute. The system observes the value of the 'value' " +
-                                "attribute for the calculations of 'summary' and 'histogram' metric types.",
+                                "attribute for the calculations of 'summary' and 'histogram' metric types. For " +
+                                "these metric types, an 'object' value attribute may carry a batch of values as a " +
+                                "double[], float[], long[] or int[] array, all of which are observed into the " +
+                                "series of the event.",
                         optional = true,
                         defaultValue = "value",
                         type = {DataType.STRING}
@@ -186,7 +249,9 @@ import static java.lang.Double.parseDouble;
                                 "The available push operations are \'push\' and \'pushadd\'. " +
                                 "The operations differ according to the existing metrics in pushGateway where " +
                                 "\'push\' operation replaces the existing metrics, and \'pushadd\' operation " +
-                                "only updates the newly created metrics.",
+                                "only updates the newly created metrics. With \'pushadd\', each push only " +
+                                "contains the metric of the sink, and it is skipped when the metric has not changed " +
+                                "since the last push accepted by the pushGateway.",
                         optional = true,
                         defaultValue = "pushadd",
                         type = {DataType.STRING}
@@ -201,6 +266,289 @@ import static java.lang.Double.parseDouble;
                         optional = true,
                         defaultValue = "<empty_string>",
                         type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "push.interval",
+                        description = "The interval in milliseconds at which the updated metrics are pushed to the " +
+                                "pushGateway. Events only update the metrics in memory and the pushes are done in " +
+                                "the background, with at most one push in flight. The updates received while a push " +
+                                "is in progress are sent together in the next push. When the value is '0', the " +
+                                "metrics are pushed as soon as they are updated. A failed push is logged and the " +
+                                "metrics stay marked as updated, so that they are pushed again with the next push. " +
+                                "When the value is '0', the next push after a failure is retried with an " +
+                                "exponential backoff between 100 milliseconds and 30 seconds.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "push.connection.pool.size",
+                        description = "The maximum number of persistent keep-alive connections that are used to " +
+                                "push metrics to the pushGateway.",
+                        optional = true,
+                        defaultValue = "1",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "push.gzip",
+                        description = "This parameter specifies whether the metrics pushed to the pushGateway are " +
+                                "compressed with gzip.",
+                        optional = true,
+                        defaultValue = "false",
+                        type = {DataType.BOOL}
+                ),
+                @Parameter(
+                        name = "push.buffer.directory",
+                        description = "The directory of a disk backed buffer for the pushes to the pushGateway. " +
+                                "When a directory is given, each push is appended to memory mapped segment files " +
+                                "in the directory and sent to the pushGateway in the background, in order. While " +
+                                "the pushGateway is not available, the latest push stays buffered and is " +
+                                "retried, instead of failing the publishing of events. Since every push carries " +
+                                "the current state of the metrics, a push replaces the one which is still " +
+                                "buffered. The push which is still buffered when the sink stops is sent when it " +
+                                "connects again. The directory " +
+                                "must not be shared with other sinks. If no directory is given, the pushes are " +
+                                "not buffered.",
+                        optional = true,
+                        defaultValue = "<empty_string>",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "push.buffer.max.size",
+                        description = "The maximum disk usage of the push buffer in bytes.",
+                        optional = true,
+                        defaultValue = "67108864",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "push.buffer.segment.size",
+                        description = "The size of each segment file of the push buffer in bytes. A push which " +
+                                "is larger than a segment cannot be buffered. The buffer needs to hold at least " +
+                                "two segments, hence the size must not be greater than half of " +
+                                "'push.buffer.max.size'.",
+                        optional = true,
+                        defaultValue = "4194304",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "server.type",
+                        description = "The type of the HTTP server which exposes the metrics in the 'server' " +
+                                "publish mode. The possible server types are 'default' and 'netty'. The " +
+                                "'default' server is the HTTP server of the JDK, as used by the Prometheus java " +
+                                "client. The 'netty' " +
+                                "server writes the metrics into pooled direct buffers, keeps the connections of " +
+                                "the scrapers alive, and compresses the responses with gzip when accepted by the " +
+                                "scraper. The sinks exposing metrics at the same URL share the server started by " +
+                                "the first of them. Both servers expose the metrics in the text format, or in the " +
+                                "delimited protobuf format when the scraper asks for it in the Accept header.",
+                        optional = true,
+                        defaultValue = "default",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "server.event.loop.threads",
+                        description = "The number of event loop threads of the 'netty' server, which serve the " +
+                                "connections of the scrapers. When the value is '0', the Netty default is used.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "server.worker.threads",
+                        description = "The number of worker threads of the 'netty' server, which write the " +
+                                "metrics for the scrapes. When the value is '0', the metrics are written on the " +
+                                "event loop threads.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "max.series",
+                        description = "The maximum number of label sets (series) of the metric. This bounds the " +
+                                "memory used by the metric when a label attribute receives unbounded values. The " +
+                                "number of series removed to stay within the bound is exposed as the counter " +
+                                "'<metric.name>_series_evicted_total'. When the value is '0', the number of series " +
+                                "is not bounded.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "max.metrics",
+                        description = "The maximum number of metrics published by the sink when the metric.name is " +
+                                "resolved from the attributes of each event. This bounds the number of metrics " +
+                                "registered at the endpoint when the name attributes receive unbounded values. The " +
+                                "events of a new name beyond the limit are rejected. When the value is '0', the " +
+                                "number of metrics is not bounded.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "max.series.policy",
+                        description = "The action taken for a new label set once the metric has 'max.series' " +
+                                "series. The possible policies are 'evict' and 'overflow'. The 'evict' policy " +
+                                "removes the least recently updated series to make room for the new one. The " +
+                                "'overflow' policy keeps the existing series and updates a single overflow series, " +
+                                "whose label values are all '__overflow__', instead.",
+                        optional = true,
+                        defaultValue = "evict",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "series.ttl",
+                        description = "The time in milliseconds after which a label set (series) of the metric " +
+                                "that has not been updated by any event is removed from the metric. The idle series " +
+                                "are removed incrementally in the background, without blocking the events or the " +
+                                "scrapes. When the value is '0', the series are never removed.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "native.histogram",
+                        description = "This parameter specifies whether a histogram metric also records its " +
+                                "observations in sparse exponential (native) buckets. Only the buckets into which " +
+                                "observations fall are stored. The native buckets are exposed to the scrapers " +
+                                "which request the protobuf exposition format, while the scrapers of the text " +
+                                "format receive the classic buckets defined by 'buckets'. This is only supported " +
+                                "for the histogram metric type.",
+                        optional = true,
+                        defaultValue = "false",
+                        type = {DataType.BOOL}
+                ),
+                @Parameter(
+                        name = "native.histogram.schema",
+                        description = "The resolution of the native buckets, between -4 and 8. The boundaries of " +
+                                "the native buckets are the powers of 2^(2^-schema), so that each increment of the " +
+                                "schema doubles the number of buckets within a power of two.",
+                        optional = true,
+                        defaultValue = "3",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "summary.estimator",
+                        description = "The estimator of the quantiles of a summary metric. The possible values are " +
+                                "'ckms' and 'sketch'. The 'ckms' estimator is the one of the Prometheus java " +
+                                "client, which estimates the quantiles over a sliding time window within the " +
+                                "rank error given by 'quantile.error'. The 'sketch' estimator records the " +
+                                "observations without locking in a constant memory sketch of logarithmic " +
+                                "buckets, and computes the quantiles over all the observations when the metric is " +
+                                "scraped, within the relative value error given by 'quantile.error'. This is only " +
+                                "supported for the summary metric type.",
+                        optional = true,
+                        defaultValue = "ckms",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "count.attribute",
+                        description = "The name of an 'int' or 'long' attribute in the stream definition that " +
+                                "specifies how many times the metric value of an event was observed, for events " +
+                                "which are already aggregated upstream. The value is recorded with this weight in " +
+                                "a single update instead of one update per observation, and events with a count " +
+                                "below 1 are ignored. The count attribute is not used as a label. This is only " +
+                                "supported for the histogram metric type, and for the summary metric type with the " +
+                                "'sketch' summary estimator.",
+                        optional = true,
+                        defaultValue = "<empty_string>",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "window.length",
+                        description = "The length in milliseconds of a tumbling window over which the events are " +
+                                "pre-aggregated per label set before they update the metric. At the end of each " +
+                                "window, every label set which received events updates the metric once with the " +
+                                "aggregate of its values, and the metric is then pushed in the 'pushgateway' " +
+                                "publish mode. The last window is emitted when the sink disconnects. When the value " +
+                                "is '0', every event updates the metric. This is only supported for the counter and " +
+                                "gauge metric types.",
+                        optional = true,
+                        defaultValue = "0",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "window.aggregator",
+                        description = "The function which aggregates the values of a label set over a window " +
+                                "of 'window.length'. The possible values are 'sum', 'count', 'min', 'max' and " +
+                                "'last'. With 'sum' and 'count', the aggregate of each window is added to the " +
+                                "metric. With 'min', 'max' and 'last', the aggregate of each window replaces the " +
+                                "value of the metric, hence these functions are only supported for the gauge " +
+                                "metric type.",
+                        optional = true,
+                        defaultValue = "sum",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "additional.metrics",
+                        description = "Further metrics which are published from the same stream, in the format " +
+                                "'name1:type1:attribute1','name2:type2:attribute2'. Each metric is defined by " +
+                                "its name, its metric type and the numeric attribute which carries its value. The " +
+                                "value attributes of the additional metrics are not used as labels, and all the " +
+                                "metrics share the labels of the remaining attributes. The labels of an event are " +
+                                "extracted and resolved to the series of the metrics once, so that every metric " +
+                                "is updated with a single lookup. The options of the histogram and summary metric " +
+                                "types apply to all the metrics of that type. This is not supported together " +
+                                "with 'window.length', or with a batch of values in the value attribute.",
+                        optional = true,
+                        defaultValue = "<empty_string>",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "remote.write.url",
+                        description = "The URL of the receiver of the Prometheus remote write protocol in the " +
+                                "'remote.write' publish mode.",
+                        optional = true,
+                        defaultValue = "http://localhost:9090/api/v1/write",
+                        type = {DataType.STRING}
+                ),
+                @Parameter(
+                        name = "remote.write.interval",
+                        description = "The interval in milliseconds at which the samples of the metrics are " +
+                                "collected and sent in the 'remote.write' publish mode. Every collection is " +
+                                "sent, whether the metrics were updated or not, so that the series do not go " +
+                                "stale at the receiver.",
+                        optional = true,
+                        defaultValue = "15000",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "remote.write.shards",
+                        description = "The number of shards which send samples to the remote write receiver in " +
+                                "parallel. The samples of a series are always sent by the same shard, in order.",
+                        optional = true,
+                        defaultValue = "1",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "remote.write.queue.capacity",
+                        description = "The maximum number of samples queued per shard while they wait to be sent. " +
+                                "The samples collected while the queue of their shard is full are dropped.",
+                        optional = true,
+                        defaultValue = "10000",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "remote.write.max.samples",
+                        description = "The maximum number of samples sent in one remote write request.",
+                        optional = true,
+                        defaultValue = "2000",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "remote.write.min.backoff",
+                        description = "The initial delay in milliseconds before retrying a remote write request " +
+                                "which failed with a server error, a '429' response or a connection failure. The " +
+                                "delay doubles with each retry of the request.",
+                        optional = true,
+                        defaultValue = "30",
+                        type = {DataType.LONG}
+                ),
+                @Parameter(
+                        name = "remote.write.max.backoff",
+                        description = "The maximum delay in milliseconds before retrying a remote write request.",
+                        optional = true,
+                        defaultValue = "5000",
+                        type = {DataType.LONG}
                 )
         },
         examples = {
@@ -223,6 +571,16 @@ import static java.lang.Double.parseDouble;
                         description = " In the above example, the Prometheus-sink creates a gauge metric " +
                                 "with the stream name and defined attributes as labels." +
                                 "The metric is pushed to the Prometheus pushGateway at the target URL."
+                ),
+                @Example(
+                        syntax =
+                                "@sink(type='prometheus',job='fooOrderCount', server.url ='http://localhost:9080', " +
+                                        "publish.mode='server', metric.type='counter', " +
+                                        "metric.help= 'Number of foo orders', @map(type='passThrough'))\n" +
+                                        "define stream FooCountStream (Name String, quantity int, value int);\n",
+                        description = " In the above example, the Prometheus-sink creates a counter metric " +
+                                "with the stream name and defined attributes as labels. The events are passed " +
+                                "through to the sink, which reads the labels and the value by their positions."
                 )
         },
         systemParameter = {
@@ -237,9 +595,10 @@ import static java.lang.Double.parseDouble;
                 @SystemParameter(
                         name = "publishMode",
                         description = "The default publish mode for the Prometheus sink for exposing metrics to the" +
-                                " Prometheus server. The mode can be either \'server\' or \'pushgateway\'. ",
+                                " Prometheus server. The mode can be either \'server\', \'pushgateway\' or " +
+                                "\'remote.write\'. ",
                         defaultValue = "server",
-                        possibleParameters = "server or pushgateway"
+                        possibleParameters = "server, pushgateway or remote.write"
                 ),
                 @SystemParameter(
                         name = "serverURL",
@@ -278,6 +637,7 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
     private String jobName;
     private String pushURL;
     private String serverURL;
+    private String siddhiAppName;
     private String publishMode;
     private Collector.Type metricType;
     private String metricHelp;
@@ -289,17 +649,58 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
     private Map<String, String> groupingKey;
     private String valueAttribute;
     private double quantileError;
+    private long pushInterval;
+    private int pushConnectionPoolSize;
+    private boolean pushGzip;
+    private String pushBufferDirectory;
+    private long pushBufferMaxSize;
+    private int pushBufferSegmentSize;
+    private String trustStoreFile;
+    private String trustStorePassword;
+    private String serverType;
+    private int serverEventLoopThreads;
+    private int serverWorkerThreads;
+    private int maxSeries;
+    private int maxMetrics;
+    private String maxSeriesPolicy;
+    private long seriesTimeToLive;
+    private boolean nativeHistogram;
+    private int nativeHistogramSchema;
+    private String summaryEstimator;
+    private String countAttribute;
+    private long aggregationWindowLength;
+    private String aggregationFunction;
+    private volatile PrometheusAggregationWindow aggregationWindow;
+    private List<String[]> additionalMetrics;
+    private List<Collector.Type> metricTypes;
+    private String remoteWriteURL;
+    private long remoteWriteInterval;
+    private int remoteWriteShards;
+    private int remoteWriteQueueCapacity;
+    private int remoteWriteMaxSamplesPerSend;
+    private long remoteWriteMinBackoff;
+    private long remoteWriteMaxBackoff;
 
     private PrometheusMetricBuilder prometheusMetricBuilder;
-    private HTTPServer server;
-    private PushGateway pushGateway;
+    private Option metricNameOption;
+    private Option metricHelpOption;
+    private PrometheusMetricRouter metricRouter;
+    private String registryURL;
+    private double[] histogramBuckets;
+    private double[] quantileValues;
+    private PrometheusPublishPlan publishPlan;
+    private URL serverTarget;
+    private PrometheusPushGatewayClient pushGatewayClient;
+    private volatile long pushedGeneration = -1;
+    private PrometheusPushScheduler pushScheduler;
+    private PrometheusPushBuffer pushBuffer;
+    private PrometheusRemoteWriteClient remoteWriteClient;
     private CollectorRegistry collectorRegistry;
-    private String registeredMetrics;
     private ConfigReader configReader;
 
     @Override
     public Class[] getSupportedInputEventClasses() {
-        return new Class[]{Map.class};
+        return new Class[]{Map.class, Event.class, Event[].class};
     }
 
     @Override
@@ -310,13 +711,14 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
 
     @Override
     public String[] getSupportedDynamicOptions() {
-        return new String[0];
+        return new String[]{PrometheusConstants.METRIC_NAME, PrometheusConstants.METRIC_HELP};
     }
 
     @Override
     protected StateFactory<PrometheusSinkState> init(StreamDefinition outputStreamDefinition, OptionHolder optionHolder,
                                                      ConfigReader configReader, SiddhiAppContext siddhiAppContext) {
         String streamID = outputStreamDefinition.getId();
+        this.siddhiAppName = siddhiAppContext.getName();
         if (!optionHolder.isOptionExists(PrometheusConstants.METRIC_TYPE)) {
             throw new SiddhiAppCreationException("The mandatory field \'metric.type\' is not found in Prometheus " +
                     "sink associated with stream \'" + streamID + " \'");
@@ -344,13 +746,20 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
         this.quantiles = optionHolder.validateAndGetStaticValue(PrometheusConstants.QUANTILES_DEFINITION, EMPTY_STRING);
         this.attributes = outputStreamDefinition.getAttributeList()
                 .stream().map(Attribute::getName).collect(Collectors.toList());
-        this.metricName = optionHolder.validateAndGetStaticValue(
-                PrometheusConstants.METRIC_NAME, streamID.trim());
+        this.metricNameOption = optionHolder.getOrCreateOption(PrometheusConstants.METRIC_NAME, streamID.trim());
         this.metricType = PrometheusSinkUtil.assignMetricType(optionHolder.validateAndGetStaticValue(METRIC_TYPE),
                 streamID);
-        this.metricHelp = optionHolder.validateAndGetStaticValue(PrometheusConstants.METRIC_HELP,
-                HELP_STRING + PrometheusSinkUtil.getMetricTypeString(metricType) + SPACE_STRING +
-                        metricName).trim();
+        this.metricHelpOption = optionHolder.isOptionExists(PrometheusConstants.METRIC_HELP) ?
+                optionHolder.validateAndGetOption(PrometheusConstants.METRIC_HELP) : null;
+        if (metricNameOption.isStatic()) {
+            if (metricHelpOption != null && !metricHelpOption.isStatic()) {
+                throw new SiddhiAppCreationException("The metric.help field in Prometheus sink associated with " +
+                        "stream \'" + streamID + "\' can only be dynamic when the metric.name field is dynamic.");
+            }
+            this.metricName = metricNameOption.getValue();
+            this.metricHelp = metricHelpOption != null ? metricHelpOption.getValue().trim() :
+                    HELP_STRING + PrometheusSinkUtil.getMetricTypeString(metricType) + SPACE_STRING + metricName;
+        }
         this.pushOperation = optionHolder.validateAndGetStaticValue(
                 PrometheusConstants.PUSH_DEFINITION, PrometheusConstants.PUSH_ADD_OPERATION).trim();
         this.groupingKey = PrometheusSinkUtil.populateGroupingKey(optionHolder.validateAndGetStaticValue(
@@ -369,14 +778,168 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
             throw new SiddhiAppCreationException("Invalid value for \'quantile.error\' in Prometheus sink " +
                     "associated with stream \'" + streamID + "\'. Value must be between 0 and 1");
         }
+        try {
+            this.pushInterval = Long.parseLong(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.PUSH_INTERVAL, DEFAULT_PUSH_INTERVAL).trim());
+            if (pushInterval < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'push.interval\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+        try {
+            this.pushConnectionPoolSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.PUSH_CONNECTION_POOL_SIZE, DEFAULT_PUSH_CONNECTION_POOL_SIZE).trim());
+            if (pushConnectionPoolSize <= 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'push.connection.pool.size\' in Prometheus " +
+                    "sink associated with stream \'" + streamID + "\'. Value must be a positive integer");
+        }
+        this.pushGzip = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                PrometheusConstants.PUSH_GZIP, DEFAULT_PUSH_GZIP).trim());
+        this.pushBufferDirectory = optionHolder.validateAndGetStaticValue(PrometheusConstants.PUSH_BUFFER_DIRECTORY,
+                EMPTY_STRING).trim();
+        try {
+            this.pushBufferMaxSize = Long.parseLong(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.PUSH_BUFFER_MAX_SIZE, PrometheusConstants.DEFAULT_PUSH_BUFFER_MAX_SIZE).trim());
+            if (pushBufferMaxSize <= 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'push.buffer.max.size\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a positive integer");
+        }
+        this.pushBufferSegmentSize = (int) validatePositiveNumber(optionHolder,
+                PrometheusConstants.PUSH_BUFFER_SEGMENT_SIZE, PrometheusConstants.DEFAULT_PUSH_BUFFER_SEGMENT_SIZE,
+                streamID);
+        if (pushBufferSegmentSize > pushBufferMaxSize / 2) {
+            throw new SiddhiAppCreationException("Invalid value for \'push.buffer.segment.size\' in Prometheus " +
+                    "sink associated with stream \'" + streamID + "\'. Value must not be greater than half of " +
+                    "\'push.buffer.max.size\'");
+        }
+        this.serverType = optionHolder.validateAndGetStaticValue(PrometheusConstants.SERVER_TYPE,
+                DEFAULT_SERVER_TYPE).trim();
+        if (!serverType.equalsIgnoreCase(DEFAULT_SERVER_TYPE) && !serverType.equalsIgnoreCase(NETTY_SERVER_TYPE)) {
+            throw new SiddhiAppCreationException("Invalid server type : " + serverType + " in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'.");
+        }
+        this.serverEventLoopThreads = validateServerThreads(optionHolder,
+                PrometheusConstants.SERVER_EVENT_LOOP_THREADS, streamID);
+        this.serverWorkerThreads = validateServerThreads(optionHolder, PrometheusConstants.SERVER_WORKER_THREADS,
+                streamID);
+        try {
+            this.maxSeries = Integer.parseInt(optionHolder.validateAndGetStaticValue(PrometheusConstants.MAX_SERIES,
+                    DEFAULT_MAX_SERIES).trim());
+            if (maxSeries < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'max.series\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+        try {
+            this.maxMetrics = Integer.parseInt(optionHolder.validateAndGetStaticValue(PrometheusConstants.MAX_METRICS,
+                    DEFAULT_MAX_METRICS).trim());
+            if (maxMetrics < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'max.metrics\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+        this.maxSeriesPolicy = optionHolder.validateAndGetStaticValue(PrometheusConstants.MAX_SERIES_POLICY,
+                EVICT_SERIES_POLICY).trim();
+        if (!maxSeriesPolicy.equalsIgnoreCase(EVICT_SERIES_POLICY) &&
+                !maxSeriesPolicy.equalsIgnoreCase(OVERFLOW_SERIES_POLICY)) {
+            throw new SiddhiAppCreationException("Invalid max series policy : " + maxSeriesPolicy +
+                    " in Prometheus sink associated with stream \'" + streamID + "\'.");
+        }
+        try {
+            this.seriesTimeToLive = Long.parseLong(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.SERIES_TTL, DEFAULT_SERIES_TTL).trim());
+            if (seriesTimeToLive < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'series.ttl\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+        this.nativeHistogram = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                PrometheusConstants.NATIVE_HISTOGRAM, DEFAULT_NATIVE_HISTOGRAM).trim());
+        try {
+            this.nativeHistogramSchema = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.NATIVE_HISTOGRAM_SCHEMA, DEFAULT_NATIVE_HISTOGRAM_SCHEMA).trim());
+            if (nativeHistogramSchema < -4 || nativeHistogramSchema > 8) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'native.histogram.schema\' in Prometheus " +
+                    "sink associated with stream \'" + streamID + "\'. Value must be an integer between -4 and 8");
+        }
+        this.summaryEstimator = optionHolder.validateAndGetStaticValue(PrometheusConstants.SUMMARY_ESTIMATOR,
+                CKMS_SUMMARY_ESTIMATOR).trim();
+        if (!summaryEstimator.equalsIgnoreCase(CKMS_SUMMARY_ESTIMATOR) &&
+                !summaryEstimator.equalsIgnoreCase(SKETCH_SUMMARY_ESTIMATOR)) {
+            throw new SiddhiAppCreationException("Invalid summary estimator : " + summaryEstimator +
+                    " in Prometheus sink associated with stream \'" + streamID + "\'.");
+        }
+        this.countAttribute = optionHolder.validateAndGetStaticValue(PrometheusConstants.COUNT_ATTRIBUTE,
+                EMPTY_STRING).trim();
+        try {
+            this.aggregationWindowLength = Long.parseLong(optionHolder.validateAndGetStaticValue(
+                    PrometheusConstants.WINDOW_LENGTH, DEFAULT_WINDOW_LENGTH).trim());
+            if (aggregationWindowLength < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'window.length\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+        this.aggregationFunction = optionHolder.validateAndGetStaticValue(PrometheusConstants.WINDOW_AGGREGATOR,
+                DEFAULT_WINDOW_AGGREGATOR).trim();
+        if (!PrometheusAggregationWindow.isSupported(aggregationFunction)) {
+            throw new SiddhiAppCreationException("Invalid window aggregator : " + aggregationFunction +
+                    " in Prometheus sink associated with stream \'" + streamID + "\'.");
+        }
+        this.additionalMetrics = PrometheusSinkUtil.populateAdditionalMetrics(optionHolder.validateAndGetStaticValue(
+                PrometheusConstants.ADDITIONAL_METRICS, EMPTY_STRING).trim(), streamID);
+        this.remoteWriteURL = optionHolder.validateAndGetStaticValue(PrometheusConstants.REMOTE_WRITE_URL,
+                PrometheusConstants.DEFAULT_REMOTE_WRITE_URL).trim();
+        this.remoteWriteInterval = validatePositiveNumber(optionHolder, PrometheusConstants.REMOTE_WRITE_INTERVAL,
+                PrometheusConstants.DEFAULT_REMOTE_WRITE_INTERVAL, streamID);
+        this.remoteWriteShards = (int) validatePositiveNumber(optionHolder, PrometheusConstants.REMOTE_WRITE_SHARDS,
+                PrometheusConstants.DEFAULT_REMOTE_WRITE_SHARDS, streamID);
+        this.remoteWriteQueueCapacity = (int) validatePositiveNumber(optionHolder,
+                PrometheusConstants.REMOTE_WRITE_QUEUE_CAPACITY,
+                PrometheusConstants.DEFAULT_REMOTE_WRITE_QUEUE_CAPACITY, streamID);
+        this.remoteWriteMaxSamplesPerSend = (int) validatePositiveNumber(optionHolder,
+                PrometheusConstants.REMOTE_WRITE_MAX_SAMPLES,
+                PrometheusConstants.DEFAULT_REMOTE_WRITE_MAX_SAMPLES, streamID);
+        this.remoteWriteMinBackoff = validatePositiveNumber(optionHolder,
+                PrometheusConstants.REMOTE_WRITE_MIN_BACKOFF, PrometheusConstants.DEFAULT_REMOTE_WRITE_MIN_BACKOFF,
+                streamID);
+        this.remoteWriteMaxBackoff = validatePositiveNumber(optionHolder,
+                PrometheusConstants.REMOTE_WRITE_MAX_BACKOFF, PrometheusConstants.DEFAULT_REMOTE_WRITE_MAX_BACKOFF,
+                streamID);
+        if (remoteWriteMaxBackoff < remoteWriteMinBackoff) {
+            throw new SiddhiAppCreationException("Invalid value for \'remote.write.max.backoff\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must not be less than " +
+                    "\'remote.write.min.backoff\'");
+        }
+        this.trustStoreFile = PrometheusSourceUtil.trustStorePath(configReader);
+        this.trustStorePassword = PrometheusSourceUtil.trustStorePassword(configReader);
 
         if (!publishMode.equalsIgnoreCase(SERVER_PUBLISH_MODE) &&
-                !publishMode.equalsIgnoreCase(PUSHGATEWAY_PUBLISH_MODE)) {
+                !publishMode.equalsIgnoreCase(PUSHGATEWAY_PUBLISH_MODE) &&
+                !publishMode.equalsIgnoreCase(REMOTE_WRITE_PUBLISH_MODE)) {
             throw new SiddhiAppCreationException("Invalid publish mode : " + publishMode + " in Prometheus sink " +
                     "associated with stream \'" + streamID + "\'.");
         }
 
-        if (!metricName.matches(PrometheusConstants.METRIC_NAME_REGEX)) {
+        if (metricName != null && !metricName.matches(PrometheusConstants.METRIC_NAME_REGEX)) {
             throw new SiddhiAppCreationException("Metric name \'" + metricName + "\' does not match the regex " +
                     "\"[a-zA-Z_:][a-zA-Z0-9_:]*\" in Prometheus sink associated with stream \'"
                     + streamID + "\'.");
@@ -391,8 +954,10 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
         // checking for value attribute and its type in stream definintion
         try {
             Attribute.Type valueType = outputStreamDefinition.getAttributeType(valueAttribute);
+            boolean batchValues = valueType.equals(Attribute.Type.OBJECT) &&
+                    (metricType.equals(Collector.Type.HISTOGRAM) || metricType.equals(Collector.Type.SUMMARY));
             if (valueType.equals(Attribute.Type.STRING) || valueType.equals(Attribute.Type.BOOL) ||
-                    valueType.equals(Attribute.Type.OBJECT)) {
+                    (valueType.equals(Attribute.Type.OBJECT) && !batchValues)) {
                 throw new SiddhiAppCreationException("The field value attribute \'" + valueAttribute + " \'contains " +
                         "unsupported type in Prometheus sink associated with stream \'" + streamID + "\'");
             }
@@ -401,70 +966,307 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
                     "in Prometheus sink associated with stream \'" + streamID + "\'");
         }
 
+        // checking the name, metric type and value attribute of each additional metric
+        Set<String> metricNames = new HashSet<>();
+        metricNames.add(metricName);
+        this.metricTypes = new ArrayList<>();
+        metricTypes.add(metricType);
+        String[] metricValueAttributes = new String[additionalMetrics.size()];
+        for (int i = 0; i < additionalMetrics.size(); i++) {
+            String[] additionalMetric = additionalMetrics.get(i);
+            if (!additionalMetric[0].matches(PrometheusConstants.METRIC_NAME_REGEX)) {
+                throw new SiddhiAppCreationException("Metric name \'" + additionalMetric[0] + "\' does not match " +
+                        "the regex \"[a-zA-Z_:][a-zA-Z0-9_:]*\" in Prometheus sink associated with stream \'" +
+                        streamID + "\'.");
+            }
+            if (!metricNames.add(additionalMetric[0])) {
+                throw new SiddhiAppCreationException("Metric name \'" + additionalMetric[0] + "\' is defined more " +
+                        "than once in Prometheus sink associated with stream \'" + streamID + "\'.");
+            }
+            metricTypes.add(PrometheusSinkUtil.assignMetricType(additionalMetric[1], streamID));
+            try {
+                Attribute.Type metricValueType = outputStreamDefinition.getAttributeType(additionalMetric[2]);
+                if (metricValueType.equals(Attribute.Type.STRING) || metricValueType.equals(Attribute.Type.BOOL) ||
+                        metricValueType.equals(Attribute.Type.OBJECT) || additionalMetric[2].equals(countAttribute)) {
+                    throw new SiddhiAppCreationException("The value attribute \'" + additionalMetric[2] + "\' of " +
+                            "metric \'" + additionalMetric[0] + "\' contains unsupported type in Prometheus sink " +
+                            "associated with stream \'" + streamID + "\'");
+                }
+            } catch (AttributeNotExistException exception) {
+                throw new SiddhiAppCreationException("The value attribute \'" + additionalMetric[2] + "\' of metric " +
+                        "\'" + additionalMetric[0] + "\' is not found in Prometheus sink associated with stream \'" +
+                        streamID + "\'");
+            }
+            metricValueAttributes[i] = additionalMetric[2];
+            attributes.remove(additionalMetric[2]);
+        }
+        if (!additionalMetrics.isEmpty() && (aggregationWindowLength > 0 || metricName == null ||
+                outputStreamDefinition.getAttributeType(valueAttribute).equals(Attribute.Type.OBJECT))) {
+            throw new SiddhiAppCreationException("The additional.metrics field in Prometheus sink associated with " +
+                    "stream \'" + streamID + "\' is not supported together with window.length, with a " +
+                    "dynamic metric.name or with a batch of values.");
+        }
+        if (aggregationWindowLength > 0 && metricName == null) {
+            throw new SiddhiAppCreationException("The window.length field in Prometheus sink associated with " +
+                    "stream \'" + streamID + "\' is not supported together with a dynamic metric.name.");
+        }
+        Set<String> routingAttributes = metricName == null ?
+                PrometheusSinkUtil.findTemplateAttributes(outputStreamDefinition, metricNameOption) :
+                Collections.emptySet();
+        attributes.removeAll(routingAttributes);
+
+        if (!countAttribute.isEmpty()) {
+            if (countAttribute.equals(valueAttribute)) {
+                throw new SiddhiAppCreationException("The count attribute \'" + countAttribute + "\' is also the " +
+                        "value attribute in Prometheus sink associated with stream \'" + streamID + "\'");
+            }
+            try {
+                Attribute.Type countType = outputStreamDefinition.getAttributeType(countAttribute);
+                if (!countType.equals(Attribute.Type.INT) && !countType.equals(Attribute.Type.LONG)) {
+                    throw new SiddhiAppCreationException("The count attribute \'" + countAttribute + "\' " +
+                            "contains unsupported type in Prometheus sink associated with stream \'" +
+                            streamID + "\'");
+                }
+            } catch (AttributeNotExistException exception) {
+                throw new SiddhiAppCreationException("The count attribute \'" + countAttribute + "\' is not " +
+                        "found in Prometheus sink associated with stream \'" + streamID + "\'");
+            }
+            for (Collector.Type type : metricTypes) {
+                if (!type.equals(Collector.Type.HISTOGRAM) && !(type.equals(Collector.Type.SUMMARY) &&
+                        summaryEstimator.equalsIgnoreCase(SKETCH_SUMMARY_ESTIMATOR))) {
+                    throw new SiddhiAppCreationException("The count.attribute field in Prometheus sink associated " +
+                            "with stream \'" + streamID + "\' is only supported for histograms and for " +
+                            "summaries with the sketch summary estimator.");
+                }
+            }
+            attributes.remove(countAttribute);
+        }
+        if (aggregationWindowLength > 0 && !metricType.equals(Collector.Type.COUNTER) &&
+                !metricType.equals(Collector.Type.GAUGE)) {
+            throw new SiddhiAppCreationException("The window.length field in Prometheus sink associated with " +
+                    "stream \'" + streamID + "\' is not supported for metric type \'" + metricType + "\'.");
+        }
+        if (aggregationWindowLength > 0 && metricType.equals(Collector.Type.COUNTER) &&
+                !PrometheusAggregationWindow.isAdditive(aggregationFunction)) {
+            throw new SiddhiAppCreationException("The window aggregator \'" + aggregationFunction + "\' in " +
+                    "Prometheus sink associated with stream \'" + streamID + "\' is not supported for counters, " +
+                    "since it replaces the value of the metric. Use \'sum\' or \'count\', or a gauge.");
+        }
         // checking unsupported metric types for 'buckets'
         if (!buckets.isEmpty()) {
-            if (metricType.equals(Collector.Type.COUNTER) ||
-                    metricType.equals(Collector.Type.GAUGE) || metricType.equals(Collector.Type.SUMMARY)) {
+            if (!metricTypes.contains(Collector.Type.HISTOGRAM)) {
                 throw new SiddhiAppCreationException("The buckets field in Prometheus sink associated with stream \'" +
                         streamID + "\' is not supported " +
                         "for metric type \'" + metricType + "\'.");
             }
         }
+        if (nativeHistogram && !metricTypes.contains(Collector.Type.HISTOGRAM)) {
+            throw new SiddhiAppCreationException("The native.histogram field in Prometheus sink associated with " +
+                    "stream \'" + streamID + "\' is not supported for metric type \'" + metricType + "\'.");
+        }
+        if (summaryEstimator.equalsIgnoreCase(SKETCH_SUMMARY_ESTIMATOR) &&
+                !metricTypes.contains(Collector.Type.SUMMARY)) {
+            throw new SiddhiAppCreationException("The sketch summary estimator in Prometheus sink associated with " +
+                    "stream \'" + streamID + "\' is not supported for metric type \'" + metricType + "\'.");
+        }
         // checking unsupported metric types for 'quantiles' and unsupported values for quantiles
         if (!quantiles.isEmpty()) {
-            if (metricType.equals(Collector.Type.COUNTER) ||
-                    metricType.equals(Collector.Type.GAUGE) || metricType.equals(Collector.Type.HISTOGRAM)) {
+            if (!metricTypes.contains(Collector.Type.SUMMARY)) {
                 throw new SiddhiAppCreationException("The quantiles field in Prometheus sink associated with " +
                         "stream \'" + streamID + "\' is not supported " +
                         "for metric type \'" + metricType + "\'.");
             }
         }
-        prometheusMetricBuilder = new PrometheusMetricBuilder(metricName, metricHelp, metricType, attributes);
-        prometheusMetricBuilder.setHistogramBuckets(PrometheusSinkUtil.convertToDoubleArray(buckets.trim(), streamID));
-        double[] quantileValues = PrometheusSinkUtil.convertToDoubleArray(quantiles.trim(), streamID);
-        if (PrometheusSinkUtil.validateQuantiles(quantileValues, streamID)) {
-            prometheusMetricBuilder.setQuantiles(quantileValues, quantileError);
+        publishPlan = PrometheusPublishPlan.compile(outputStreamDefinition, valueAttribute,
+                countAttribute.isEmpty() ? null : countAttribute, metricValueAttributes, routingAttributes);
+        this.histogramBuckets = PrometheusSinkUtil.convertToDoubleArray(buckets.trim(), streamID);
+        this.quantileValues = PrometheusSinkUtil.convertToDoubleArray(quantiles.trim(), streamID);
+        if (!PrometheusSinkUtil.validateQuantiles(quantileValues, streamID)) {
+            quantileValues = null;
         }
-        switch (publishMode) {
-            case PrometheusConstants.SERVER_PUBLISH_MODE:
-                collectorRegistry = prometheusMetricBuilder.setRegistry(serverURL, streamID);
-                break;
-            case PrometheusConstants.PUSHGATEWAY_PUBLISH_MODE:
-                collectorRegistry = prometheusMetricBuilder.setRegistry(pushURL, streamID);
-                break;
-            default:
-                //default execution is not needed
+        if (SERVER_PUBLISH_MODE.equals(publishMode)) {
+            this.registryURL = serverURL;
+        } else if (REMOTE_WRITE_PUBLISH_MODE.equals(publishMode)) {
+            this.registryURL = remoteWriteURL;
+        } else {
+            this.registryURL = pushURL;
+        }
+        if (metricName != null) {
+            prometheusMetricBuilder = createMetricBuilder(metricName, metricHelp, streamID);
+            collectorRegistry = prometheusMetricBuilder.getRegistry();
+        } else {
+            metricRouter = new PrometheusMetricRouter((name, help) -> createMetricBuilder(name, help, streamID),
+                    valueAttribute, maxMetrics, streamID);
+            try {
+                URL registryTarget = new URL(registryURL);
+                collectorRegistry = PrometheusRegistryHolder.retrieveRegistry(registryTarget.getHost(),
+                        registryTarget.getPort());
+            } catch (MalformedURLException e) {
+                throw new SiddhiAppCreationException("Error in the URL format of Prometheus sink associated with " +
+                        "stream \'" + streamID + "\'. \n ", e);
+            }
         }
         return () -> new PrometheusSinkState();
     }
 
+    private PrometheusMetricBuilder createMetricBuilder(String name, String help, String streamID) {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder(name, help, metricType,
+                new ArrayList<>(attributes));
+        for (int i = 0; i < additionalMetrics.size(); i++) {
+            String additionalMetricName = additionalMetrics.get(i)[0];
+            Collector.Type additionalMetricType = metricTypes.get(i + 1);
+            metricBuilder.addMetric(additionalMetricName, HELP_STRING +
+                    PrometheusSinkUtil.getMetricTypeString(additionalMetricType) + SPACE_STRING + additionalMetricName,
+                    additionalMetricType);
+        }
+        metricBuilder.setMaxSeries(maxSeries, maxSeriesPolicy.equalsIgnoreCase(OVERFLOW_SERIES_POLICY));
+        metricBuilder.setSeriesTimeToLive(seriesTimeToLive);
+        metricBuilder.setHistogramBuckets(histogramBuckets);
+        metricBuilder.setNativeHistogram(nativeHistogram, nativeHistogramSchema);
+        metricBuilder.setSketchSummary(summaryEstimator.equalsIgnoreCase(SKETCH_SUMMARY_ESTIMATOR));
+        metricBuilder.setWeightedObservations(!countAttribute.isEmpty());
+        if (quantileValues != null) {
+            metricBuilder.setQuantiles(quantileValues, quantileError);
+        }
+        metricBuilder.setAppName(siddhiAppName);
+        metricBuilder.setRegistry(registryURL, streamID);
+        return metricBuilder;
+    }
+
+    // the metric of each event is resolved from its name, and created with its help on the first event of the name
+    private PrometheusMetricBuilder retrieveMetricBuilder(DynamicOptions dynamicOptions) {
+        if (metricRouter == null) {
+            return prometheusMetricBuilder;
+        }
+        String name = metricNameOption.getValue(dynamicOptions);
+        PrometheusMetricBuilder metricBuilder = metricRouter.retrieve(name);
+        if (metricBuilder == null) {
+            metricBuilder = metricRouter.create(name, metricHelpOption != null ?
+                    metricHelpOption.getValue(dynamicOptions).trim() :
+                    HELP_STRING + PrometheusSinkUtil.getMetricTypeString(metricType) + SPACE_STRING + name);
+        }
+        return metricBuilder;
+    }
+
+    private static int validateServerThreads(OptionHolder optionHolder, String option, String streamID) {
+        try {
+            int threads = Integer.parseInt(optionHolder.validateAndGetStaticValue(option, DEFAULT_SERVER_THREADS)
+                    .trim());
+            if (threads < 0) {
+                throw new NumberFormatException();
+            }
+            return threads;
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'" + option + "\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a non-negative integer");
+        }
+    }
+
+    private static long validatePositiveNumber(OptionHolder optionHolder, String option, String defaultValue,
+                                               String streamID) {
+        try {
+            long value = Long.parseLong(optionHolder.validateAndGetStaticValue(option, defaultValue).trim());
+            if (value <= 0 || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppCreationException("Invalid value for \'" + option + "\' in Prometheus sink " +
+                    "associated with stream \'" + streamID + "\'. Value must be a positive integer");
+        }
+    }
+
     @Override
     public void publish(Object payload, DynamicOptions dynamicOptions, PrometheusSinkState state)
             throws ConnectionUnavailableException {
-        Map<String, Object> attributeMap = (Map<String, Object>) payload;
-        String[] labels;
-        double value = parseDouble(attributeMap.get(valueAttribute).toString());
-        labels = PrometheusSinkUtil.populateLabelArray(attributeMap, valueAttribute);
-        prometheusMetricBuilder.insertValues(value, labels);
-        if ((PrometheusConstants.PUSHGATEWAY_PUBLISH_MODE).equals(publishMode)) {
-            try {
-                switch (pushOperation) {
-                    case PrometheusConstants.PUSH_OPERATION:
-                        pushGateway.push(collectorRegistry, jobName, groupingKey);
-                        break;
-                    case PrometheusConstants.PUSH_ADD_OPERATION:
-                        pushGateway.pushAdd(collectorRegistry, jobName, groupingKey);
-                        break;
-                    default:
-                        //default will never be executed
-                }
-            } catch (IOException e) {
-                log.error("Unable to establish connection for Prometheus sink associated with " +
-                        "stream \'" + getStreamDefinition().getId() + "\' at " + pushURL);
-                throw new ConnectionUnavailableException("Unable to establish connection for Prometheus sink " +
-                        "associated with stream \'" + getStreamDefinition().getId() + "\' at " + pushURL, e);
+        // failed pushes are logged and retried by the push scheduler, hence the events are always applied
+        PrometheusAggregationWindow window = aggregationWindow;
+        // the events published together share their dynamic options, hence the metric is resolved once
+        PrometheusMetricBuilder metricBuilder = retrieveMetricBuilder(dynamicOptions);
+        if (payload instanceof Event) {
+            insertEvent(((Event) payload).getData(), metricBuilder, window);
+        } else if (payload instanceof Event[]) {
+            for (Event event : (Event[]) payload) {
+                insertEvent(event.getData(), metricBuilder, window);
+            }
+        } else {
+            Map<String, Object> attributeMap = (Map<String, Object>) payload;
+            if (window != null) {
+                window.add(publishPlan.extractValue(attributeMap), publishPlan.extractLabels(attributeMap));
+            } else if (!additionalMetrics.isEmpty()) {
+                metricBuilder.insertMetricValues(publishPlan.extractMetricValues(attributeMap),
+                        publishPlan.extractCount(attributeMap), publishPlan.extractLabels(attributeMap));
+            } else if (publishPlan.isBatch()) {
+                metricBuilder.insertValues(publishPlan.extractValues(attributeMap),
+                        publishPlan.extractCount(attributeMap), publishPlan.extractLabels(attributeMap));
+            } else {
+                metricBuilder.insertValues(publishPlan.extractValue(attributeMap),
+                        publishPlan.extractCount(attributeMap), publishPlan.extractLabels(attributeMap));
             }
         }
+        if (window == null) {
+            markUpdated();
+        }
+    }
+
+    // called on every event, or at the end of each aggregation window which received events
+    private void markUpdated() {
+        PrometheusPushScheduler scheduler = pushScheduler;
+        if (scheduler != null) {
+            scheduler.markDirty();
+        }
+    }
+
+    /**
+     * 'push' operation replaces the whole group in the pushGateway, hence all metrics of the registry are sent.
+     * 'pushadd' operation only replaces the metrics with the same names, hence only the metric of this sink is sent,
+     * and only if it changed since the last push acknowledged by the pushGateway.
+     */
+    private CompletableFuture<Void> pushMetrics() {
+        if (PrometheusConstants.PUSH_OPERATION.equals(pushOperation)) {
+            return push(collectorRegistry.metricFamilySamples(), true);
+        }
+        long generation = metricRouter != null ? metricRouter.getGeneration() : prometheusMetricBuilder.getGeneration();
+        if (generation == pushedGeneration) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return push(Collections.enumeration(collectMetrics()), false)
+                .thenRun(() -> pushedGeneration = generation);
+    }
+
+    // with a push buffer, a push completes once it is written to the disk
+    private CompletableFuture<Void> push(Enumeration<Collector.MetricFamilySamples> metricFamilySamples,
+                                         boolean replace) {
+        if (pushBuffer == null) {
+            return pushGatewayClient.push(metricFamilySamples, replace);
+        }
+        try {
+            return pushBuffer.append(PrometheusPushGatewayClient.encodeText(metricFamilySamples), replace);
+        } catch (IOException e) {
+            CompletableFuture<Void> pushResult = new CompletableFuture<>();
+            pushResult.completeExceptionally(e);
+            return pushResult;
+        }
+    }
+
+    private List<Collector.MetricFamilySamples> collectMetrics() {
+        return metricRouter != null ? metricRouter.collect() : prometheusMetricBuilder.collect();
+    }
+
+    private void insertEvent(Object[] data, PrometheusMetricBuilder metricBuilder,
+                             PrometheusAggregationWindow window) {
+        if (window != null) {
+            window.add(publishPlan.extractValue(data), publishPlan.extractLabels(data));
+        } else if (!additionalMetrics.isEmpty()) {
+            metricBuilder.insertMetricValues(publishPlan.extractMetricValues(data),
+                    publishPlan.extractCount(data), publishPlan.extractLabels(data));
+        } else if (publishPlan.isBatch()) {
+            metricBuilder.insertValues(publishPlan.extractValues(data), publishPlan.extractCount(data),
+                    publishPlan.extractLabels(data));
+        } else {
+            metricBuilder.insertValues(publishPlan.extractValue(data), publishPlan.extractCount(data),
+                    publishPlan.extractLabels(data));
+        }
     }
 
     @Override
@@ -474,77 +1276,186 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
             switch (publishMode) {
                 case PrometheusConstants.SERVER_PUBLISH_MODE:
                     target = new URL(serverURL);
-                    initiateServer(target.getHost(), target.getPort());
+                    if (serverTarget == null) {
+                        initiateServer(target);
+                    }
                     log.info(getStreamDefinition().getId() + " has successfully connected at " + serverURL);
                     break;
                 case PrometheusConstants.PUSHGATEWAY_PUBLISH_MODE:
                     target = new URL(pushURL);
-                    pushGateway = new PushGateway(target);
-                    try {
-                        pushGateway.pushAdd(collectorRegistry, jobName, groupingKey);
-                        log.info(getStreamDefinition().getId() + " has successfully connected to pushGateway at "
-                                + pushURL);
-                    } catch (IOException e) {
-                        if (e.getMessage().equalsIgnoreCase("Connection refused (Connection refused)")) {
-                            log.error("The stream \'" + getStreamDefinition().getId() + "\' of Prometheus sink " +
-                                            "could not connect to Pushgateway." +
-                                            " Prometheus pushgateway is not listening at " + target);
-                            throw new ConnectionUnavailableException("The stream \'" + getStreamDefinition().getId() +
-                                    "\' of Prometheus sink could not connect to Pushgateway." +
-                                    " Prometheus pushgateway is not listening at " + target, e);
-                        }
+                    stopPushing();
+                    pushedGeneration = -1;
+                    pushGatewayClient = new PrometheusPushGatewayClient(target, jobName, groupingKey,
+                            pushConnectionPoolSize, pushGzip, trustStoreFile, trustStorePassword,
+                            getStreamDefinition().getId());
+                    if (pushBufferDirectory.isEmpty()) {
+                        connectPushGateway(target);
+                    } else {
+                        openPushBuffer();
                     }
                     break;
+                case PrometheusConstants.REMOTE_WRITE_PUBLISH_MODE:
+                    target = new URL(remoteWriteURL);
+                    stopWriting();
+                    Map<String, String> externalLabels = new HashMap<>(groupingKey);
+                    externalLabels.put(PrometheusConstants.JOB_LABEL, jobName);
+                    remoteWriteClient = new PrometheusRemoteWriteClient(target, externalLabels, remoteWriteShards,
+                            remoteWriteQueueCapacity, remoteWriteMaxSamplesPerSend, remoteWriteMinBackoff,
+                            remoteWriteMaxBackoff, trustStoreFile, trustStorePassword, getStreamDefinition().getId());
+                    log.info(getStreamDefinition().getId() + " will write the metrics to the remote write " +
+                            "receiver at " + remoteWriteURL);
+                    break;
                 default:
                     //default will never be executed
             }
-            prometheusMetricBuilder.registerMetric(valueAttribute);
+            if (metricRouter != null) {
+                metricRouter.registerMetrics();
+            } else {
+                prometheusMetricBuilder.registerMetric(valueAttribute);
+            }
+            if (PUSHGATEWAY_PUBLISH_MODE.equals(publishMode)) {
+                pushScheduler = new PrometheusPushScheduler(this::pushMetrics, pushInterval,
+                        getStreamDefinition().getId());
+                pushScheduler.start();
+            }
+            if (remoteWriteClient != null) {
+                remoteWriteClient.start(this::collectMetrics, remoteWriteInterval);
+            }
+            if (aggregationWindowLength > 0) {
+                stopAggregating();
+                // the additive functions accumulate the windows in the metric, the others set the gauge
+                PrometheusAggregationWindow.AggregateConsumer aggregateConsumer =
+                        PrometheusAggregationWindow.isAdditive(aggregationFunction) ?
+                                prometheusMetricBuilder::insertValues : prometheusMetricBuilder::setValues;
+                aggregationWindow = new PrometheusAggregationWindow(aggregationFunction, aggregationWindowLength,
+                        aggregateConsumer, this::markUpdated, getStreamDefinition().getId());
+                aggregationWindow.start();
+            }
         } catch (MalformedURLException e) {
             throw new ConnectionUnavailableException("Error in URL format in Prometheus sink associated with stream \'"
                     + getStreamDefinition().getId() + "\'. \n ", e);
         }
     }
 
-    private void initiateServer(String host, int port) throws ConnectionUnavailableException {
+    private void connectPushGateway(URL target) throws ConnectionUnavailableException {
         try {
-            InetSocketAddress address = new InetSocketAddress(host, port);
-            server = new HTTPServer(address, collectorRegistry);
-        } catch (IOException e) {
-            if (!(e instanceof BindException && e.getMessage().equals("Address already in use"))) {
-                log.error("Unable to establish connection for Prometheus sink associated with stream \'" +
-                                getStreamDefinition().getId() + "\' at " + serverURL);
-                throw new ConnectionUnavailableException("Unable to establish connection for Prometheus sink " +
-                        "associated with stream \'" + getStreamDefinition().getId() + "\' at " + serverURL, e);
+            pushGatewayClient.push(collectorRegistry.metricFamilySamples(), false)
+                    .get(PUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+            log.info(getStreamDefinition().getId() + " has successfully connected to pushGateway at " + pushURL);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectException) {
+                stopPushing();
+                log.error("The stream \'" + getStreamDefinition().getId() + "\' of Prometheus sink " +
+                        "could not connect to Pushgateway." +
+                        " Prometheus pushgateway is not listening at " + target);
+                throw new ConnectionUnavailableException("The stream \'" + getStreamDefinition().getId() +
+                        "\' of Prometheus sink could not connect to Pushgateway." +
+                        " Prometheus pushgateway is not listening at " + target, e.getCause());
             }
+            log.error("Initial push of Prometheus sink associated with stream \'" + getStreamDefinition().getId() +
+                    "\' was not accepted by the pushGateway at " + target, e.getCause());
+        } catch (TimeoutException e) {
+            stopPushing();
+            throw new ConnectionUnavailableException("The stream \'" + getStreamDefinition().getId() +
+                    "\' of Prometheus sink timed out while connecting to Pushgateway at " + target, e);
+        } catch (InterruptedException e) {
+            stopPushing();
+            Thread.currentThread().interrupt();
+            throw new ConnectionUnavailableException("The stream \'" + getStreamDefinition().getId() +
+                    "\' of Prometheus sink was interrupted while connecting to Pushgateway at " + target, e);
+        }
+    }
+
+    private void openPushBuffer() throws ConnectionUnavailableException {
+        try {
+            pushBuffer = new PrometheusPushBuffer(new File(pushBufferDirectory), pushBufferMaxSize,
+                    pushBufferSegmentSize, getStreamDefinition().getId());
+        } catch (IOException e) {
+            stopPushing();
+            throw new ConnectionUnavailableException("Unable to open the push buffer of Prometheus sink associated " +
+                    "with stream \'" + getStreamDefinition().getId() + "\' at " + pushBufferDirectory, e);
         }
+        pushBuffer.start(pushGatewayClient::push);
+        log.info(getStreamDefinition().getId() + " buffers the pushes to pushGateway at " + pushURL + " in " +
+                pushBufferDirectory);
+    }
+
+    private void stopAggregating() {
+        if (aggregationWindow != null) {
+            aggregationWindow.stop(PUSH_TIMEOUT);
+            aggregationWindow = null;
+        }
+    }
+
+    private void stopPushing() {
+        if (pushScheduler != null) {
+            pushScheduler.stop(PUSH_TIMEOUT);
+            pushScheduler = null;
+        }
+        if (pushBuffer != null) {
+            pushBuffer.stop(PUSH_TIMEOUT);
+            pushBuffer = null;
+        }
+        if (pushGatewayClient != null) {
+            pushGatewayClient.shutdown();
+            pushGatewayClient = null;
+        }
+    }
+
+    // the samples which are queued when the sink disconnects are sent before the shards are stopped
+    private void stopWriting() {
+        if (remoteWriteClient != null) {
+            remoteWriteClient.stop(PUSH_TIMEOUT);
+            remoteWriteClient = null;
+        }
+    }
+
+    /**
+     * The sinks exposing metrics at the same host and port share one HTTP server, which is started by the first sink
+     * attached to it.
+     */
+    private void initiateServer(URL target) throws ConnectionUnavailableException {
+        try {
+            PrometheusRegistryHolder.attachServer(target.getHost(), target.getPort(), createServerFactory());
+            serverTarget = target;
+        } catch (IOException e) {
+            log.error("Unable to establish connection for Prometheus sink associated with stream \'" +
+                    getStreamDefinition().getId() + "\' at " + serverURL);
+            throw new ConnectionUnavailableException("Unable to establish connection for Prometheus sink " +
+                    "associated with stream \'" + getStreamDefinition().getId() + "\' at " + serverURL, e);
+        }
+    }
+
+    private PrometheusExpositionServer.Factory createServerFactory() {
+        if (serverType.equalsIgnoreCase(NETTY_SERVER_TYPE)) {
+            return (address, exposition) -> new PrometheusNettyExpositionServer(address, exposition,
+                    serverEventLoopThreads, serverWorkerThreads);
+        }
+        return PrometheusHttpExpositionServer::new;
     }
 
     @Override
     public void disconnect() {
-        if (server != null) {
-            server.stop();
-            log.info("Server successfully stopped at " + serverURL);
+        // the last window is emitted before the pending updates are pushed
+        stopAggregating();
+        stopPushing();
+        stopWriting();
+        if (serverTarget != null) {
+            if (PrometheusRegistryHolder.detachServer(serverTarget.getHost(), serverTarget.getPort())) {
+                log.info("Server successfully stopped at " + serverURL);
+            }
+            serverTarget = null;
         }
     }
 
     @Override
     public void destroy() {
-        if (collectorRegistry != null) {
-            collectorRegistry.clear();
+        if (prometheusMetricBuilder != null) {
+            prometheusMetricBuilder.unregisterMetric();
         }
-    }
-
-    private String assignRegisteredMetrics() {
-        Enumeration<Collector.MetricFamilySamples> registeredMetricSamples = prometheusMetricBuilder.
-                getRegistry().metricFamilySamples();
-        Collector.MetricFamilySamples metricFamilySamples;
-        while (registeredMetricSamples.hasMoreElements()) {
-            metricFamilySamples = registeredMetricSamples.nextElement();
-            if (metricFamilySamples.name.equals(metricName)) {
-                return metricFamilySamples.toString();
-            }
+        if (metricRouter != null) {
+            metricRouter.unregisterMetrics();
         }
-        return "";
     }
 
     class PrometheusSinkState extends State {
@@ -557,15 +1468,42 @@ public class PrometheusSink extends Sink<PrometheusSink.PrometheusSinkState> {
         @Override
         public Map<String, Object> snapshot() {
             Map<String, Object> currentMetrics = new HashMap<>();
-            currentMetrics.put(PrometheusConstants.REGISTERED_METRICS, assignRegisteredMetrics());
+            if (metricRouter != null) {
+                currentMetrics.put(PrometheusConstants.METRIC_SNAPSHOTS, metricRouter.snapshot());
+                currentMetrics.put(PrometheusConstants.METRIC_HELPS, metricRouter.getMetricHelps());
+            } else {
+                Map<String, byte[]> metricSnapshots = new HashMap<>();
+                byte[] metricSnapshot = prometheusMetricBuilder.snapshot();
+                if (metricSnapshot != null) {
+                    metricSnapshots.put(metricName, metricSnapshot);
+                }
+                currentMetrics.put(PrometheusConstants.METRIC_SNAPSHOTS, metricSnapshots);
+            }
             return currentMetrics;
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public void restore(Map<String, Object> map) {
-            Object currentMetricSample = map.get(PrometheusConstants.REGISTERED_METRICS);
-            if (!currentMetricSample.equals(EMPTY_STRING)) {
-                registeredMetrics = currentMetricSample.toString();
+            Object metricSnapshots = map.get(PrometheusConstants.METRIC_SNAPSHOTS);
+            if (!(metricSnapshots instanceof Map)) {
+                // snapshots of former versions of the sink do not carry the state of the metrics
+                return;
+            }
+            try {
+                if (metricRouter != null) {
+                    Object metricHelps = map.get(PrometheusConstants.METRIC_HELPS);
+                    metricRouter.restore((Map<String, byte[]>) metricSnapshots, metricHelps instanceof Map ?
+                            (Map<String, String>) metricHelps : new HashMap<>());
+                } else {
+                    byte[] metricSnapshot = ((Map<String, byte[]>) metricSnapshots).get(metricName);
+                    if (metricSnapshot != null) {
+                        prometheusMetricBuilder.restore(metricSnapshot);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to restore the state of the metrics of Prometheus sink associated with " +
+                        "stream \'" + getStreamDefinition().getId() + "\'.", e);
             }
         }
     }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PrometheusAggregationWindow} Pre-aggregates the events of a Prometheus sink per label set over a tumbling
+ * window, so that the metric is only updated once per series and window. The aggregates are kept in a
+ * {@link PrometheusSeriesTable}, which resolves repeated label sets without allocations, and each aggregate is
+ * reset in place when its window is emitted. An aggregate which received no events in a whole window is retired and
+ * removed, so that the table only holds the label sets which are in use, and a later event of the label set starts
+ * a new aggregate. An event either falls into the window being emitted or into the next one, so no event is lost.
+ * The last window is emitted when the window is stopped.
+ */
+public class PrometheusAggregationWindow {
+    private static final Logger log = LogManager.getLogger(PrometheusAggregationWindow.class);
+
+    private final AggregateFunction function;
+    private final long windowLength;
+    private final AggregateConsumer aggregateConsumer;
+    private final Runnable windowListener;
+    private final String streamID;
+    private final PrometheusSeriesTable<Aggregate> aggregates = new PrometheusSeriesTable<>(labelValues ->
+            new Aggregate());
+    private ScheduledExecutorService executorService;
+
+    /**
+     * @param function          name of the aggregate function, one of sum, count, min, max and last
+     * @param windowLength      length of the tumbling window in milliseconds
+     * @param aggregateConsumer receives the aggregate of each series which received events in a window
+     * @param windowListener    notified after the aggregates of a window which received events are emitted
+     * @param streamID          streamId of the stream for log messages
+     */
+    public PrometheusAggregationWindow(String function, long windowLength, AggregateConsumer aggregateConsumer,
+                                       Runnable windowListener, String streamID) {
+        this.function = AggregateFunction.valueOf(function.toUpperCase(Locale.ENGLISH));
+        this.windowLength = windowLength;
+        this.aggregateConsumer = aggregateConsumer;
+        this.windowListener = windowListener;
+        this.streamID = streamID;
+    }
+
+    /**
+     * Checks whether the given name is an aggregate function supported by the window.
+     *
+     * @param function name of the aggregate function
+     * @return true if the function is supported
+     */
+    public static boolean isSupported(String function) {
+        for (AggregateFunction supportedFunction : AggregateFunction.values()) {
+            if (supportedFunction.name().equalsIgnoreCase(function)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the aggregates of the given function add up over the windows, so that they can be added to
+     * the metric. The aggregates of the other functions replace the value of the metric.
+     *
+     * @param function name of a supported aggregate function
+     * @return true for sum and count
+     */
+    public static boolean isAdditive(String function) {
+        AggregateFunction aggregateFunction = AggregateFunction.valueOf(function.toUpperCase(Locale.ENGLISH));
+        return aggregateFunction == AggregateFunction.SUM || aggregateFunction == AggregateFunction.COUNT;
+    }
+
+    public void start() {
+        executorService = Executors.newSingleThreadScheduledExecutor(
+                new PrometheusThreadFactory("aggregation-window", streamID));
+        executorService.scheduleAtFixedRate(this::emitWindow, windowLength, windowLength, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the window, emitting the aggregates of the last window.
+     *
+     * @param timeout maximum time in milliseconds to wait for the window being emitted
+     */
+    public void stop(long timeout) {
+        if (executorService == null) {
+            return;
+        }
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executorService = null;
+        emitWindow();
+    }
+
+    /**
+     * Add the value of an event to the aggregate of its label set in the current window.
+     *
+     * @param value       metric value of the event
+     * @param labelValues label values of the event
+     */
+    public void add(double value, String[] labelValues) {
+        // an aggregate retired by the window being emitted is replaced once it is removed from the table
+        while (!aggregates.getChild(labelValues).add(value)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Emit the aggregates of the series which received events since the last window, remove the series which
+     * did not, and start a new window.
+     */
+    void emitWindow() {
+        boolean[] emitted = new boolean[1];
+        // the retired series are removed after the walk, since a removal moves the following series of the table
+        List<String[]> retiredLabelValues = new ArrayList<>();
+        List<Aggregate> retiredAggregates = new ArrayList<>();
+        try {
+            aggregates.forEachSeries((labelValues, aggregate) -> {
+                double[] value = aggregate.drain(function);
+                if (value != null) {
+                    aggregateConsumer.accept(value[0], labelValues);
+                    emitted[0] = true;
+                } else {
+                    retiredLabelValues.add(labelValues);
+                    retiredAggregates.add(aggregate);
+                }
+            });
+            for (int i = 0; i < retiredAggregates.size(); i++) {
+                aggregates.remove(retiredLabelValues.get(i), retiredAggregates.get(i));
+            }
+            if (emitted[0]) {
+                windowListener.run();
+            }
+        } catch (RuntimeException e) {
+            log.error("Unable to emit the aggregation window of Prometheus sink associated with stream \'" +
+                    streamID + "\'.", e);
+        }
+    }
+
+    /**
+     * Aggregate functions of the window.
+     */
+    private enum AggregateFunction {
+        SUM, COUNT, MIN, MAX, LAST
+    }
+
+    /**
+     * @return number of label sets whose aggregates are held by the window
+     */
+    int size() {
+        return aggregates.size();
+    }
+
+    /**
+     * Aggregate of a label set in the current window. Updates only take the lock of their own label set.
+     */
+    private static final class Aggregate {
+        private long count;
+        private double sum;
+        private double min;
+        private double max;
+        private double last;
+        private boolean retired;
+
+        // false if the aggregate is retired, and no longer receives events
+        synchronized boolean add(double value) {
+            if (retired) {
+                return false;
+            }
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            count++;
+            sum += value;
+            last = value;
+            return true;
+        }
+
+        // the value of the aggregate function over the window, or null if the window received no events, in which
+        // case the aggregate is retired
+        synchronized double[] drain(AggregateFunction function) {
+            if (count == 0) {
+                retired = true;
+                return null;
+            }
+            double value;
+            switch (function) {
+                case COUNT:
+                    value = count;
+                    break;
+                case MIN:
+                    value = min;
+                    break;
+                case MAX:
+                    value = max;
+                    break;
+                case LAST:
+                    value = last;
+                    break;
+                default:
+                    value = sum;
+            }
+            count = 0;
+            sum = 0;
+            return new double[]{value};
+        }
+    }
+
+    /**
+     * Receives the aggregate of a label set at the end of a window.
+     */
+    public interface AggregateConsumer {
+        void accept(double value, String[] labelValues);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.CollectorRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code PrometheusExposition} Metrics exposed at an endpoint, together with the registry they are registered in.
+ * Scrapes are answered from the encoded metric families cached by each metric builder, so that only the families
+ * updated since the previous scrape are encoded again. A scrape may select the metrics of a single Siddhi app by
+ * its path, and the metric families by their names.
+ */
+public class PrometheusExposition {
+    private static final String APP_PATH_PREFIX = "/metrics/";
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+    private final Set<PrometheusMetricBuilder> metricBuilders = ConcurrentHashMap.newKeySet();
+
+    CollectorRegistry getRegistry() {
+        return registry;
+    }
+
+    void addMetric(PrometheusMetricBuilder metricBuilder) {
+        metricBuilders.add(metricBuilder);
+    }
+
+    void removeMetric(PrometheusMetricBuilder metricBuilder) {
+        metricBuilders.remove(metricBuilder);
+    }
+
+    /**
+     * Resolve the Siddhi app selected by the path of a scrape. The metrics of an app are exposed at
+     * /metrics/appName, while the other paths expose the metrics of all the apps of the endpoint.
+     *
+     * @param path decoded path of the scrape
+     * @return name of the selected app, or null to expose the metrics of all the apps
+     */
+    static String parseAppName(String path) {
+        if (path == null || !path.startsWith(APP_PATH_PREFIX)) {
+            return null;
+        }
+        String appName = path.substring(APP_PATH_PREFIX.length());
+        if (appName.endsWith("/")) {
+            appName = appName.substring(0, appName.length() - 1);
+        }
+        return appName.isEmpty() ? null : appName;
+    }
+
+    /**
+     * Check whether a scrape path exposes metrics. Below /metrics/ only a single segment naming the app is exposed,
+     * hence a deeper path is not found rather than selecting an app whose name contains a slash.
+     *
+     * @param path decoded path of the scrape
+     * @return false if the path is not exposed
+     */
+    static boolean isExposedPath(String path) {
+        String appName = parseAppName(path);
+        return appName == null || appName.indexOf('/') == -1;
+    }
+
+    /**
+     * Retrieve the metric families of the endpoint in the given exposition format. Only the families selected by
+     * the scrape are collected and encoded.
+     *
+     * @param appName       name of the Siddhi app whose metrics are included, or null to include all the apps
+     * @param includedNames names of the metrics to be included, or null to include all the metrics
+     * @param format        exposition format of the metric families
+     * @return encoded metric families
+     * @throws IOException if a metric family could not be encoded
+     */
+    public List<byte[]> encode(String appName, Set<String> includedNames, PrometheusExpositionFormat format)
+            throws IOException {
+        List<byte[]> encodedFamilies = new ArrayList<>(metricBuilders.size());
+        for (PrometheusMetricBuilder metricBuilder : metricBuilders) {
+            if (appName == null || appName.equals(metricBuilder.getAppName())) {
+                byte[] encodedFamily = metricBuilder.encodeMetric(format, includedNames);
+                if (encodedFamily.length > 0) {
+                    encodedFamilies.add(encodedFamily);
+                }
+            }
+        }
+        return encodedFamilies;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code PrometheusExpositionFormat} Formats in which the metrics are exposed to Prometheus in server publish mode.
+ */
+public enum PrometheusExpositionFormat {
+    TEXT(TextFormat.CONTENT_TYPE_004) {
+        @Override
+        void write(OutputStream outputStream, List<Collector.MetricFamilySamples> metricFamilySamples)
+                throws IOException {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            TextFormat.write004(writer, Collections.enumeration(metricFamilySamples));
+            writer.flush();
+        }
+    },
+    PROTOBUF(PrometheusProtobufFormat.CONTENT_TYPE) {
+        @Override
+        void write(OutputStream outputStream, List<Collector.MetricFamilySamples> metricFamilySamples)
+                throws IOException {
+            for (Collector.MetricFamilySamples familySamples : metricFamilySamples) {
+                PrometheusProtobufFormat.writeDelimited(outputStream, familySamples);
+            }
+        }
+    };
+
+    private static final String PROTOBUF_MEDIA_TYPE = "application/vnd.google.protobuf";
+    private static final String PROTOBUF_PROTO = "proto=io.prometheus.client.MetricFamily";
+    private static final String PROTOBUF_ENCODING = "encoding=delimited";
+
+    private final String contentType;
+
+    PrometheusExpositionFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    abstract void write(OutputStream outputStream, List<Collector.MetricFamilySamples> metricFamilySamples)
+            throws IOException;
+
+    /**
+     * Select the format of a scrape from its Accept header. The delimited protobuf format is only served when the
+     * scraper explicitly asks for it, and the text format is served otherwise.
+     *
+     * @param acceptHeader value of the Accept header of the scrape, or null if it is not present
+     * @return format of the response
+     */
+    public static PrometheusExpositionFormat negotiate(String acceptHeader) {
+        if (acceptHeader == null) {
+            return TEXT;
+        }
+        for (String mediaRange : acceptHeader.split(",")) {
+            String range = mediaRange.trim();
+            if (range.startsWith(PROTOBUF_MEDIA_TYPE) && range.contains(PROTOBUF_PROTO) &&
+                    range.contains(PROTOBUF_ENCODING)) {
+                return PROTOBUF;
+            }
+        }
+        return TEXT;
+    }
+}
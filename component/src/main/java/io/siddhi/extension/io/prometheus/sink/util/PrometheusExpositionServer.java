@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * {@code PrometheusExpositionServer} HTTP server which exposes the metrics of an endpoint to Prometheus in server
+ * publish mode.
+ */
+public interface PrometheusExpositionServer {
+
+    /**
+     * Stop the server and release its threads and sockets.
+     */
+    void stop();
+
+    /**
+     * Starts an exposition server for the metrics of an endpoint.
+     */
+    interface Factory {
+        /**
+         * @param address    address to which the server is bound
+         * @param exposition metrics exposed by the server
+         * @return the started server
+         * @throws IOException if the server could not be bound to the address
+         */
+        PrometheusExpositionServer start(InetSocketAddress address, PrometheusExposition exposition)
+                throws IOException;
+    }
+}
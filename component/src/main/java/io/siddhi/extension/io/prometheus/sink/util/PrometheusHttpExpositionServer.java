@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code PrometheusHttpExpositionServer} Exposes the metrics of an endpoint through the HTTP server of the JDK, the
+ * same way as the HTTP server of the Prometheus java client, while answering the scrapes from the encoded metric
+ * families cached by the endpoint. The format of the response is negotiated from the Accept header of the scrape.
+ */
+public class PrometheusHttpExpositionServer implements PrometheusExpositionServer {
+    private static final Logger log = LogManager.getLogger(PrometheusHttpExpositionServer.class);
+    private static final int SERVER_THREADS = 5;
+    private static final int SERVER_BACKLOG = 3;
+    private static final String NAME_PARAMETER = "name[]";
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final PrometheusExposition exposition;
+    private final HttpServer server;
+    private final ExecutorService executorService;
+
+    public PrometheusHttpExpositionServer(InetSocketAddress address, PrometheusExposition exposition)
+            throws IOException {
+        this.exposition = exposition;
+        this.server = HttpServer.create(address, SERVER_BACKLOG);
+        HttpHandler handler = this::handleScrape;
+        server.createContext("/", handler);
+        server.createContext("/metrics", handler);
+        this.executorService = Executors.newFixedThreadPool(SERVER_THREADS,
+                new PrometheusThreadFactory("exposition", String.valueOf(address.getPort())));
+        server.setExecutor(executorService);
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        server.stop(0);
+        executorService.shutdown();
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        if (!PrometheusExposition.isExposedPath(exchange.getRequestURI().getPath())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        PrometheusExpositionFormat format = PrometheusExpositionFormat.negotiate(
+                exchange.getRequestHeaders().getFirst("Accept"));
+        List<byte[]> encodedFamilies;
+        try {
+            encodedFamilies = exposition.encode(PrometheusExposition.parseAppName(exchange.getRequestURI().getPath()),
+                    parseIncludedNames(exchange.getRequestURI().getRawQuery()), format);
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to write the metrics for the scrape " + exchange.getRequestURI(), e);
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains(GZIP_ENCODING);
+        OutputStream outputStream;
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", GZIP_ENCODING);
+            exchange.sendResponseHeaders(200, 0);
+            outputStream = new GZIPOutputStream(exchange.getResponseBody());
+        } else {
+            long contentLength = 0;
+            for (byte[] encodedFamily : encodedFamilies) {
+                contentLength += encodedFamily.length;
+            }
+            exchange.sendResponseHeaders(200, contentLength == 0 ? -1 : contentLength);
+            outputStream = exchange.getResponseBody();
+        }
+        try {
+            for (byte[] encodedFamily : encodedFamilies) {
+                outputStream.write(encodedFamily);
+            }
+        } finally {
+            outputStream.close();
+            exchange.close();
+        }
+    }
+
+    static Set<String> parseIncludedNames(String query) throws UnsupportedEncodingException {
+        if (query == null) {
+            return null;
+        }
+        Set<String> includedNames = new HashSet<>();
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator != -1 && NAME_PARAMETER.equals(URLDecoder.decode(parameter.substring(0, separator),
+                    StandardCharsets.UTF_8.name()))) {
+                includedNames.add(URLDecoder.decode(parameter.substring(separator + 1),
+                        StandardCharsets.UTF_8.name()));
+            }
+        }
+        return includedNames.isEmpty() ? null : includedNames;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.wso2.transport.http.netty.contract.Constants;
+import org.wso2.transport.http.netty.contract.HttpClientConnector;
+import org.wso2.transport.http.netty.contract.HttpConnectorListener;
+import org.wso2.transport.http.netty.contract.HttpWsConnectorFactory;
+import org.wso2.transport.http.netty.contract.config.KeepAliveConfig;
+import org.wso2.transport.http.netty.contract.config.SenderConfiguration;
+import org.wso2.transport.http.netty.contractimpl.DefaultHttpWsConnectorFactory;
+import org.wso2.transport.http.netty.contractimpl.sender.channel.pool.ConnectionManager;
+import org.wso2.transport.http.netty.contractimpl.sender.channel.pool.PoolConfiguration;
+import org.wso2.transport.http.netty.message.Http2PushPromise;
+import org.wso2.transport.http.netty.message.HttpCarbonMessage;
+import org.wso2.transport.http.netty.message.HttpMessageDataStreamer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PrometheusHttpSender} Sends the requests of a Prometheus sink to an HTTP endpoint over pooled keep-alive
+ * connections of the Netty based HTTP transport. Requests are sent without blocking the caller, and the result of
+ * each request is notified through the returned future, which fails with a {@link PrometheusResponseException} when
+ * the endpoint answers with a non 2xx status, or with a {@code ConnectException} when the endpoint is not reachable.
+ * <p>
+ * All the senders share one connector factory, and with it the event loops of the transport, while each sender has
+ * its own client connector and connection pool. The senders using the factory are reference counted, so that the
+ * factory is created by the first sender and shut down by the last one.
+ */
+final class PrometheusHttpSender {
+    private static final Logger log = LogManager.getLogger(PrometheusHttpSender.class);
+    private static final Object connectorFactoryLock = new Object();
+    private static HttpWsConnectorFactory connectorFactory;
+    private static int connectorFactoryReferences;
+
+    private final URL targetURL;
+    private final String targetName;
+    private final int port;
+    private final ExecutorService responseExecutor;
+    private final HttpClientConnector httpClientConnector;
+    private boolean shutdown;
+
+    /**
+     * @param targetURL          URL of the endpoint
+     * @param targetName         name of the endpoint for error messages
+     * @param maxConnections     maximum number of pooled connections to the endpoint
+     * @param trustStoreFile     trust store of https endpoints
+     * @param trustStorePassword password of the trust store
+     * @param task               name of the response thread
+     * @param streamID           streamId of the stream for thread names
+     */
+    PrometheusHttpSender(URL targetURL, String targetName, int maxConnections, String trustStoreFile,
+                         String trustStorePassword, String task, String streamID) {
+        this.targetURL = targetURL;
+        this.targetName = targetName;
+        this.port = targetURL.getPort() != -1 ? targetURL.getPort() : targetURL.getDefaultPort();
+        this.responseExecutor = Executors.newSingleThreadExecutor(new PrometheusThreadFactory(task, streamID));
+        SenderConfiguration senderConfiguration = new SenderConfiguration();
+        senderConfiguration.setScheme(targetURL.getProtocol());
+        if (PrometheusConstants.HTTPS_SCHEME.equalsIgnoreCase(targetURL.getProtocol())) {
+            senderConfiguration.setTrustStoreFile(trustStoreFile);
+            senderConfiguration.setTrustStorePass(trustStorePassword);
+        }
+        senderConfiguration.setKeepAliveConfig(KeepAliveConfig.ALWAYS);
+        senderConfiguration.setSocketIdleTimeout(PrometheusConstants.PUSH_TIMEOUT);
+        PoolConfiguration poolConfiguration = new PoolConfiguration();
+        poolConfiguration.setMaxActivePerPool(maxConnections);
+        this.httpClientConnector = acquireConnectorFactory().createHttpClientConnector(new HashMap<>(),
+                senderConfiguration, new ConnectionManager(poolConfiguration));
+    }
+
+    private static HttpWsConnectorFactory acquireConnectorFactory() {
+        synchronized (connectorFactoryLock) {
+            if (connectorFactoryReferences == 0) {
+                connectorFactory = new DefaultHttpWsConnectorFactory();
+            }
+            connectorFactoryReferences++;
+            return connectorFactory;
+        }
+    }
+
+    private static void releaseConnectorFactory() throws InterruptedException {
+        synchronized (connectorFactoryLock) {
+            connectorFactoryReferences--;
+            if (connectorFactoryReferences == 0) {
+                HttpWsConnectorFactory releasedFactory = connectorFactory;
+                connectorFactory = null;
+                releasedFactory.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return connector factory shared by the senders, or null if there are no senders
+     */
+    static HttpWsConnectorFactory getConnectorFactory() {
+        synchronized (connectorFactoryLock) {
+            return connectorFactory;
+        }
+    }
+
+    /**
+     * Send a request to the endpoint without waiting for the response.
+     *
+     * @param method         method of the request
+     * @param requestPath    path of the request
+     * @param body           body of the request, released once it is written
+     * @param contentHeaders content headers of the body, such as its type and encoding
+     * @return future which completes when the endpoint accepts the request
+     */
+    CompletableFuture<Void> send(HttpMethod method, String requestPath, ByteBuf body, HttpHeaders contentHeaders) {
+        CompletableFuture<Void> sendResult = new CompletableFuture<>();
+        HttpCarbonMessage request = new HttpCarbonMessage(new DefaultHttpRequest(HttpVersion.HTTP_1_1, method,
+                requestPath));
+        request.setProperty(Constants.PROTOCOL, targetURL.getProtocol());
+        request.setProperty(Constants.TO, requestPath);
+        request.setProperty(Constants.HTTP_HOST, targetURL.getHost());
+        request.setProperty(Constants.HTTP_PORT, port);
+        request.setHttpMethod(method.name());
+        HttpHeaders headers = request.getHeaders();
+        headers.set(HttpHeaderNames.HOST, targetURL.getHost() + ":" + port);
+        headers.add(contentHeaders);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+        request.addHttpContent(new DefaultLastHttpContent(body));
+        httpClientConnector.send(request).setHttpConnectorListener(new ResponseListener(sendResult, requestPath));
+        return sendResult;
+    }
+
+    /**
+     * Close the connections once the responses being read are notified, and release the shared connector factory.
+     * Shutting down a sender which is already shut down has no effect.
+     *
+     * @param timeout maximum time in milliseconds to wait for the responses being read
+     * @throws InterruptedException if interrupted while waiting for the responses
+     */
+    synchronized void shutdown(long timeout) throws InterruptedException {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        responseExecutor.shutdown();
+        try {
+            responseExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            httpClientConnector.close();
+            releaseConnectorFactory();
+        }
+    }
+
+    /**
+     * Completes the future of a request once the response of the endpoint is read. The response body is drained
+     * outside the transport threads so that the connection can be returned to the pool.
+     */
+    private class ResponseListener implements HttpConnectorListener {
+        private final CompletableFuture<Void> sendResult;
+        private final String requestPath;
+
+        ResponseListener(CompletableFuture<Void> sendResult, String requestPath) {
+            this.sendResult = sendResult;
+            this.requestPath = requestPath;
+        }
+
+        @Override
+        public void onMessage(HttpCarbonMessage response) {
+            responseExecutor.execute(() -> {
+                int statusCode = response.getNettyHttpResponse().status().code();
+                try (InputStream inputStream = new HttpMessageDataStreamer(response).getInputStream()) {
+                    byte[] buffer = new byte[1024];
+                    while (inputStream.read(buffer) != -1) {
+                        // discard the response body
+                    }
+                } catch (IOException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Unable to read the response of the " + targetName + " at " + targetURL, e);
+                    }
+                }
+                if (statusCode / 100 == 2) {
+                    sendResult.complete(null);
+                } else {
+                    sendResult.completeExceptionally(new PrometheusResponseException("Response code from " +
+                            targetName + " at " + targetURL.getProtocol() + "://" + targetURL.getHost() + ":" +
+                            port + requestPath + " was " + statusCode, statusCode));
+                }
+            });
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            ConnectException exception = new ConnectException("Unable to connect to " + targetName + " at " +
+                    targetURL);
+            exception.initCause(throwable);
+            sendResult.completeExceptionally(exception);
+        }
+
+        @Override
+        public void onPushPromise(Http2PushPromise pushPromise) {
+
+        }
+    }
+}
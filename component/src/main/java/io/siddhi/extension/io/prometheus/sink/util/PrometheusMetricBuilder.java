@@ -22,31 +22,65 @@ import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
-import io.prometheus.client.Histogram;
 import io.prometheus.client.SimpleCollector;
 import io.prometheus.client.SimpleCollector.Builder;
 import io.prometheus.client.Summary;
 import io.siddhi.core.exception.SiddhiAppCreationException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 /**
  * {@code PrometheusMetricBuilder } Builds and assigns values for metrics.
  */
 public class PrometheusMetricBuilder {
+    private static final Logger log = LogManager.getLogger(PrometheusMetricBuilder.class);
+
+    private static final byte[] EMPTY_FAMILY = new byte[0];
+    private static final String EVICTED_SERIES_SUFFIX = "_series_evicted_total";
+    private static final String[] FAMILY_SUFFIXES = {"", "_count", "_sum", "_bucket"};
 
     private CollectorRegistry registry;
+    private PrometheusExposition exposition;
     private String metricName;
-    private String metricHelp;
+    private String appName;
     private List<String> attributes;
-    private Collector.Type metricType;
-    private Collector metricsCollector;
+    private final List<MetricDefinition> metrics = new ArrayList<>();
+    private PrometheusSeriesTable<SeriesChildren> seriesTable;
     private double[] histogramBuckets = new double[0];
     private double[] summaryQuantiles = new double[0];
     private double quantileError;
+    private boolean nativeHistogram;
+    private boolean sketchSummary;
+    private boolean weightedObservations;
+    private int nativeHistogramSchema;
+    private int maxSeries;
+    private boolean overflowSeries;
+    private long seriesTimeToLive;
+    private ScheduledFuture<?> seriesSweep;
+    private Collector evictedSeriesCollector;
+    private final AtomicLong generation = new AtomicLong();
+    private byte[] pendingSnapshot;
+    private final AtomicReferenceArray<EncodedFamily> encodedFamilies =
+            new AtomicReferenceArray<>(PrometheusExpositionFormat.values().length);
 
     public final CollectorRegistry getRegistry() {
         return registry;
@@ -55,26 +89,252 @@ public class PrometheusMetricBuilder {
     public PrometheusMetricBuilder(String metricName, String metrichelp,
                                    Collector.Type metricType, List<String> labels) {
         this.metricName = metricName;
-        this.metricHelp = metrichelp;
-        this.metricType = metricType;
         this.attributes = labels;
+        this.metrics.add(new MetricDefinition(metricName, metrichelp, metricType));
+    }
+
+    /**
+     * Add a metric which shares the labels and the series of the metric of this builder, so that the label values
+     * of an event are resolved once for all the metrics. The buckets, quantiles and observation settings of the
+     * builder also apply to the additional histograms and summaries.
+     *
+     * @param name name of the additional metric
+     * @param help help of the additional metric
+     * @param type type of the additional metric
+     */
+    public void addMetric(String name, String help, Collector.Type type) {
+        metrics.add(new MetricDefinition(name, help, type));
+    }
+
+    private static ChildUpdater createChildUpdater(Collector.Type metricType) {
+        switch (metricType) {
+            case COUNTER:
+                return (child, value, count) -> ((Counter.Child) child).inc(value);
+            case GAUGE:
+                return (child, value, count) -> ((Gauge.Child) child).inc(value);
+            case SUMMARY:
+                return (child, value, count) -> ((Summary.Child) child).observe(value);
+            default:
+                throw new IllegalArgumentException("Unsupported metric type : " + metricType);
+        }
+    }
+
+    // CKMS summaries are written from their collected samples, since their quantiles are only read by collecting
+    private static ChildTextWriter createChildTextWriter(MetricDefinition metric) {
+        byte[] name = PrometheusTextWriter.encodeName(metric.name);
+        switch (metric.type) {
+            case COUNTER:
+                return (writer, child, labels) -> writer.writeSample(name, labels, null, ((Counter.Child) child).get());
+            case GAUGE:
+                return (writer, child, labels) -> writer.writeSample(name, labels, null, ((Gauge.Child) child).get());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param appName name of the Siddhi app of the metric, whose metrics are exposed together at /metrics/appName
+     */
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    String getAppName() {
+        return appName;
     }
 
     public void setHistogramBuckets(double[] histogramBuckets) {
         this.histogramBuckets = histogramBuckets.clone();
     }
 
+    /**
+     * Record the observations of a histogram in native buckets in addition to the classic buckets.
+     *
+     * @param nativeHistogram true to record native buckets
+     * @param schema          resolution of the native buckets, between -4 and 8
+     */
+    public void setNativeHistogram(boolean nativeHistogram, int schema) {
+        this.nativeHistogram = nativeHistogram;
+        this.nativeHistogramSchema = schema;
+    }
+
+    /**
+     * Estimate the quantiles of a summary with a lock free quantile sketch instead of the CKMS estimator.
+     *
+     * @param sketchSummary true to estimate the quantiles with a sketch
+     */
+    public void setSketchSummary(boolean sketchSummary) {
+        this.sketchSummary = sketchSummary;
+    }
+
+    /**
+     * Record observations with a weight, as values observed a number of times. The children of weighted
+     * histograms and summaries apply the weight in a single update, which the children of the Prometheus client
+     * cannot do. Weighted summaries must estimate their quantiles with a sketch.
+     *
+     * @param weightedObservations true if the observations carry a weight
+     */
+    public void setWeightedObservations(boolean weightedObservations) {
+        this.weightedObservations = weightedObservations;
+    }
+
     public void setQuantiles(double[] summaryQuantiles, Double quantileError) {
         this.summaryQuantiles = summaryQuantiles.clone();
         this.quantileError = quantileError;
     }
 
-    public void registerMetric(String valueAttribute) {
-        metricsCollector = buildMetric(valueAttribute).register(registry);
+    /**
+     * Bound the number of series of the metric.
+     *
+     * @param maxSeries      maximum number of series, 0 for no bound
+     * @param overflowSeries true to route the label sets beyond the bound into an overflow series, false to evict
+     *                       the least recently updated series
+     */
+    public void setMaxSeries(int maxSeries, boolean overflowSeries) {
+        this.maxSeries = maxSeries;
+        this.overflowSeries = overflowSeries;
     }
 
-    private Builder buildMetric(String valueAttribute) {
+    /**
+     * Expire the series of the metric which are not updated within the given time.
+     *
+     * @param seriesTimeToLive time to live of the series in milliseconds, 0 to keep the series forever
+     */
+    public void setSeriesTimeToLive(long seriesTimeToLive) {
+        this.seriesTimeToLive = seriesTimeToLive;
+    }
+
+    public void registerMetric(String valueAttribute) {
+        if (seriesTable != null) {
+            // the metric stays registered while the sink reconnects
+            return;
+        }
         attributes.remove(valueAttribute);
+        try {
+            for (MetricDefinition metric : metrics) {
+                registerCollector(metric);
+            }
+        } catch (IllegalArgumentException e) {
+            // the registry already holds a metric of the same name, hence none of the metrics is left registered
+            unregisterCollectors();
+            throw e;
+        }
+        MetricDefinition[] metricDefinitions = metrics.toArray(new MetricDefinition[0]);
+        seriesTable = new PrometheusSeriesTable<>(labelValues -> {
+            Object[] children = new Object[metricDefinitions.length];
+            for (int i = 0; i < metricDefinitions.length; i++) {
+                children[i] = metricDefinitions[i].childFactory.apply(labelValues);
+            }
+            return new SeriesChildren(children);
+        }, labelValues -> {
+            for (MetricDefinition metric : metricDefinitions) {
+                metric.childRemover.accept(labelValues);
+            }
+            generation.incrementAndGet();
+        }, maxSeries, overflowSeries, TimeUnit.MILLISECONDS.toNanos(seriesTimeToLive));
+        initializeNoLabelsSeries();
+        if (seriesTimeToLive > 0) {
+            seriesSweep = PrometheusSeriesSweeper.schedule(seriesTable, metricName);
+        }
+        if (maxSeries > 0) {
+            evictedSeriesCollector = new EvictedSeriesCollector(seriesTable).register(registry);
+        }
+        exposition.addMetric(this);
+        if (pendingSnapshot != null) {
+            byte[] snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            try {
+                restore(snapshot);
+            } catch (IOException e) {
+                log.error("Failed to restore the state of metric \'" + metricName + "\'.", e);
+            }
+        }
+    }
+
+    // like the metrics of the Prometheus client, metrics without labels expose their series before the first event
+    private void initializeNoLabelsSeries() {
+        if (attributes.isEmpty()) {
+            seriesTable.getChild(new String[0]);
+        }
+    }
+
+    private void registerCollector(MetricDefinition metric) {
+        if (nativeHistogram && metric.type == Collector.Type.HISTOGRAM) {
+            PrometheusNativeHistogram histogram = new PrometheusNativeHistogram(metric.name, metric.help,
+                    attributes, histogramBuckets, nativeHistogramSchema);
+            metric.collector = histogram.register(registry);
+            metric.childFactory = histogram::labels;
+            metric.childRemover = histogram::remove;
+            metric.childUpdater = (child, value, count) ->
+                    ((PrometheusNativeHistogram.Child) child).observe(value, count);
+            metric.snapshotKind = PrometheusSnapshotFormat.NATIVE_HISTOGRAM_KIND;
+            metric.childTextWriter = (writer, child, labels) ->
+                    ((PrometheusNativeHistogram.Child) child).writeText(writer, labels);
+        } else if (metric.type == Collector.Type.HISTOGRAM) {
+            PrometheusStripedHistogram histogram = new PrometheusStripedHistogram(metric.name, metric.help,
+                    attributes, histogramBuckets);
+            metric.collector = histogram.register(registry);
+            metric.childFactory = histogram::labels;
+            metric.childRemover = histogram::remove;
+            metric.childUpdater = (child, value, count) ->
+                    ((PrometheusStripedHistogram.Child) child).observe(value, count);
+            metric.snapshotKind = PrometheusSnapshotFormat.HISTOGRAM_KIND;
+            metric.childTextWriter = (writer, child, labels) ->
+                    ((PrometheusStripedHistogram.Child) child).writeText(writer, labels);
+        } else if (sketchSummary && metric.type == Collector.Type.SUMMARY) {
+            PrometheusSketchSummary summary = new PrometheusSketchSummary(metric.name, metric.help, attributes,
+                    summaryQuantiles, quantileError);
+            metric.collector = summary.register(registry);
+            metric.childFactory = summary::labels;
+            metric.childRemover = summary::remove;
+            metric.childUpdater = (child, value, count) ->
+                    ((PrometheusSketchSummary.Child) child).observe(value, count);
+            metric.snapshotKind = PrometheusSnapshotFormat.SKETCH_SUMMARY_KIND;
+            metric.childTextWriter = (writer, child, labels) ->
+                    ((PrometheusSketchSummary.Child) child).writeText(writer, labels);
+        } else {
+            SimpleCollector<?> collector = buildMetric(metric).register(registry);
+            metric.collector = collector;
+            metric.childFactory = collector::labels;
+            metric.childRemover = collector::remove;
+            metric.childUpdater = createChildUpdater(metric.type);
+            metric.snapshotKind = metric.type == Collector.Type.COUNTER ? PrometheusSnapshotFormat.COUNTER_KIND :
+                    metric.type == Collector.Type.GAUGE ? PrometheusSnapshotFormat.GAUGE_KIND :
+                            PrometheusSnapshotFormat.UNRESTORABLE_KIND;
+            metric.childTextWriter = createChildTextWriter(metric);
+        }
+    }
+
+    /**
+     * Remove the metric of this builder from the registry, leaving the metrics of the other sinks sharing the
+     * registry untouched.
+     */
+    public void unregisterMetric() {
+        if (seriesTable != null) {
+            if (seriesSweep != null) {
+                seriesSweep.cancel(false);
+                seriesSweep = null;
+            }
+            exposition.removeMetric(this);
+            unregisterCollectors();
+            if (evictedSeriesCollector != null) {
+                registry.unregister(evictedSeriesCollector);
+                evictedSeriesCollector = null;
+            }
+            seriesTable = null;
+        }
+    }
+
+    private void unregisterCollectors() {
+        for (MetricDefinition metric : metrics) {
+            if (metric.collector != null) {
+                registry.unregister(metric.collector);
+                metric.collector = null;
+            }
+        }
+    }
+
+    private Builder buildMetric(MetricDefinition metric) {
         String[] metricLabels = attributes.toArray(new String[0]);
 
         Builder builder = new Builder() {
@@ -83,32 +343,23 @@ public class PrometheusMetricBuilder {
                 return null;
             }
         };
-        switch (metricType) {
+        switch (metric.type) {
             case COUNTER: {
-                builder = Counter.build(metricName, metricHelp);
+                builder = Counter.build(metric.name, metric.help);
                 break;
             }
             case GAUGE: {
-                builder = Gauge.build(metricName, metricHelp);
-                break;
-            }
-            case HISTOGRAM: {
-                builder = Histogram.build(metricName, metricHelp);
+                builder = Gauge.build(metric.name, metric.help);
                 break;
             }
             case SUMMARY: {
-                builder = Summary.build(metricName, metricHelp);
+                builder = Summary.build(metric.name, metric.help);
                 break;
             }
             default: //default will never be executed
         }
         builder.labelNames(metricLabels);
-        if (metricType == Collector.Type.HISTOGRAM) {
-            if (!(histogramBuckets.length == 0)) {
-                ((Histogram.Builder) builder).buckets(histogramBuckets);
-            }
-        }
-        if (metricType == Collector.Type.SUMMARY) {
+        if (metric.type == Collector.Type.SUMMARY) {
             if (!(summaryQuantiles.length == 0)) {
                 for (double summaryQuantile : summaryQuantiles) {
                     ((Summary.Builder) builder).quantile(summaryQuantile, quantileError);
@@ -120,24 +371,579 @@ public class PrometheusMetricBuilder {
 
     //update values for metric labels
     public void insertValues(double value, String[] labelValues) {
-        switch (metricType) {
-            case COUNTER: {
-                ((Counter) metricsCollector).labels(labelValues).inc(value);
-                break;
+        insertValues(value, 1, labelValues);
+    }
+
+    /**
+     * Update the metrics of the builder with a value observed the given number of times. The count is only applied
+     * by weighted histograms and summaries, and values observed no times are ignored.
+     *
+     * @param value       observed value
+     * @param count       number of times the value was observed
+     * @param labelValues label values of the series
+     */
+    public void insertValues(double value, long count, String[] labelValues) {
+        if (count <= 0) {
+            return;
+        }
+        Object[] children = seriesTable.getChild(labelValues).children;
+        for (int i = 0; i < children.length; i++) {
+            metrics.get(i).childUpdater.update(children[i], value, count);
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Set the gauges of the builder to the given value, replacing the value of the series instead of adding to it.
+     * Only builders whose metrics are all gauges can be set.
+     *
+     * @param value       value of the series
+     * @param labelValues label values of the series
+     */
+    public void setValues(double value, String[] labelValues) {
+        Object[] children = seriesTable.getChild(labelValues).children;
+        for (Object child : children) {
+            ((Gauge.Child) child).set(value);
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Update the metrics of the builder with a batch of values, each observed the given number of times. The series
+     * is resolved once for the whole batch.
+     *
+     * @param values      observed values
+     * @param count       number of times each value was observed
+     * @param labelValues label values of the series
+     */
+    public void insertValues(double[] values, long count, String[] labelValues) {
+        if (count <= 0 || values.length == 0) {
+            return;
+        }
+        Object[] children = seriesTable.getChild(labelValues).children;
+        for (int i = 0; i < children.length; i++) {
+            ChildUpdater childUpdater = metrics.get(i).childUpdater;
+            for (double value : values) {
+                childUpdater.update(children[i], value, count);
             }
-            case GAUGE: {
-                ((Gauge) metricsCollector).labels(labelValues).inc(value);
-                break;
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Update each metric of the builder with its own value, in the order in which the metrics were added. The
+     * series is resolved once for all the metrics.
+     *
+     * @param metricValues values of the metrics
+     * @param count        number of times the values were observed
+     * @param labelValues  label values of the series
+     */
+    public void insertMetricValues(double[] metricValues, long count, String[] labelValues) {
+        if (count <= 0) {
+            return;
+        }
+        Object[] children = seriesTable.getChild(labelValues).children;
+        for (int i = 0; i < children.length; i++) {
+            metrics.get(i).childUpdater.update(children[i], metricValues[i], count);
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Write the series of the metrics to a binary snapshot, see {@link PrometheusSnapshotFormat}. The label sets
+     * are dictionary encoded and laid out in one column per label, followed by the state of each metric in the
+     * order of the label sets. The series are read without stopping the updates, hence updates racing with the
+     * snapshot may or may not be included. The state of CKMS summaries is not written, since their estimator cannot
+     * be restored.
+     *
+     * @return snapshot of the metrics, or null if the metrics are neither registered nor waiting to be restored
+     */
+    public byte[] snapshot() {
+        PrometheusSeriesTable<SeriesChildren> table = seriesTable;
+        if (table == null) {
+            // a snapshot restored before the metrics were registered is still the state of the metrics
+            return pendingSnapshot;
+        }
+        List<String[]> labelSets = new ArrayList<>();
+        List<Object[]> seriesChildren = new ArrayList<>();
+        table.forEachSeries((labelValues, series) -> {
+            labelSets.add(labelValues);
+            seriesChildren.add(series.children);
+        });
+        int labelCount = attributes.size();
+        int seriesCount = labelSets.size();
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> dictionaryValues = new ArrayList<>();
+        int[] labelIds = new int[labelCount * seriesCount];
+        for (int label = 0; label < labelCount; label++) {
+            for (int series = 0; series < seriesCount; series++) {
+                String labelValue = labelSets.get(series)[label];
+                Integer id = dictionary.get(labelValue);
+                if (id == null) {
+                    id = dictionaryValues.size();
+                    dictionary.put(labelValue, id);
+                    dictionaryValues.add(labelValue);
+                }
+                labelIds[label * seriesCount + series] = id;
             }
-            case HISTOGRAM: {
-                ((Histogram) metricsCollector).labels(labelValues).observe(value);
-                break;
+        }
+        PrometheusSnapshotFormat.Writer writer = new PrometheusSnapshotFormat.Writer(
+                64 + seriesCount * (labelCount * 2 + metrics.size() * 9));
+        writer.writeInt(PrometheusSnapshotFormat.MAGIC);
+        writer.writeByte(PrometheusSnapshotFormat.VERSION);
+        writer.writeVarint(labelCount);
+        for (String label : attributes) {
+            writer.writeString(label);
+        }
+        writer.writeVarint(dictionaryValues.size());
+        for (String labelValue : dictionaryValues) {
+            writer.writeString(labelValue);
+        }
+        writer.writeVarint(seriesCount);
+        for (int id : labelIds) {
+            writer.writeVarint(id);
+        }
+        writer.writeVarint(metrics.size());
+        PrometheusSnapshotFormat.Writer section = new PrometheusSnapshotFormat.Writer(seriesCount * 9);
+        for (int i = 0; i < metrics.size(); i++) {
+            MetricDefinition metric = metrics.get(i);
+            writer.writeString(metric.name);
+            writer.writeByte(metric.snapshotKind);
+            section.reset();
+            writeLayout(metric, section);
+            writer.writeSection(section);
+            section.reset();
+            for (Object[] children : seriesChildren) {
+                writeChild(metric.snapshotKind, children[i], section);
             }
-            case SUMMARY: {
-                ((Summary) metricsCollector).labels(labelValues).observe(value);
+            writer.writeSection(section);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Replace the series of the metrics with the series of a snapshot written by {@link #snapshot()}. The series
+     * which are not in the snapshot are removed, and the restored series are resolved through the series table, so
+     * that the bound on the number of series applies to the restored series as well. The state of a metric is only
+     * restored if the metric still has the same type, buckets and quantile precision.
+     * A snapshot restored before the metrics are registered is kept until they are registered.
+     *
+     * @param snapshot snapshot of the metrics
+     * @throws IOException if the snapshot is malformed or its labels do not match the labels of the metrics
+     */
+    public void restore(byte[] snapshot) throws IOException {
+        if (seriesTable == null) {
+            pendingSnapshot = snapshot;
+            return;
+        }
+        PrometheusSnapshotFormat.Reader reader = new PrometheusSnapshotFormat.Reader(snapshot);
+        if (reader.readInt() != PrometheusSnapshotFormat.MAGIC ||
+                reader.readByte() != PrometheusSnapshotFormat.VERSION) {
+            throw new IOException("Unsupported snapshot format of metric \'" + metricName + "\'");
+        }
+        int labelCount = reader.readLength();
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < labelCount; i++) {
+            labels.add(reader.readString());
+        }
+        if (!labels.equals(attributes)) {
+            throw new IOException("The labels " + labels + " of the snapshot do not match the labels " +
+                    attributes + " of metric \'" + metricName + "\'");
+        }
+        String[] dictionary = new String[reader.readLength()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = reader.readString();
+        }
+        int seriesCount = reader.readLength();
+        String[][] labelSets = new String[seriesCount][labelCount];
+        for (int label = 0; label < labelCount; label++) {
+            for (int series = 0; series < seriesCount; series++) {
+                int id = reader.readLength();
+                if (id >= dictionary.length) {
+                    throw new IOException("Malformed label value id " + id + " in the snapshot of metric \'" +
+                            metricName + "\'");
+                }
+                labelSets[series][label] = dictionary[id];
+            }
+        }
+        // the sections of all the metrics are read before resolving the series, so that a truncated snapshot
+        // adds no series
+        int metricCount = reader.readLength();
+        int[] metricIndices = new int[metricCount];
+        PrometheusSnapshotFormat.Reader[] sections = new PrometheusSnapshotFormat.Reader[metricCount];
+        PrometheusSnapshotFormat.Writer layout = new PrometheusSnapshotFormat.Writer(64);
+        for (int i = 0; i < metricCount; i++) {
+            String name = reader.readString();
+            byte kind = (byte) reader.readByte();
+            byte[] snapshotLayout = reader.readSectionBytes();
+            sections[i] = reader.readSection();
+            metricIndices[i] = indexOfMetric(name);
+            if (metricIndices[i] < 0 || kind == PrometheusSnapshotFormat.UNRESTORABLE_KIND) {
+                metricIndices[i] = -1;
+                continue;
+            }
+            MetricDefinition metric = metrics.get(metricIndices[i]);
+            layout.reset();
+            writeLayout(metric, layout);
+            if (metric.snapshotKind != kind || !Arrays.equals(snapshotLayout, layout.toByteArray())) {
+                log.warn("The state of metric \'" + name + "\' is not restored, since its type, buckets or " +
+                        "quantile error changed since the snapshot was taken.");
+                metricIndices[i] = -1;
+            }
+        }
+        // the restored series start from new children, hence a counter, which cannot be set, holds the restored count
+        seriesTable.clear();
+        initializeNoLabelsSeries();
+        Object[][] seriesChildren = new Object[seriesCount][];
+        for (int series = 0; series < seriesCount; series++) {
+            seriesChildren[series] = seriesTable.getChild(labelSets[series]).children;
+        }
+        for (int i = 0; i < metricCount; i++) {
+            int index = metricIndices[i];
+            if (index >= 0) {
+                byte kind = metrics.get(index).snapshotKind;
+                for (Object[] children : seriesChildren) {
+                    restoreChild(kind, children[index], sections[i]);
+                }
+            }
+        }
+        generation.incrementAndGet();
+    }
+
+    private int indexOfMetric(String name) {
+        for (int i = 0; i < metrics.size(); i++) {
+            if (metrics.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // the layout of the state of a metric, which must match for the state to be restored
+    private void writeLayout(MetricDefinition metric, PrometheusSnapshotFormat.Writer layout) {
+        switch (metric.snapshotKind) {
+            case PrometheusSnapshotFormat.NATIVE_HISTOGRAM_KIND:
+                layout.writeSignedVarint(nativeHistogramSchema);
+                writeUpperBounds(layout);
+                break;
+            case PrometheusSnapshotFormat.HISTOGRAM_KIND:
+                writeUpperBounds(layout);
+                break;
+            case PrometheusSnapshotFormat.SKETCH_SUMMARY_KIND:
+                layout.writeSignedVarint(summaryQuantiles.length == 0 ? -1 :
+                        PrometheusQuantileSketch.toPrecision(quantileError));
+                break;
+            default:
+        }
+    }
+
+    private void writeUpperBounds(PrometheusSnapshotFormat.Writer layout) {
+        double[] upperBounds = PrometheusStripedHistogram.toUpperBounds(histogramBuckets);
+        layout.writeVarint(upperBounds.length);
+        for (double upperBound : upperBounds) {
+            layout.writeDouble(upperBound);
+        }
+    }
+
+    private static void writeChild(byte kind, Object child, PrometheusSnapshotFormat.Writer writer) {
+        switch (kind) {
+            case PrometheusSnapshotFormat.COUNTER_KIND:
+                writer.writeDouble(((Counter.Child) child).get());
+                break;
+            case PrometheusSnapshotFormat.GAUGE_KIND:
+                writer.writeDouble(((Gauge.Child) child).get());
+                break;
+            case PrometheusSnapshotFormat.HISTOGRAM_KIND:
+                ((PrometheusStripedHistogram.Child) child).writeSnapshot(writer);
+                break;
+            case PrometheusSnapshotFormat.NATIVE_HISTOGRAM_KIND:
+                ((PrometheusNativeHistogram.Child) child).writeSnapshot(writer);
+                break;
+            case PrometheusSnapshotFormat.SKETCH_SUMMARY_KIND:
+                ((PrometheusSketchSummary.Child) child).writeSnapshot(writer);
                 break;
+            default:
+        }
+    }
+
+    private static void restoreChild(byte kind, Object child, PrometheusSnapshotFormat.Reader reader)
+            throws IOException {
+        switch (kind) {
+            case PrometheusSnapshotFormat.COUNTER_KIND:
+                double count = reader.readDouble();
+                if (count > 0) {
+                    ((Counter.Child) child).inc(count);
+                }
+                break;
+            case PrometheusSnapshotFormat.GAUGE_KIND:
+                ((Gauge.Child) child).set(reader.readDouble());
+                break;
+            case PrometheusSnapshotFormat.HISTOGRAM_KIND:
+                ((PrometheusStripedHistogram.Child) child).restoreSnapshot(reader);
+                break;
+            case PrometheusSnapshotFormat.NATIVE_HISTOGRAM_KIND:
+                ((PrometheusNativeHistogram.Child) child).restoreSnapshot(reader);
+                break;
+            case PrometheusSnapshotFormat.SKETCH_SUMMARY_KIND:
+                ((PrometheusSketchSummary.Child) child).restoreSnapshot(reader);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * @return help of the metric of this builder
+     */
+    public String getMetricHelp() {
+        return metrics.get(0).help;
+    }
+
+    /**
+     * The generation of the metric is increased on every update, so that the consumers can identify whether the
+     * metric has changed since they last read it.
+     *
+     * @return current generation of the metric
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Collect the samples of the metric families built by this builder, without the other metrics of the registry.
+     * The number of evicted series is included when the number of series is bounded.
+     *
+     * @return samples of the metrics
+     */
+    public List<Collector.MetricFamilySamples> collect() {
+        return collect(null);
+    }
+
+    private List<Collector.MetricFamilySamples> collect(boolean[] selectedFamilies) {
+        if (seriesTable == null) {
+            return Collections.emptyList();
+        }
+        List<Collector.MetricFamilySamples> metricFamilySamples = new ArrayList<>();
+        for (int i = 0; i < metrics.size(); i++) {
+            Collector collector = metrics.get(i).collector;
+            if (collector != null && (selectedFamilies == null || selectedFamilies[i])) {
+                metricFamilySamples.addAll(collector.collect());
             }
-            default: //default will never be executed
+        }
+        Collector evictionCollector = evictedSeriesCollector;
+        if (evictionCollector != null && (selectedFamilies == null || selectedFamilies[metrics.size()])) {
+            metricFamilySamples.addAll(evictionCollector.collect());
+        }
+        return metricFamilySamples;
+    }
+
+    /**
+     * Retrieve the metric family built by this builder in the given exposition format. The encoded family is cached
+     * until the next update of the metric, except for CKMS summaries with quantiles, whose values also change with
+     * time.
+     *
+     * @param format exposition format of the family
+     * @return encoded metric family
+     * @throws IOException if the metric family could not be encoded
+     */
+    byte[] encodeMetric(PrometheusExpositionFormat format) throws IOException {
+        if (seriesTable == null) {
+            return EMPTY_FAMILY;
+        }
+        long currentGeneration = generation.get();
+        EncodedFamily cachedFamily = encodedFamilies.get(format.ordinal());
+        boolean cacheable = summaryQuantiles.length == 0 || sketchSummary || !hasMetricType(Collector.Type.SUMMARY);
+        if (cacheable && cachedFamily != null && cachedFamily.generation == currentGeneration) {
+            return cachedFamily.bytes;
+        }
+        byte[] bytes = encodeFamilies(format, null, cachedFamily == null ? 256 : cachedFamily.bytes.length);
+        // the generation is read before collecting, so that updates racing with the encoding invalidate the cache
+        encodedFamilies.set(format.ordinal(), new EncodedFamily(currentGeneration, bytes));
+        return bytes;
+    }
+
+    /**
+     * Retrieve the metric families built by this builder which are selected by the names requested in a scrape,
+     * matching the names of the families and of their samples. Only the selected families are collected and
+     * encoded. The encoded families are only cached when all of them are selected.
+     *
+     * @param format        exposition format of the families
+     * @param includedNames names requested in the scrape, or null to include all the families
+     * @return encoded metric families
+     * @throws IOException if a metric family could not be encoded
+     */
+    byte[] encodeMetric(PrometheusExpositionFormat format, Set<String> includedNames) throws IOException {
+        if (includedNames == null || seriesTable == null) {
+            return encodeMetric(format);
+        }
+        boolean[] selectedFamilies = new boolean[metrics.size() + 1];
+        boolean allSelected = true;
+        boolean anySelected = false;
+        for (int i = 0; i < metrics.size(); i++) {
+            for (String suffix : FAMILY_SUFFIXES) {
+                selectedFamilies[i] |= includedNames.contains(metrics.get(i).name + suffix);
+            }
+            allSelected &= selectedFamilies[i];
+            anySelected |= selectedFamilies[i];
+        }
+        if (evictedSeriesCollector != null) {
+            selectedFamilies[metrics.size()] = includedNames.contains(metricName + EVICTED_SERIES_SUFFIX);
+            allSelected &= selectedFamilies[metrics.size()];
+            anySelected |= selectedFamilies[metrics.size()];
+        }
+        if (allSelected) {
+            return encodeMetric(format);
+        }
+        return anySelected ? encodeFamilies(format, selectedFamilies, 256) : EMPTY_FAMILY;
+    }
+
+    private byte[] encodeFamilies(PrometheusExpositionFormat format, boolean[] selectedFamilies, int sizeHint)
+            throws IOException {
+        if (format == PrometheusExpositionFormat.TEXT) {
+            return encodeText(selectedFamilies, sizeHint);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(sizeHint);
+        format.write(outputStream, collect(selectedFamilies));
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Write the metric families in the text exposition format straight from the children of the series, without
+     * collecting their samples. The label pairs of each series are encoded on its first scrape and reused by the
+     * following scrapes.
+     */
+    private byte[] encodeText(boolean[] selectedFamilies, int sizeHint) {
+        PrometheusSeriesTable<SeriesChildren> table = seriesTable;
+        PrometheusTextWriter writer = new PrometheusTextWriter(sizeHint);
+        if (table == null) {
+            return writer.toByteArray();
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            MetricDefinition metric = metrics.get(i);
+            Collector collector = metric.collector;
+            if (collector == null || (selectedFamilies != null && !selectedFamilies[i])) {
+                continue;
+            }
+            ChildTextWriter childTextWriter = metric.childTextWriter;
+            if (childTextWriter == null) {
+                for (Collector.MetricFamilySamples familySamples : collector.collect()) {
+                    writer.writeFamily(familySamples);
+                }
+                continue;
+            }
+            writer.writeHeader(metric.name, metric.help, metric.type);
+            int index = i;
+            table.forEachSeries((labelValues, series) -> childTextWriter.write(writer, series.children[index],
+                    series.encodeLabels(attributes, labelValues)));
+        }
+        Collector evictionCollector = evictedSeriesCollector;
+        if (evictionCollector != null && (selectedFamilies == null || selectedFamilies[metrics.size()])) {
+            for (Collector.MetricFamilySamples familySamples : evictionCollector.collect()) {
+                writer.writeFamily(familySamples);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    private boolean hasMetricType(Collector.Type type) {
+        for (MetricDefinition metric : metrics) {
+            if (metric.type == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exposes the number of series evicted from the series table of the metric as a counter.
+     */
+    private class EvictedSeriesCollector extends Collector {
+        private final PrometheusSeriesTable<?> evictingTable;
+
+        EvictedSeriesCollector(PrometheusSeriesTable<?> evictingTable) {
+            this.evictingTable = evictingTable;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            String name = metricName + EVICTED_SERIES_SUFFIX;
+            MetricFamilySamples.Sample sample = new MetricFamilySamples.Sample(name, Collections.emptyList(),
+                    Collections.emptyList(), evictingTable.getEvictedSeries());
+            return Collections.singletonList(new MetricFamilySamples(name, Type.COUNTER,
+                    "Number of series of " + metricName + " evicted to stay within the maximum number of series.",
+                    Collections.singletonList(sample)));
+        }
+    }
+
+    /**
+     * Metric family encoded in an exposition format, stamped with the generation of the metric it was
+     * encoded from.
+     */
+    private static final class EncodedFamily {
+        private final long generation;
+        private final byte[] bytes;
+
+        EncodedFamily(long generation, byte[] bytes) {
+            this.generation = generation;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A metric built by the builder, together with the functions which resolve, remove and update its children once
+     * its collector is registered.
+     */
+    private static final class MetricDefinition {
+        private final String name;
+        private final String help;
+        private final Collector.Type type;
+        private Collector collector;
+        private Function<String[], Object> childFactory;
+        private Consumer<String[]> childRemover;
+        private ChildUpdater childUpdater;
+        private byte snapshotKind;
+        private ChildTextWriter childTextWriter;
+
+        MetricDefinition(String name, String help, Collector.Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Applies a metric value observed the given number of times to a child, according to the metric type.
+     */
+    private interface ChildUpdater {
+        void update(Object child, double value, long count);
+    }
+
+    /**
+     * Writes the samples of a child in the text exposition format, according to the metric type.
+     */
+    private interface ChildTextWriter {
+        void write(PrometheusTextWriter writer, Object child, byte[] labels);
+    }
+
+    /**
+     * Children of the metrics of a series, in the order of the metrics, together with the label pairs of the series
+     * encoded for the text exposition format, which are shared by all the metrics.
+     */
+    private static final class SeriesChildren {
+        private final Object[] children;
+        private volatile byte[] encodedLabels;
+
+        SeriesChildren(Object[] children) {
+            this.children = children;
+        }
+
+        // the label values of a series never change, hence racing scrapes encode the same labels
+        byte[] encodeLabels(List<String> labelNames, String[] labelValues) {
+            byte[] labels = encodedLabels;
+            if (labels == null) {
+                labels = PrometheusTextWriter.encodeLabels(labelNames, Arrays.asList(labelValues));
+                encodedLabels = labels;
+            }
+            return labels;
         }
     }
 
@@ -145,7 +951,8 @@ public class PrometheusMetricBuilder {
         URL target;
         try {
             target = new URL(url);
-            registry = PrometheusRegistryHolder.retrieveRegistry(target.getHost(), target.getPort());
+            exposition = PrometheusRegistryHolder.retrieveExposition(target.getHost(), target.getPort());
+            registry = exposition.getRegistry();
         } catch (MalformedURLException e) {
             throw new SiddhiAppCreationException("Error in the URL format of Prometheus sink associated with stream \'"
                     + streamID + "\'. \n ", e);
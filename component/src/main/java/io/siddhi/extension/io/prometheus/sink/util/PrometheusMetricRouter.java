@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+/**
+ * {@code PrometheusMetricRouter} Routes the events of a sink whose metric name is resolved per event to the metric
+ * builder of that name. The builders are created lazily on the first event of each name and cached, so that an event
+ * of a known name is routed with a single lookup without locking. The name of a new metric is validated once, when
+ * its builder is created and registered, while the sink is connected. A name which collides with a metric of another
+ * sink in the same registry is rejected without registering any of its collectors, and stays rejected until the sink
+ * reconnects, so that its events fail fast instead of registering the metric again on every event.
+ */
+public class PrometheusMetricRouter {
+    private static final Logger log = LogManager.getLogger(PrometheusMetricRouter.class);
+    private static final Pattern METRIC_NAME_PATTERN = Pattern.compile(PrometheusConstants.METRIC_NAME_REGEX);
+
+    private final ConcurrentMap<String, PrometheusMetricBuilder> metricBuilders = new ConcurrentHashMap<>();
+    private final BiFunction<String, String, PrometheusMetricBuilder> builderFactory;
+    private final Set<String> rejectedMetrics = new HashSet<>();
+    private final String valueAttribute;
+    private final int maxMetrics;
+    private final String streamID;
+    private boolean registered;
+
+    /**
+     * @param builderFactory creates the builder of a metric from its name and help
+     * @param valueAttribute name of the value attribute, which is not a label of the metrics
+     * @param maxMetrics     maximum number of metrics, 0 for no limit
+     * @param streamID       id of the stream published by the sink
+     */
+    public PrometheusMetricRouter(BiFunction<String, String, PrometheusMetricBuilder> builderFactory,
+                                  String valueAttribute, int maxMetrics, String streamID) {
+        this.builderFactory = builderFactory;
+        this.valueAttribute = valueAttribute;
+        this.maxMetrics = maxMetrics;
+        this.streamID = streamID;
+    }
+
+    /**
+     * Retrieve the builder of the given metric without locking.
+     *
+     * @param metricName name of the metric
+     * @return builder of the metric, or null if this is the first event of the metric
+     */
+    public PrometheusMetricBuilder retrieve(String metricName) {
+        return metricName == null ? null : metricBuilders.get(metricName);
+    }
+
+    /**
+     * Create and register the builder of a new metric, unless another event of the metric created it meanwhile.
+     *
+     * @param metricName name of the metric
+     * @param metricHelp help of the metric
+     * @return builder of the metric
+     * @throws SiddhiAppRuntimeException if the name is invalid, collides with a metric of another sink, or exceeds
+     *                                   the maximum number of metrics
+     */
+    public synchronized PrometheusMetricBuilder create(String metricName, String metricHelp) {
+        PrometheusMetricBuilder metricBuilder = metricBuilders.get(metricName);
+        if (metricBuilder != null) {
+            return metricBuilder;
+        }
+        if (metricName == null || !METRIC_NAME_PATTERN.matcher(metricName).matches()) {
+            throw new SiddhiAppRuntimeException("Metric name \'" + metricName + "\' does not match the regex " +
+                    "\"[a-zA-Z_:][a-zA-Z0-9_:]*\" in Prometheus sink associated with stream \'" + streamID + "\'.");
+        }
+        if (rejectedMetrics.contains(metricName)) {
+            throw collision(metricName, null);
+        }
+        if (maxMetrics > 0 && metricBuilders.size() >= maxMetrics) {
+            throw new SiddhiAppRuntimeException("Metric \'" + metricName + "\' exceeds the limit of " + maxMetrics +
+                    " metrics set by \'max.metrics\' in Prometheus sink associated with stream \'" + streamID +
+                    "\'.");
+        }
+        metricBuilder = builderFactory.apply(metricName, metricHelp);
+        if (registered) {
+            try {
+                metricBuilder.registerMetric(valueAttribute);
+            } catch (IllegalArgumentException e) {
+                rejectedMetrics.add(metricName);
+                throw collision(metricName, e);
+            }
+        }
+        // the builder is published once it is registered, so that the lock free lookups never see it unregistered
+        metricBuilders.put(metricName, metricBuilder);
+        return metricBuilder;
+    }
+
+    /**
+     * Register the metrics created so far, and the metrics created from now on as they are created.
+     */
+    public synchronized void registerMetrics() {
+        registered = true;
+        rejectedMetrics.clear();
+        Iterator<Map.Entry<String, PrometheusMetricBuilder>> iterator = metricBuilders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PrometheusMetricBuilder> entry = iterator.next();
+            try {
+                entry.getValue().registerMetric(valueAttribute);
+            } catch (IllegalArgumentException e) {
+                iterator.remove();
+                rejectedMetrics.add(entry.getKey());
+                log.error(collision(entry.getKey(), e).getMessage(), e);
+            }
+        }
+    }
+
+    private SiddhiAppRuntimeException collision(String metricName, IllegalArgumentException cause) {
+        return new SiddhiAppRuntimeException("Metric \'" + metricName + "\' of Prometheus sink associated with " +
+                "stream \'" + streamID + "\' could not be registered, since another metric of the same name is " +
+                "already registered at the same endpoint.", cause);
+    }
+
+    /**
+     * Unregister all the metrics. The metrics are registered again when the sink reconnects.
+     */
+    public synchronized void unregisterMetrics() {
+        registered = false;
+        for (PrometheusMetricBuilder metricBuilder : metricBuilders.values()) {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    /**
+     * @return sum of the generations of the metrics, which changes whenever one of the metrics is updated
+     */
+    public long getGeneration() {
+        long generation = 0;
+        for (PrometheusMetricBuilder metricBuilder : metricBuilders.values()) {
+            generation += metricBuilder.getGeneration();
+        }
+        return generation;
+    }
+
+    /**
+     * Collect the samples of all the metrics routed by this router, without the other metrics of the registry.
+     *
+     * @return samples of the metrics
+     */
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> metricFamilySamples = new ArrayList<>();
+        for (PrometheusMetricBuilder metricBuilder : metricBuilders.values()) {
+            metricFamilySamples.addAll(metricBuilder.collect());
+        }
+        return metricFamilySamples;
+    }
+
+    /**
+     * Write the snapshots of the metrics created so far.
+     *
+     * @return snapshot of each metric by name, see {@link PrometheusMetricBuilder#snapshot()}
+     */
+    public Map<String, byte[]> snapshot() {
+        Map<String, byte[]> snapshots = new HashMap<>();
+        for (Map.Entry<String, PrometheusMetricBuilder> entry : metricBuilders.entrySet()) {
+            byte[] snapshot = entry.getValue().snapshot();
+            if (snapshot != null) {
+                snapshots.put(entry.getKey(), snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return help of each metric created so far by name
+     */
+    public Map<String, String> getMetricHelps() {
+        Map<String, String> metricHelps = new HashMap<>();
+        for (Map.Entry<String, PrometheusMetricBuilder> entry : metricBuilders.entrySet()) {
+            metricHelps.put(entry.getKey(), entry.getValue().getMetricHelp());
+        }
+        return metricHelps;
+    }
+
+    /**
+     * Restore the snapshots of the metrics, creating the metrics which were not created yet with their former help.
+     * The remaining metrics are restored when a metric cannot be created or its snapshot cannot be restored.
+     *
+     * @param snapshots   snapshot of each metric by name
+     * @param metricHelps help of each metric by name
+     * @throws IOException if a metric could not be created or its snapshot could not be restored
+     */
+    public void restore(Map<String, byte[]> snapshots, Map<String, String> metricHelps) throws IOException {
+        IOException failure = null;
+        for (Map.Entry<String, byte[]> entry : snapshots.entrySet()) {
+            PrometheusMetricBuilder metricBuilder = retrieve(entry.getKey());
+            try {
+                if (metricBuilder == null) {
+                    metricBuilder = create(entry.getKey(), metricHelps.get(entry.getKey()));
+                }
+                metricBuilder.restore(entry.getValue());
+            } catch (IOException | SiddhiAppRuntimeException e) {
+                IOException exception = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                if (failure == null) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return number of metrics created so far
+     */
+    public int size() {
+        return metricBuilders.size();
+    }
+}
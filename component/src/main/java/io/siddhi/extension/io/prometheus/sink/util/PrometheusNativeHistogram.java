@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@code PrometheusNativeHistogram} Histogram metric which records observations both in sparse exponential (native)
+ * buckets and in classic buckets. The native buckets of a series only exist once an observation falls into them,
+ * and their resolution is set by the schema: the bucket boundaries are the powers of 2^(2^-schema). The native
+ * buckets are exposed through the protobuf exposition format, while the classic buckets are exposed to the scrapers
+ * using the text format.
+ */
+public class PrometheusNativeHistogram extends Collector {
+    static final int MIN_SCHEMA = -4;
+    static final int MAX_SCHEMA = 8;
+    // observations whose absolute value is not above the threshold are counted in the zero bucket
+    static final double ZERO_THRESHOLD = Math.scalb(1.0, -128);
+
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final double[] upperBounds;
+    private final int schema;
+    private final double[] nativeBounds;
+    private final byte[][] encodedUpperBounds;
+    private final byte[] bucketName;
+    private final byte[] countName;
+    private final byte[] sumName;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    /**
+     * @param name       name of the metric
+     * @param help       help of the metric
+     * @param labelNames label names of the metric
+     * @param buckets    upper bounds of the classic buckets, or an empty array for the default buckets
+     * @param schema     resolution of the native buckets, between -4 and 8
+     */
+    public PrometheusNativeHistogram(String name, String help, List<String> labelNames, double[] buckets,
+                                     int schema) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = new ArrayList<>(labelNames);
+        this.upperBounds = PrometheusStripedHistogram.toUpperBounds(buckets);
+        this.schema = schema;
+        if (schema > 0) {
+            // fractions of the bucket boundaries within [0.5, 1), as returned by frexp
+            nativeBounds = new double[1 << schema];
+            for (int i = 0; i < nativeBounds.length; i++) {
+                nativeBounds[i] = Math.pow(2, (double) i / nativeBounds.length) / 2;
+            }
+        } else {
+            nativeBounds = null;
+        }
+        this.encodedUpperBounds = new byte[upperBounds.length][];
+        for (int i = 0; i < upperBounds.length; i++) {
+            encodedUpperBounds[i] = PrometheusTextWriter.encodeLabel("le", doubleToGoString(upperBounds[i]));
+        }
+        this.bucketName = PrometheusTextWriter.encodeName(name + "_bucket");
+        this.countName = PrometheusTextWriter.encodeName(name + "_count");
+        this.sumName = PrometheusTextWriter.encodeName(name + "_sum");
+    }
+
+    /**
+     * Retrieve the child of the given label values, creating it if the label set is new.
+     *
+     * @param labelValues label values of the series
+     * @return child of the series
+     */
+    public Child labels(String... labelValues) {
+        return children.computeIfAbsent(Arrays.asList(labelValues.clone()), key -> new Child());
+    }
+
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    /**
+     * Index of the native bucket of a positive value. Bucket i holds the values in (base^(i-1), base^i].
+     */
+    int bucketIndex(double value) {
+        int exponent = Math.getExponent(value) + 1;
+        double fraction = Math.scalb(value, -exponent);
+        if (schema > 0) {
+            int index = Arrays.binarySearch(nativeBounds, fraction);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index + (exponent - 1) * nativeBounds.length;
+        }
+        int index = fraction == 0.5 ? exponent - 1 : exponent;
+        int offset = (1 << -schema) - 1;
+        return (index + offset) >> -schema;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        Map<List<String>, Snapshot> snapshots = new HashMap<>();
+        List<String> bucketLabelNames = new ArrayList<>(labelNames);
+        bucketLabelNames.add("le");
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            List<String> labelValues = entry.getKey();
+            Snapshot snapshot = entry.getValue().snapshot();
+            snapshots.put(labelValues, snapshot);
+            long cumulativeCount = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                cumulativeCount += snapshot.bucketCounts[i];
+                List<String> bucketLabelValues = new ArrayList<>(labelValues);
+                bucketLabelValues.add(doubleToGoString(upperBounds[i]));
+                samples.add(new MetricFamilySamples.Sample(name + "_bucket", bucketLabelNames, bucketLabelValues,
+                        cumulativeCount));
+            }
+            samples.add(new MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, snapshot.count));
+            samples.add(new MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, snapshot.sum));
+        }
+        return Collections.singletonList(new NativeHistogramFamilySamples(name, help, samples, schema,
+                snapshots));
+    }
+
+    /**
+     * Series of the histogram. Observations of a series are recorded under the lock of the series, since a native
+     * bucket may need to be created.
+     */
+    public final class Child {
+        private final long[] bucketCounts = new long[upperBounds.length];
+        private final TreeMap<Integer, long[]> positiveBuckets = new TreeMap<>();
+        private final TreeMap<Integer, long[]> negativeBuckets = new TreeMap<>();
+        private long zeroCount;
+        private long count;
+        private double sum;
+
+        public void observe(double value) {
+            observe(value, 1);
+        }
+
+        /**
+         * Record a value observed the given number of times.
+         *
+         * @param value  observed value
+         * @param weight number of times the value was observed
+         */
+        public synchronized void observe(double value, long weight) {
+            count += weight;
+            sum += value * weight;
+            if (Double.isNaN(value)) {
+                return;
+            }
+            bucketCounts[PrometheusStripedHistogram.bucketIndex(upperBounds, value)] += weight;
+            double absoluteValue = Math.abs(value);
+            if (absoluteValue <= ZERO_THRESHOLD) {
+                zeroCount += weight;
+                return;
+            }
+            TreeMap<Integer, long[]> buckets = value > 0 ? positiveBuckets : negativeBuckets;
+            int index = bucketIndex(absoluteValue);
+            long[] bucketCount = buckets.get(index);
+            if (bucketCount == null) {
+                buckets.put(index, new long[]{weight});
+            } else {
+                bucketCount[0] += weight;
+            }
+        }
+
+        synchronized Snapshot snapshot() {
+            return new Snapshot(bucketCounts.clone(), count, sum, zeroCount, positiveBuckets, negativeBuckets);
+        }
+
+        /**
+         * Write the samples of the classic buckets of the series in the text exposition format, as they are
+         * collected.
+         *
+         * @param writer writer of the exposition
+         * @param labels encoded label pairs of the series
+         */
+        synchronized void writeText(PrometheusTextWriter writer, byte[] labels) {
+            long cumulativeCount = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                cumulativeCount += bucketCounts[i];
+                writer.writeSample(bucketName, labels, encodedUpperBounds[i], cumulativeCount);
+            }
+            writer.writeSample(countName, labels, null, count);
+            writer.writeSample(sumName, labels, null, sum);
+        }
+
+        /**
+         * Write the classic and the native buckets of the series to a snapshot.
+         *
+         * @param writer writer of the snapshot
+         */
+        synchronized void writeSnapshot(PrometheusSnapshotFormat.Writer writer) {
+            for (long bucketCount : bucketCounts) {
+                writer.writeVarint(bucketCount);
+            }
+            writer.writeVarint(count);
+            writer.writeDouble(sum);
+            writer.writeVarint(zeroCount);
+            writeBuckets(writer, positiveBuckets);
+            writeBuckets(writer, negativeBuckets);
+        }
+
+        // the indices of the sparse buckets are written as the distance from the previous index
+        private void writeBuckets(PrometheusSnapshotFormat.Writer writer, TreeMap<Integer, long[]> buckets) {
+            writer.writeVarint(buckets.size());
+            int previousIndex = 0;
+            for (Map.Entry<Integer, long[]> bucket : buckets.entrySet()) {
+                writer.writeSignedVarint(bucket.getKey() - previousIndex);
+                writer.writeVarint(bucket.getValue()[0]);
+                previousIndex = bucket.getKey();
+            }
+        }
+
+        /**
+         * Replace the classic and the native buckets of the series with those of a snapshot.
+         *
+         * @param reader reader of the snapshot
+         * @throws IOException if the snapshot is malformed
+         */
+        synchronized void restoreSnapshot(PrometheusSnapshotFormat.Reader reader) throws IOException {
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = reader.readVarint();
+            }
+            count = reader.readVarint();
+            sum = reader.readDouble();
+            zeroCount = reader.readVarint();
+            positiveBuckets.clear();
+            negativeBuckets.clear();
+            restoreBuckets(reader, positiveBuckets);
+            restoreBuckets(reader, negativeBuckets);
+        }
+
+        private void restoreBuckets(PrometheusSnapshotFormat.Reader reader, TreeMap<Integer, long[]> buckets)
+                throws IOException {
+            int size = reader.readLength();
+            long index = 0;
+            for (int i = 0; i < size; i++) {
+                index += reader.readSignedVarint();
+                if (index < Integer.MIN_VALUE || index > Integer.MAX_VALUE) {
+                    throw new IOException("Malformed native histogram bucket index " + index);
+                }
+                buckets.put((int) index, new long[]{reader.readVarint()});
+            }
+        }
+    }
+
+    /**
+     * Consistent copy of the state of a series.
+     */
+    static final class Snapshot {
+        final long[] bucketCounts;
+        final long count;
+        final double sum;
+        final long zeroCount;
+        final int[] positiveIndices;
+        final long[] positiveCounts;
+        final int[] negativeIndices;
+        final long[] negativeCounts;
+
+        Snapshot(long[] bucketCounts, long count, double sum, long zeroCount, TreeMap<Integer, long[]> positiveBuckets,
+                 TreeMap<Integer, long[]> negativeBuckets) {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sum = sum;
+            this.zeroCount = zeroCount;
+            this.positiveIndices = new int[positiveBuckets.size()];
+            this.positiveCounts = new long[positiveBuckets.size()];
+            copyBuckets(positiveBuckets, positiveIndices, positiveCounts);
+            this.negativeIndices = new int[negativeBuckets.size()];
+            this.negativeCounts = new long[negativeBuckets.size()];
+            copyBuckets(negativeBuckets, negativeIndices, negativeCounts);
+        }
+
+        private static void copyBuckets(TreeMap<Integer, long[]> buckets, int[] indices, long[] counts) {
+            int i = 0;
+            for (Map.Entry<Integer, long[]> bucket : buckets.entrySet()) {
+                indices[i] = bucket.getKey();
+                counts[i] = bucket.getValue()[0];
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Samples of the histogram with the classic buckets, carrying the native buckets of each series along for the
+     * protobuf exposition format.
+     */
+    static final class NativeHistogramFamilySamples extends MetricFamilySamples {
+        final int schema;
+        final Map<List<String>, Snapshot> snapshots;
+
+        NativeHistogramFamilySamples(String name, String help, List<Sample> samples, int schema,
+                                     Map<List<String>, Snapshot> snapshots) {
+            super(name, Type.HISTOGRAM, help, samples);
+            this.schema = schema;
+            this.snapshots = snapshots;
+        }
+    }
+}
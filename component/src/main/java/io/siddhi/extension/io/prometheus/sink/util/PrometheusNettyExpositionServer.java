@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerKeepAliveHandler;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@code PrometheusNettyExpositionServer} Exposes the metrics of an endpoint over Netty. The encoded metric families
+ * cached by the endpoint are copied straight into pooled direct buffers, connections are kept alive between scrapes,
+ * and the responses are compressed with gzip when the scraper accepts it. Scrapes are encoded on the event loop
+ * threads, or on a separate group of worker threads when one is configured, so that large registries do not hold up
+ * the I/O of other connections.
+ */
+public class PrometheusNettyExpositionServer implements PrometheusExpositionServer {
+    private static final Logger log = LogManager.getLogger(PrometheusNettyExpositionServer.class);
+    private static final int MAX_REQUEST_LENGTH = 8192;
+    private static final String NAME_PARAMETER = "name[]";
+
+    private final PrometheusExposition exposition;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final EventExecutorGroup encoderGroup;
+    private final Channel serverChannel;
+
+    /**
+     * @param address          address to which the server is bound
+     * @param exposition       metrics exposed by the server
+     * @param eventLoopThreads number of event loop threads, 0 for the Netty default
+     * @param workerThreads    number of threads which encode the scrapes, 0 to encode them on the event loop
+     * @throws IOException if the server could not be bound to the address
+     */
+    public PrometheusNettyExpositionServer(InetSocketAddress address, PrometheusExposition exposition,
+                                           int eventLoopThreads, int workerThreads) throws IOException {
+        this.exposition = exposition;
+        String threadName = "prometheus-exposition-" + address.getPort();
+        this.bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory(threadName + "-boss", true));
+        // 0 threads falls back to the Netty default
+        this.workerGroup = new NioEventLoopGroup(eventLoopThreads, new DefaultThreadFactory(threadName, true));
+        this.encoderGroup = workerThreads > 0 ? new DefaultEventExecutorGroup(workerThreads,
+                new DefaultThreadFactory(threadName + "-encoder", true)) : null;
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        ChannelPipeline pipeline = channel.pipeline();
+                        pipeline.addLast(new HttpServerCodec(), new HttpServerKeepAliveHandler(),
+                                new HttpContentCompressor(), new HttpObjectAggregator(MAX_REQUEST_LENGTH));
+                        if (encoderGroup != null) {
+                            pipeline.addLast(encoderGroup, new ExpositionHandler());
+                        } else {
+                            pipeline.addLast(new ExpositionHandler());
+                        }
+                    }
+                });
+        ChannelFuture bindFuture = bootstrap.bind(address).awaitUninterruptibly();
+        if (!bindFuture.isSuccess()) {
+            shutdownGroups();
+            Throwable cause = bindFuture.cause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to bind the exposition server to " + address, cause);
+        }
+        this.serverChannel = bindFuture.channel();
+    }
+
+    @Override
+    public void stop() {
+        serverChannel.close().syncUninterruptibly();
+        shutdownGroups();
+    }
+
+    private void shutdownGroups() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        if (encoderGroup != null) {
+            encoderGroup.shutdownGracefully();
+        }
+    }
+
+    private static Set<String> parseIncludedNames(QueryStringDecoder decoder) {
+        List<String> includedNames = decoder.parameters().get(NAME_PARAMETER);
+        if (includedNames == null || includedNames.isEmpty()) {
+            return null;
+        }
+        return new HashSet<>(includedNames);
+    }
+
+    /**
+     * Answers each scrape with the metrics of the endpoint, in the format negotiated from the Accept header. The size
+     * of the response is known from the encoded metric families, so that the response buffer is allocated once.
+     */
+    private class ExpositionHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            PrometheusExpositionFormat format = PrometheusExpositionFormat.negotiate(
+                    request.headers().get(HttpHeaderNames.ACCEPT));
+            List<byte[]> encodedFamilies;
+            FullHttpResponse response;
+            QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+            if (!PrometheusExposition.isExposedPath(decoder.path())) {
+                response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.NOT_FOUND);
+                HttpUtil.setContentLength(response, 0);
+                ctx.writeAndFlush(response);
+                return;
+            }
+            try {
+                encodedFamilies = exposition.encode(PrometheusExposition.parseAppName(decoder.path()),
+                        parseIncludedNames(decoder), format);
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to write the metrics for the scrape " + request.uri(), e);
+                response = new DefaultFullHttpResponse(request.protocolVersion(),
+                        HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                HttpUtil.setContentLength(response, 0);
+                ctx.writeAndFlush(response);
+                return;
+            }
+            int contentLength = 0;
+            for (byte[] encodedFamily : encodedFamilies) {
+                contentLength += encodedFamily.length;
+            }
+            ByteBuf body = ctx.alloc().ioBuffer(contentLength);
+            for (byte[] encodedFamily : encodedFamilies) {
+                body.writeBytes(encodedFamily);
+            }
+            response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK, body);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, format.getContentType());
+            HttpUtil.setContentLength(response, body.readableBytes());
+            ctx.writeAndFlush(response);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (log.isDebugEnabled()) {
+                log.debug("Closing the scrape connection of the exposition server due to an error.", cause);
+            }
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code PrometheusProtobufFormat} Encodes metric families in the length delimited protobuf exposition format of
+ * Prometheus, following the {@code io.prometheus.client.MetricFamily} message of metrics.proto. The samples of a
+ * family are grouped into one metric per label set, with the histogram buckets and the summary quantiles folded
+ * into the metric instead of being exposed as separately labelled samples.
+ */
+final class PrometheusProtobufFormat {
+    static final String CONTENT_TYPE = "application/vnd.google.protobuf; " +
+            "proto=io.prometheus.client.MetricFamily; encoding=delimited";
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    // metric types of metrics.proto
+    private static final int COUNTER_TYPE = 0;
+    private static final int GAUGE_TYPE = 1;
+    private static final int SUMMARY_TYPE = 2;
+    private static final int UNTYPED_TYPE = 3;
+    private static final int HISTOGRAM_TYPE = 4;
+
+    private static final String COUNT_SUFFIX = "_count";
+    private static final String SUM_SUFFIX = "_sum";
+    private static final String BUCKET_SUFFIX = "_bucket";
+    private static final String LE_LABEL = "le";
+    private static final String QUANTILE_LABEL = "quantile";
+
+    private PrometheusProtobufFormat() {
+    }
+
+    /**
+     * Write a metric family, prefixed with its length as a varint.
+     *
+     * @param outputStream        stream to which the family is written
+     * @param metricFamilySamples metric family to be written
+     * @throws IOException if the family could not be written to the stream
+     */
+    static void writeDelimited(OutputStream outputStream, Collector.MetricFamilySamples metricFamilySamples)
+            throws IOException {
+        ProtoBuffer family = encodeFamily(metricFamilySamples);
+        ProtoBuffer length = new ProtoBuffer();
+        length.writeVarint(family.size());
+        length.writeTo(outputStream);
+        family.writeTo(outputStream);
+    }
+
+    private static ProtoBuffer encodeFamily(Collector.MetricFamilySamples metricFamilySamples) {
+        ProtoBuffer family = new ProtoBuffer();
+        family.writeString(1, metricFamilySamples.name);
+        family.writeString(2, metricFamilySamples.help);
+        family.writeVarint(3, toMetricType(metricFamilySamples.type));
+        Map<List<String>, PrometheusNativeHistogram.Snapshot> snapshots = Collections.emptyMap();
+        int schema = 0;
+        if (metricFamilySamples instanceof PrometheusNativeHistogram.NativeHistogramFamilySamples) {
+            snapshots = ((PrometheusNativeHistogram.NativeHistogramFamilySamples) metricFamilySamples).snapshots;
+            schema = ((PrometheusNativeHistogram.NativeHistogramFamilySamples) metricFamilySamples).schema;
+        }
+        for (MetricSamples metric : groupByLabels(metricFamilySamples).values()) {
+            ProtoBuffer encodedMetric = encodeMetric(metricFamilySamples.type, metric,
+                    schema, snapshots.get(metric.labelValues));
+            family.writeMessage(4, encodedMetric);
+        }
+        return family;
+    }
+
+    private static int toMetricType(Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return COUNTER_TYPE;
+            case GAUGE:
+                return GAUGE_TYPE;
+            case SUMMARY:
+                return SUMMARY_TYPE;
+            case HISTOGRAM:
+                return HISTOGRAM_TYPE;
+            default:
+                return UNTYPED_TYPE;
+        }
+    }
+
+    private static Map<List<String>, MetricSamples> groupByLabels(Collector.MetricFamilySamples metricFamilySamples) {
+        Map<List<String>, MetricSamples> metrics = new LinkedHashMap<>();
+        String familyName = metricFamilySamples.name;
+        for (Collector.MetricFamilySamples.Sample sample : metricFamilySamples.samples) {
+            List<String> labelNames = new ArrayList<>(sample.labelNames.size());
+            List<String> labelValues = new ArrayList<>(sample.labelValues.size());
+            String bound = null;
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                String labelName = sample.labelNames.get(i);
+                if ((LE_LABEL.equals(labelName) && sample.name.equals(familyName + BUCKET_SUFFIX)) ||
+                        (QUANTILE_LABEL.equals(labelName) && metricFamilySamples.type == Collector.Type.SUMMARY)) {
+                    bound = sample.labelValues.get(i);
+                } else {
+                    labelNames.add(labelName);
+                    labelValues.add(sample.labelValues.get(i));
+                }
+            }
+            MetricSamples metric = metrics.computeIfAbsent(labelValues,
+                    key -> new MetricSamples(labelNames, labelValues));
+            if (sample.name.equals(familyName + COUNT_SUFFIX)) {
+                metric.count = sample.value;
+            } else if (sample.name.equals(familyName + SUM_SUFFIX)) {
+                metric.sum = sample.value;
+            } else if (bound != null) {
+                metric.bounds.add(new double[]{parseBound(bound), sample.value});
+            } else {
+                metric.value = sample.value;
+            }
+        }
+        return metrics;
+    }
+
+    private static double parseBound(String bound) {
+        if ("+Inf".equals(bound)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-Inf".equals(bound)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(bound);
+    }
+
+    private static ProtoBuffer encodeMetric(Collector.Type type, MetricSamples metricSamples, int schema,
+                                            PrometheusNativeHistogram.Snapshot snapshot) {
+        ProtoBuffer metric = new ProtoBuffer();
+        for (int i = 0; i < metricSamples.labelNames.size(); i++) {
+            ProtoBuffer labelPair = new ProtoBuffer();
+            labelPair.writeString(1, metricSamples.labelNames.get(i));
+            labelPair.writeString(2, metricSamples.labelValues.get(i));
+            metric.writeMessage(1, labelPair);
+        }
+        ProtoBuffer value = new ProtoBuffer();
+        switch (type) {
+            case COUNTER:
+                value.writeDouble(1, metricSamples.value);
+                metric.writeMessage(3, value);
+                break;
+            case GAUGE:
+                value.writeDouble(1, metricSamples.value);
+                metric.writeMessage(2, value);
+                break;
+            case SUMMARY:
+                value.writeVarint(1, (long) metricSamples.count);
+                value.writeDouble(2, metricSamples.sum);
+                for (double[] quantile : metricSamples.bounds) {
+                    ProtoBuffer quantileValue = new ProtoBuffer();
+                    quantileValue.writeDouble(1, quantile[0]);
+                    quantileValue.writeDouble(2, quantile[1]);
+                    value.writeMessage(3, quantileValue);
+                }
+                metric.writeMessage(4, value);
+                break;
+            case HISTOGRAM:
+                value.writeVarint(1, (long) metricSamples.count);
+                value.writeDouble(2, metricSamples.sum);
+                for (double[] bucket : metricSamples.bounds) {
+                    ProtoBuffer bucketValue = new ProtoBuffer();
+                    bucketValue.writeVarint(1, (long) bucket[1]);
+                    bucketValue.writeDouble(2, bucket[0]);
+                    value.writeMessage(3, bucketValue);
+                }
+                if (snapshot != null) {
+                    encodeNativeBuckets(value, schema, snapshot);
+                }
+                metric.writeMessage(7, value);
+                break;
+            default:
+                value.writeDouble(1, metricSamples.value);
+                metric.writeMessage(5, value);
+        }
+        return metric;
+    }
+
+    /**
+     * Append the native buckets of a series to its histogram message. The buckets are written as spans of
+     * consecutive bucket indices, followed by the deltas between the counts of adjacent populated buckets.
+     */
+    private static void encodeNativeBuckets(ProtoBuffer histogram, int schema,
+                                            PrometheusNativeHistogram.Snapshot snapshot) {
+        histogram.writeSignedVarint(5, schema);
+        histogram.writeDouble(6, PrometheusNativeHistogram.ZERO_THRESHOLD);
+        histogram.writeVarint(7, snapshot.zeroCount);
+        encodeSpans(histogram, 9, 10, snapshot.negativeIndices, snapshot.negativeCounts);
+        if (snapshot.positiveIndices.length == 0 && snapshot.negativeIndices.length == 0) {
+            // an empty span marks the histogram as native even when no bucket is populated yet
+            ProtoBuffer span = new ProtoBuffer();
+            span.writeSignedVarint(1, 0);
+            span.writeVarint(2, 0);
+            histogram.writeMessage(12, span);
+        }
+        encodeSpans(histogram, 12, 13, snapshot.positiveIndices, snapshot.positiveCounts);
+    }
+
+    private static void encodeSpans(ProtoBuffer histogram, int spanField, int deltaField, int[] indices,
+                                    long[] counts) {
+        int start = 0;
+        int previousIndex = 0;
+        for (int i = 1; i <= indices.length; i++) {
+            if (i == indices.length || indices[i] != indices[i - 1] + 1) {
+                ProtoBuffer span = new ProtoBuffer();
+                // the offset of the first span is the index itself, the others are relative to the previous span
+                span.writeSignedVarint(1, start == 0 ? indices[0] : indices[start] - previousIndex - 1);
+                span.writeVarint(2, i - start);
+                histogram.writeMessage(spanField, span);
+                previousIndex = indices[i - 1];
+                start = i;
+            }
+        }
+        long previousCount = 0;
+        for (long count : counts) {
+            histogram.writeSignedVarint(deltaField, count - previousCount);
+            previousCount = count;
+        }
+    }
+
+    /**
+     * Samples of a metric family which share the same label set.
+     */
+    private static final class MetricSamples {
+        private final List<String> labelNames;
+        private final List<String> labelValues;
+        private final List<double[]> bounds = new ArrayList<>();
+        private double value;
+        private double count;
+        private double sum;
+
+        MetricSamples(List<String> labelNames, List<String> labelValues) {
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+        }
+    }
+
+    /**
+     * Buffer of an encoded protobuf message, shared with the encoding of the remote write requests.
+     */
+    static final class ProtoBuffer extends ByteArrayOutputStream {
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeTag(int field, int wireType) {
+            writeVarint((field << 3) | wireType);
+        }
+
+        void writeVarint(int field, long value) {
+            writeTag(field, VARINT);
+            writeVarint(value);
+        }
+
+        void writeSignedVarint(int field, long value) {
+            writeTag(field, VARINT);
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(int field, double value) {
+            writeTag(field, FIXED64);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                write((int) (bits >>> (i * 8)));
+            }
+        }
+
+        void writeString(int field, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeTag(field, LENGTH_DELIMITED);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeMessage(int field, ProtoBuffer message) {
+            writeTag(field, LENGTH_DELIMITED);
+            writeVarint(message.count);
+            write(message.buf, 0, message.count);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import io.siddhi.query.api.definition.Attribute;
+import io.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code PrometheusPublishPlan} Publish plan of a Prometheus sink, compiled from the stream definition when the sink
+ * is initialized. The plan fixes the label attributes in the order of the metric labels and selects the value
+ * extractor from the type of the value attribute, so that publishing an event does not parse or reorder anything.
+ * An optional count attribute carries the number of times the value of an event was observed, and additional
+ * metrics published from the same stream read their values from their own value attributes, which are excluded
+ * from the labels as well. Events can be read either from the keyvalue Map payload or by position from the event
+ * data.
+ */
+public class PrometheusPublishPlan {
+
+    private final String[] labelAttributes;
+    private final int[] labelPositions;
+    private final boolean[] stringLabels;
+    private final String valueAttribute;
+    private final int valuePosition;
+    private final ValueExtractor valueExtractor;
+    private final boolean batchValues;
+    private final String countAttribute;
+    private final int countPosition;
+    private final String[] metricValueAttributes;
+    private final int[] metricValuePositions;
+    private final ValueExtractor[] metricValueExtractors;
+
+    private PrometheusPublishPlan(String[] labelAttributes, int[] labelPositions, boolean[] stringLabels,
+                                  String valueAttribute, int valuePosition, ValueExtractor valueExtractor,
+                                  String countAttribute, int countPosition, String[] metricValueAttributes,
+                                  int[] metricValuePositions, ValueExtractor[] metricValueExtractors) {
+        this.labelAttributes = labelAttributes;
+        this.labelPositions = labelPositions;
+        this.stringLabels = stringLabels;
+        this.valueAttribute = valueAttribute;
+        this.valuePosition = valuePosition;
+        this.valueExtractor = valueExtractor;
+        this.batchValues = valueExtractor == null;
+        this.countAttribute = countAttribute;
+        this.countPosition = countPosition;
+        this.metricValueAttributes = metricValueAttributes;
+        this.metricValuePositions = metricValuePositions;
+        this.metricValueExtractors = metricValueExtractors;
+    }
+
+    /**
+     * Compile the publish plan of a stream. The value attribute must be of a numeric type, or of the object type
+     * for batches of values.
+     *
+     * @param streamDefinition definition of the stream published by the sink
+     * @param valueAttribute   name of the value attribute
+     * @return publish plan of the stream
+     */
+    public static PrometheusPublishPlan compile(StreamDefinition streamDefinition, String valueAttribute) {
+        return compile(streamDefinition, valueAttribute, null);
+    }
+
+    /**
+     * Compile the publish plan of a stream whose events carry the number of times their value was observed. The
+     * value attribute must be of a numeric type or of the object type, and the count attribute of an integer type.
+     *
+     * @param streamDefinition definition of the stream published by the sink
+     * @param valueAttribute   name of the value attribute
+     * @param countAttribute   name of the count attribute, or null if every event is a single observation
+     * @return publish plan of the stream
+     */
+    public static PrometheusPublishPlan compile(StreamDefinition streamDefinition, String valueAttribute,
+                                                String countAttribute) {
+        return compile(streamDefinition, valueAttribute, countAttribute, new String[0]);
+    }
+
+    /**
+     * Compile the publish plan of a stream which publishes additional metrics alongside the metric of the value
+     * attribute. The value attributes of the additional metrics must be of a numeric type, and may repeat the value
+     * attribute of another metric.
+     *
+     * @param streamDefinition      definition of the stream published by the sink
+     * @param valueAttribute        name of the value attribute
+     * @param countAttribute        name of the count attribute, or null if every event is a single observation
+     * @param metricValueAttributes names of the value attributes of the additional metrics, in the order of the
+     *                              metrics
+     * @return publish plan of the stream
+     */
+    public static PrometheusPublishPlan compile(StreamDefinition streamDefinition, String valueAttribute,
+                                                String countAttribute, String[] metricValueAttributes) {
+        return compile(streamDefinition, valueAttribute, countAttribute, metricValueAttributes,
+                Collections.emptySet());
+    }
+
+    /**
+     * Compile the publish plan of a stream whose events also select the metric which they update. The attributes
+     * from which the metric name is resolved are not labels, since they are the same for all the series of a metric.
+     *
+     * @param streamDefinition      definition of the stream published by the sink
+     * @param valueAttribute        name of the value attribute
+     * @param countAttribute        name of the count attribute, or null if every event is a single observation
+     * @param metricValueAttributes names of the value attributes of the additional metrics, in the order of the
+     *                              metrics
+     * @param routingAttributes     names of the attributes which select the metric of an event
+     * @return publish plan of the stream
+     */
+    public static PrometheusPublishPlan compile(StreamDefinition streamDefinition, String valueAttribute,
+                                                String countAttribute, String[] metricValueAttributes,
+                                                Collection<String> routingAttributes) {
+        Set<String> excludedAttributes = new HashSet<>(Arrays.asList(metricValueAttributes));
+        excludedAttributes.addAll(routingAttributes);
+        excludedAttributes.add(valueAttribute);
+        if (countAttribute != null) {
+            excludedAttributes.add(countAttribute);
+        }
+        List<Attribute> attributeList = streamDefinition.getAttributeList();
+        int labelCount = 0;
+        for (Attribute attribute : attributeList) {
+            if (!excludedAttributes.contains(attribute.getName())) {
+                labelCount++;
+            }
+        }
+        String[] labelAttributes = new String[labelCount];
+        int[] labelPositions = new int[labelAttributes.length];
+        boolean[] stringLabels = new boolean[labelAttributes.length];
+        int[] metricValuePositions = new int[metricValueAttributes.length];
+        ValueExtractor[] metricValueExtractors = new ValueExtractor[metricValueAttributes.length];
+        int valuePosition = -1;
+        int countPosition = -1;
+        int count = 0;
+        for (int position = 0; position < attributeList.size(); position++) {
+            Attribute attribute = attributeList.get(position);
+            for (int i = 0; i < metricValueAttributes.length; i++) {
+                if (attribute.getName().equals(metricValueAttributes[i])) {
+                    metricValuePositions[i] = position;
+                    metricValueExtractors[i] = createValueExtractor(attribute.getType());
+                }
+            }
+            if (attribute.getName().equals(valueAttribute)) {
+                valuePosition = position;
+            } else if (attribute.getName().equals(countAttribute)) {
+                countPosition = position;
+            } else if (!excludedAttributes.contains(attribute.getName())) {
+                labelAttributes[count] = attribute.getName();
+                labelPositions[count] = position;
+                stringLabels[count] = attribute.getType() == Attribute.Type.STRING;
+                count++;
+            }
+        }
+        return new PrometheusPublishPlan(labelAttributes, labelPositions, stringLabels, valueAttribute,
+                valuePosition, createValueExtractor(streamDefinition.getAttributeType(valueAttribute)), countAttribute,
+                countPosition, metricValueAttributes, metricValuePositions, metricValueExtractors);
+    }
+
+    private static ValueExtractor createValueExtractor(Attribute.Type valueType) {
+        switch (valueType) {
+            case OBJECT:
+                // object values carry a batch of values, which are read with extractValues
+                return null;
+            case INT:
+                return value -> (Integer) value;
+            case LONG:
+                return value -> (Long) value;
+            case FLOAT:
+                return value -> (Float) value;
+            default:
+                return value -> (Double) value;
+        }
+    }
+
+    /**
+     * Retrieve the metric value of an event.
+     *
+     * @param attributeMap payload in Map format
+     * @return metric value
+     */
+    public double extractValue(Map<String, Object> attributeMap) {
+        return valueExtractor.extract(attributeMap.get(valueAttribute));
+    }
+
+    /**
+     * Retrieve the values of all the metrics of an event, starting with the value of the value attribute and
+     * followed by the values of the additional metrics.
+     *
+     * @param attributeMap payload in Map format
+     * @return metric values, in the order of the metrics
+     */
+    public double[] extractMetricValues(Map<String, Object> attributeMap) {
+        double[] values = new double[metricValueAttributes.length + 1];
+        values[0] = valueExtractor.extract(attributeMap.get(valueAttribute));
+        for (int i = 0; i < metricValueAttributes.length; i++) {
+            values[i + 1] = metricValueExtractors[i].extract(attributeMap.get(metricValueAttributes[i]));
+        }
+        return values;
+    }
+
+    /**
+     * Checks whether the value attribute carries a batch of values, to be read with extractValues.
+     *
+     * @return true if the events carry a batch of values
+     */
+    public boolean isBatch() {
+        return batchValues;
+    }
+
+    /**
+     * Retrieve the batch of values of an event.
+     *
+     * @param attributeMap payload in Map format
+     * @return metric values
+     */
+    public double[] extractValues(Map<String, Object> attributeMap) {
+        return toValues(attributeMap.get(valueAttribute));
+    }
+
+    /**
+     * Retrieve the number of times the value of an event was observed, which is 1 without a count attribute.
+     *
+     * @param attributeMap payload in Map format
+     * @return observation count
+     */
+    public long extractCount(Map<String, Object> attributeMap) {
+        return countAttribute == null ? 1 : ((Number) attributeMap.get(countAttribute)).longValue();
+    }
+
+    /**
+     * Retrieve the label values of an event, in the order of the metric labels.
+     *
+     * @param attributeMap payload in Map format
+     * @return label values
+     */
+    public String[] extractLabels(Map<String, Object> attributeMap) {
+        String[] labels = new String[labelAttributes.length];
+        for (int i = 0; i < labelAttributes.length; i++) {
+            Object label = attributeMap.get(labelAttributes[i]);
+            labels[i] = stringLabels[i] && label != null ? (String) label : String.valueOf(label);
+        }
+        return labels;
+    }
+
+    /**
+     * Retrieve the metric value of an event by its position.
+     *
+     * @param data event data in the order of the stream definition
+     * @return metric value
+     */
+    public double extractValue(Object[] data) {
+        return valueExtractor.extract(data[valuePosition]);
+    }
+
+    /**
+     * Retrieve the values of all the metrics of an event by their positions, starting with the value of the value
+     * attribute and followed by the values of the additional metrics.
+     *
+     * @param data event data in the order of the stream definition
+     * @return metric values, in the order of the metrics
+     */
+    public double[] extractMetricValues(Object[] data) {
+        double[] values = new double[metricValuePositions.length + 1];
+        values[0] = valueExtractor.extract(data[valuePosition]);
+        for (int i = 0; i < metricValuePositions.length; i++) {
+            values[i + 1] = metricValueExtractors[i].extract(data[metricValuePositions[i]]);
+        }
+        return values;
+    }
+
+    /**
+     * Retrieve the batch of values of an event by its position.
+     *
+     * @param data event data in the order of the stream definition
+     * @return metric values
+     */
+    public double[] extractValues(Object[] data) {
+        return toValues(data[valuePosition]);
+    }
+
+    // double arrays are observed in place, the other primitive arrays and single numbers are widened
+    private double[] toValues(Object value) {
+        if (value instanceof double[]) {
+            return (double[]) value;
+        }
+        if (value instanceof float[]) {
+            float[] floatValues = (float[]) value;
+            double[] values = new double[floatValues.length];
+            for (int i = 0; i < floatValues.length; i++) {
+                values[i] = floatValues[i];
+            }
+            return values;
+        }
+        if (value instanceof long[]) {
+            return Arrays.stream((long[]) value).asDoubleStream().toArray();
+        }
+        if (value instanceof int[]) {
+            return Arrays.stream((int[]) value).asDoubleStream().toArray();
+        }
+        if (value instanceof Number) {
+            return new double[]{((Number) value).doubleValue()};
+        }
+        throw new SiddhiAppRuntimeException("The value attribute \'" + valueAttribute + "\' of Prometheus sink " +
+                "contains " + (value == null ? "null" : value.getClass().getSimpleName()) + ", while a double[], " +
+                "float[], long[] or int[] batch of values is expected");
+    }
+
+    /**
+     * Retrieve the number of times the value of an event was observed by its position, which is 1 without a count
+     * attribute.
+     *
+     * @param data event data in the order of the stream definition
+     * @return observation count
+     */
+    public long extractCount(Object[] data) {
+        return countPosition < 0 ? 1 : ((Number) data[countPosition]).longValue();
+    }
+
+    /**
+     * Retrieve the label values of an event by their positions, in the order of the metric labels.
+     *
+     * @param data event data in the order of the stream definition
+     * @return label values
+     */
+    public String[] extractLabels(Object[] data) {
+        String[] labels = new String[labelPositions.length];
+        for (int i = 0; i < labelPositions.length; i++) {
+            Object label = data[labelPositions[i]];
+            labels[i] = stringLabels[i] && label != null ? (String) label : String.valueOf(label);
+        }
+        return labels;
+    }
+
+    /**
+     * Converts the value attribute of an event to the metric value without parsing.
+     */
+    private interface ValueExtractor {
+        double extract(Object value);
+    }
+}
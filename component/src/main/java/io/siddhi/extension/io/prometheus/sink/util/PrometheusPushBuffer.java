@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@code PrometheusPushBuffer} Disk backed write ahead buffer of the pushes of a Prometheus sink. Each push is
+ * appended to a {@link PrometheusSegmentLog} and is then sent to the pushGateway by a replay thread, in the order
+ * of the pushes. While the pushGateway is not available, the pushes stay in the log and the replay thread retries
+ * the oldest one with an exponential backoff, hence the sink keeps publishing without waiting on the pushGateway.
+ * The pushes which are still buffered when the sink stops are replayed the next time the buffer is opened.
+ * <p>
+ * Since every push carries the current state of the metrics, a push supersedes the pushes which are still
+ * buffered, so that the buffer holds the latest push only and the pushGateway receives the current state as soon as
+ * it is available again, rather than replaying the outdated states one by one. The disk usage is bounded by the
+ * size of the log.
+ */
+public class PrometheusPushBuffer {
+    private static final Logger log = LogManager.getLogger(PrometheusPushBuffer.class);
+    private static final long POLL_INTERVAL = 100;
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 30000;
+    private static final byte REPLACE_FLAG = 1;
+
+    private final PrometheusSegmentLog segmentLog;
+    private final String streamID;
+    private final Object signal = new Object();
+    private PushSender pushSender;
+    private ExecutorService replayExecutor;
+    private volatile boolean stopping;
+
+    /**
+     * @param directory   directory of the buffer, which must not be shared with other sinks
+     * @param maxSize     maximum disk usage of the buffer in bytes, which must hold at least two segments
+     * @param segmentSize size of each segment file of the buffer in bytes
+     * @param streamID    streamId of the stream for log messages
+     * @throws IOException if the buffer cannot be opened
+     */
+    public PrometheusPushBuffer(File directory, long maxSize, int segmentSize, String streamID) throws IOException {
+        long maxSegments = maxSize / segmentSize;
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("The maximum size " + maxSize + " of the push buffer of Prometheus " +
+                    "sink associated with stream \'" + streamID + "\' does not hold two segments of " + segmentSize +
+                    " bytes.");
+        }
+        this.segmentLog = new PrometheusSegmentLog(directory, segmentSize,
+                (int) Math.min(Integer.MAX_VALUE, maxSegments));
+        this.streamID = streamID;
+    }
+
+    /**
+     * Start replaying the buffered pushes, beginning with the pushes recovered from the disk.
+     *
+     * @param pushSender sends a push to the pushGateway
+     */
+    public void start(PushSender pushSender) {
+        this.pushSender = pushSender;
+        stopping = false;
+        replayExecutor = Executors.newSingleThreadExecutor(new PrometheusThreadFactory("push-buffer", streamID));
+        replayExecutor.execute(this::replay);
+    }
+
+    /**
+     * Append a push to the buffer, replacing the pushes which are not yet sent. This never waits on the pushGateway.
+     *
+     * @param text    metric families in the text format
+     * @param replace true for a 'push' operation, false for a 'pushadd' operation
+     * @return future which completes once the push is buffered, or completes exceptionally with an
+     * {@code IOException} if the push cannot be written to the disk
+     */
+    public CompletableFuture<Void> append(byte[] text, boolean replace) {
+        CompletableFuture<Void> appendResult = new CompletableFuture<>();
+        byte[] payload = new byte[text.length + 1];
+        payload[0] = replace ? REPLACE_FLAG : 0;
+        System.arraycopy(text, 0, payload, 1, text.length);
+        try {
+            if (!segmentLog.replace(payload)) {
+                throw new IOException("The push of " + text.length + " bytes is larger than a segment of the " +
+                        "buffer of Prometheus sink associated with stream \'" + streamID + "\'.");
+            }
+            appendResult.complete(null);
+        } catch (IOException e) {
+            appendResult.completeExceptionally(e);
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        return appendResult;
+    }
+
+    private void replay() {
+        long backoff = MIN_BACKOFF;
+        long failedAttempts = 0;
+        try {
+            while (true) {
+                PrometheusSegmentLog.Record record = segmentLog.peek();
+                if (record == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    synchronized (signal) {
+                        signal.wait(POLL_INTERVAL);
+                    }
+                    continue;
+                }
+                Throwable failure = send(record);
+                if (failure == null) {
+                    segmentLog.remove(record);
+                    if (failedAttempts > 0) {
+                        log.info("Pushgateway of Prometheus sink associated with stream \'" + streamID + "\' is " +
+                                "available again after " + failedAttempts + " failed attempts, replaying " +
+                                segmentLog.size() + " buffered pushes.");
+                    }
+                    backoff = MIN_BACKOFF;
+                    failedAttempts = 0;
+                } else if (failure instanceof PrometheusResponseException &&
+                        !((PrometheusResponseException) failure).isRecoverable()) {
+                    segmentLog.remove(record);
+                    log.error("Dropped a buffered push of Prometheus sink associated with stream \'" + streamID +
+                            "\' since it was rejected by the pushGateway.", failure);
+                } else {
+                    if (stopping) {
+                        // the remaining pushes are replayed the next time the buffer is opened
+                        return;
+                    }
+                    if (failedAttempts++ == 0) {
+                        log.warn("Unable to push metrics of Prometheus sink associated with stream \'" + streamID +
+                                "\' to pushGateway, buffering the pushes until it is available.", failure);
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Throwable send(PrometheusSegmentLog.Record record) throws InterruptedException {
+        byte[] payload = record.payload;
+        try {
+            pushSender.push(Arrays.copyOfRange(payload, 1, payload.length), payload[0] == REPLACE_FLAG)
+                    .get(PrometheusConstants.PUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException | RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * @return number of pushes which are buffered and not yet accepted by the pushGateway
+     */
+    public long size() {
+        return segmentLog.size();
+    }
+
+    /**
+     * Replay the buffered pushes until the buffer is empty, the pushGateway fails or the timeout elapses, and close
+     * the buffer. The pushes which are not replayed stay on the disk.
+     *
+     * @param timeout maximum time in milliseconds to wait for the buffered pushes to be replayed
+     */
+    public void stop(long timeout) {
+        stopping = true;
+        try {
+            if (replayExecutor != null) {
+                replayExecutor.shutdown();
+                if (!replayExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    replayExecutor.shutdownNow();
+                    replayExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            replayExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (segmentLog.size() > 0) {
+            log.warn(segmentLog.size() + " pushes of Prometheus sink associated with stream \'" + streamID +
+                    "\' remain buffered, and will be pushed when the sink connects again.");
+        }
+        try {
+            segmentLog.close();
+        } catch (IOException e) {
+            log.error("Unable to close the push buffer of Prometheus sink associated with stream \'" + streamID +
+                    "\'.", e);
+        }
+    }
+
+    /**
+     * Sends a buffered push to the pushGateway.
+     */
+    public interface PushSender {
+        /**
+         * Send a push to the pushGateway without waiting for the response.
+         *
+         * @param text    metric families in the text format
+         * @param replace true for a 'push' operation, false for a 'pushadd' operation
+         * @return future which completes when the push is accepted by the pushGateway
+         */
+        CompletableFuture<Void> push(byte[] text, boolean replace);
+    }
+}
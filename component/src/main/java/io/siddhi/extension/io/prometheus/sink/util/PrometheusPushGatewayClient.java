@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code PrometheusPushGatewayClient} Pushes metrics to the Prometheus pushGateway over pooled keep-alive
+ * connections of the Netty based HTTP transport. Pushes are sent without blocking the caller, and the result of
+ * each push is notified through the returned future, which fails with a {@link PrometheusResponseException} when
+ * the pushGateway rejects the push.
+ */
+public class PrometheusPushGatewayClient {
+    private static final Logger log = LogManager.getLogger(PrometheusPushGatewayClient.class);
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final String requestPath;
+    private final boolean gzipEnabled;
+    private final String streamID;
+    private final HttpHeaders contentHeaders = new DefaultHttpHeaders();
+    private final PrometheusHttpSender httpSender;
+
+    public PrometheusPushGatewayClient(URL pushURL, String jobName, Map<String, String> groupingKey,
+                                       int connectionPoolSize, boolean gzipEnabled, String trustStoreFile,
+                                       String trustStorePassword, String streamID) {
+        this.gzipEnabled = gzipEnabled;
+        this.streamID = streamID;
+        this.requestPath = buildRequestPath(pushURL, jobName, groupingKey);
+        contentHeaders.set(HttpHeaderNames.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004);
+        if (gzipEnabled) {
+            contentHeaders.set(HttpHeaderNames.CONTENT_ENCODING, GZIP_ENCODING);
+        }
+        this.httpSender = new PrometheusHttpSender(pushURL, "pushGateway", connectionPoolSize, trustStoreFile,
+                trustStorePassword, "push-response", streamID);
+    }
+
+    private static String buildRequestPath(URL pushURL, String jobName, Map<String, String> groupingKey) {
+        String basePath = pushURL.getPath();
+        if (basePath.endsWith("/")) {
+            basePath = basePath.substring(0, basePath.length() - 1);
+        }
+        StringBuilder path = new StringBuilder(basePath).append("/metrics/job/").append(encode(jobName));
+        for (Map.Entry<String, String> entry : groupingKey.entrySet()) {
+            path.append('/').append(entry.getKey()).append('/').append(encode(entry.getValue()));
+        }
+        return path.toString();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Send the given metric families to the pushGateway without waiting for the response.
+     *
+     * @param metricFamilySamples metric families to be pushed
+     * @param replace             true to replace all the metrics of the grouping key (PUT), false to only replace
+     *                            the metrics with the same names (POST)
+     * @return future which completes when the pushGateway accepts the push
+     */
+    public CompletableFuture<Void> push(Enumeration<Collector.MetricFamilySamples> metricFamilySamples,
+                                        boolean replace) {
+        CompletableFuture<Void> pushResult = new CompletableFuture<>();
+        ByteBuf body;
+        try {
+            body = encodeBody(metricFamilySamples);
+        } catch (IOException e) {
+            pushResult.completeExceptionally(e);
+            return pushResult;
+        }
+        return send(body, replace);
+    }
+
+    /**
+     * Send metric families, which are already written in the text format, to the pushGateway without waiting for
+     * the response.
+     *
+     * @param text    metric families in the text format, as written by {@link #encodeText(Enumeration)}
+     * @param replace true to replace all the metrics of the grouping key (PUT), false to only replace the metrics
+     *                with the same names (POST)
+     * @return future which completes when the pushGateway accepts the push
+     */
+    public CompletableFuture<Void> push(byte[] text, boolean replace) {
+        CompletableFuture<Void> pushResult = new CompletableFuture<>();
+        ByteBuf body;
+        if (gzipEnabled) {
+            body = PooledByteBufAllocator.DEFAULT.buffer();
+            try (OutputStream outputStream = new GZIPOutputStream(new ByteBufOutputStream(body))) {
+                outputStream.write(text);
+            } catch (IOException e) {
+                body.release();
+                pushResult.completeExceptionally(e);
+                return pushResult;
+            }
+        } else {
+            body = Unpooled.wrappedBuffer(text);
+        }
+        return send(body, replace);
+    }
+
+    private CompletableFuture<Void> send(ByteBuf body, boolean replace) {
+        return httpSender.send(replace ? HttpMethod.PUT : HttpMethod.POST, requestPath, body, contentHeaders);
+    }
+
+    /**
+     * Write metric families in the text format, uncompressed.
+     *
+     * @param metricFamilySamples metric families to be written
+     * @return metric families in the text format
+     * @throws IOException if the metric families cannot be written
+     */
+    public static byte[] encodeText(Enumeration<Collector.MetricFamilySamples> metricFamilySamples)
+            throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
+            TextFormat.write004(writer, metricFamilySamples);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private ByteBuf encodeBody(Enumeration<Collector.MetricFamilySamples> metricFamilySamples) throws IOException {
+        ByteBuf body = PooledByteBufAllocator.DEFAULT.buffer();
+        OutputStream outputStream = new ByteBufOutputStream(body);
+        if (gzipEnabled) {
+            outputStream = new GZIPOutputStream(outputStream);
+        }
+        try (Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
+            TextFormat.write004(writer, metricFamilySamples);
+        } catch (IOException e) {
+            body.release();
+            throw e;
+        }
+        return body;
+    }
+
+    public void shutdown() {
+        try {
+            httpSender.shutdown(PrometheusConstants.PUSH_TIMEOUT);
+        } catch (InterruptedException e) {
+            log.error("Interrupted exception thrown in Prometheus sink associated with stream \'" + streamID +
+                    "\' while shutting down the pushGateway client.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@code PrometheusPushScheduler} Pushes the registry of a Prometheus sink to the pushGateway in the background.
+ * Metric updates only mark the registry as dirty. The registry is then pushed at the configured interval, with at
+ * most one push in flight, and the updates arriving while a push is running are coalesced into the next push.
+ * The publishing threads never wait on the network, since the pushes complete asynchronously, and a failed push is
+ * only logged, leaving the registry dirty so that its updates are sent again with the next push. When the registry
+ * is pushed as soon as it is dirty, the next push after a failure is scheduled with an exponential backoff, so that
+ * the pushGateway catches up even if no further events arrive.
+ */
+public class PrometheusPushScheduler {
+    private static final Logger log = LogManager.getLogger(PrometheusPushScheduler.class);
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 30000;
+
+    private final PushTask pushTask;
+    private final long pushInterval;
+    private final String streamID;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final AtomicBoolean pushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean pushInFlight = new AtomicBoolean(false);
+    private volatile CompletableFuture<Void> pushResult;
+    private volatile long backoff = MIN_BACKOFF;
+    private ScheduledExecutorService executorService;
+
+    /**
+     * @param pushTask     task which pushes the registry to the pushGateway
+     * @param pushInterval interval between two pushes in milliseconds, 0 pushes as soon as the registry is dirty
+     * @param streamID     streamId of the stream for log messages
+     */
+    public PrometheusPushScheduler(PushTask pushTask, long pushInterval, String streamID) {
+        this.pushTask = pushTask;
+        this.pushInterval = pushInterval;
+        this.streamID = streamID;
+    }
+
+    public void start() {
+        executorService = Executors.newSingleThreadScheduledExecutor(
+                new PrometheusThreadFactory("push-scheduler", streamID));
+        if (pushInterval > 0) {
+            executorService.scheduleWithFixedDelay(this::flush, pushInterval, pushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Mark the registry as updated. This never waits on the pushGateway.
+     */
+    public void markDirty() {
+        if (!dirty.get()) {
+            dirty.set(true);
+        }
+        if (pushInterval == 0) {
+            schedulePush();
+        }
+    }
+
+    private void schedulePush() {
+        if (!pushScheduled.get() && !pushInFlight.get() && pushScheduled.compareAndSet(false, true)) {
+            try {
+                executorService.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // scheduler is stopping, pending updates are pushed by stop()
+                pushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Stop the scheduled pushes and push the pending updates, if any, before returning.
+     *
+     * @param timeout maximum time in milliseconds to wait for the pending pushes
+     */
+    public void stop(long timeout) {
+        if (executorService == null) {
+            return;
+        }
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                executorService.shutdownNow();
+            }
+            awaitPush(timeout);
+            if (dirty.get()) {
+                flush();
+                awaitPush(timeout);
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitPush(long timeout) throws InterruptedException {
+        CompletableFuture<Void> result = pushResult;
+        if (result == null) {
+            return;
+        }
+        try {
+            result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // push failure is already logged
+        } catch (TimeoutException e) {
+            log.warn("Timed out while waiting for the last push of Prometheus sink associated with stream \'" +
+                    streamID + "\'.");
+        }
+    }
+
+    private void flush() {
+        pushScheduled.set(false);
+        if (!dirty.get() || !pushInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        dirty.set(false);
+        CompletableFuture<Void> result;
+        try {
+            result = pushTask.push();
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        pushResult = result;
+        result.whenComplete((ignored, error) -> onPushCompleted(error));
+    }
+
+    private void onPushCompleted(Throwable error) {
+        if (error != null) {
+            // the metrics of the failed push are sent again with the next push
+            dirty.set(true);
+            log.error("Unable to push metrics of Prometheus sink associated with stream \'" + streamID +
+                    "\' to pushGateway.", error);
+        }
+        if (error == null) {
+            backoff = MIN_BACKOFF;
+        } else if (pushInterval == 0) {
+            scheduleRetry();
+        }
+        pushInFlight.set(false);
+        if (error == null && pushInterval == 0 && dirty.get()) {
+            schedulePush();
+        }
+    }
+
+    // the retry is the scheduled push, hence the updates arriving meanwhile do not push before the backoff elapses
+    private void scheduleRetry() {
+        if (pushScheduled.compareAndSet(false, true)) {
+            try {
+                executorService.schedule(this::flush, backoff, TimeUnit.MILLISECONDS);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            } catch (RejectedExecutionException e) {
+                // scheduler is stopping, pending updates are pushed by stop()
+                pushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Pushes the registry of a Prometheus sink to the pushGateway.
+     */
+    public interface PushTask {
+        /**
+         * Send the registry to the pushGateway without waiting for the response.
+         *
+         * @return future which completes when the push is accepted, or completes exceptionally with an
+         * {@code IOException} if the pushGateway is not reachable or rejects the push
+         */
+        CompletableFuture<Void> push();
+    }
+}
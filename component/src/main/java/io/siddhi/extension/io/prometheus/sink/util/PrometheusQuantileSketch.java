@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@code PrometheusQuantileSketch} Constant memory quantile sketch with a bounded relative error. Each power of two
+ * is split into 2^precision buckets of equal width, so that any value of a bucket is within the relative error of
+ * the middle of the bucket. The bucket of a value is read from the bits of the double, and the count of the bucket
+ * is increased atomically, so that inserts take no lock. The buckets of a power of two are only allocated once a
+ * value falls into it. Quantiles are computed from the bucket counts when they are requested, and sketches of the
+ * same precision can be merged by adding their counts.
+ */
+final class PrometheusQuantileSketch {
+    static final int MAX_PRECISION = 10;
+    // values beyond the exponent range are counted in the zero bucket or in the last bucket
+    private static final int MIN_EXPONENT = -64;
+    private static final int MAX_EXPONENT = 63;
+    private static final int EXPONENTS = MAX_EXPONENT - MIN_EXPONENT + 1;
+    private static final long MANTISSA_MASK = 0xFFFFFFFFFFFFFL;
+
+    private final int precision;
+    private final int subBuckets;
+    private final AtomicReferenceArray<AtomicLongArray> positiveBuckets = new AtomicReferenceArray<>(EXPONENTS);
+    private final AtomicReferenceArray<AtomicLongArray> negativeBuckets = new AtomicReferenceArray<>(EXPONENTS);
+    private final AtomicLong zeroCount = new AtomicLong();
+
+    /**
+     * @param precision number of bits of the mantissa which select the bucket within a power of two, between 0
+     *                  and 10. The relative error of the quantiles is at most 2^-(precision + 1).
+     */
+    PrometheusQuantileSketch(int precision) {
+        this.precision = precision;
+        this.subBuckets = 1 << precision;
+    }
+
+    /**
+     * Lowest precision whose relative error is within the given error.
+     *
+     * @param relativeError relative error of the quantiles
+     * @return precision of the sketch
+     */
+    static int toPrecision(double relativeError) {
+        if (relativeError <= 0) {
+            return MAX_PRECISION;
+        }
+        int precision = (int) Math.ceil(-Math.log(relativeError) / Math.log(2)) - 1;
+        return Math.max(0, Math.min(MAX_PRECISION, precision));
+    }
+
+    void add(double value) {
+        add(value, 1);
+    }
+
+    void add(double value, long count) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        double absoluteValue = Math.abs(value);
+        int exponent = Math.getExponent(absoluteValue);
+        if (exponent < MIN_EXPONENT) {
+            zeroCount.addAndGet(count);
+            return;
+        }
+        int subBucket;
+        if (exponent > MAX_EXPONENT) {
+            exponent = MAX_EXPONENT;
+            subBucket = subBuckets - 1;
+        } else {
+            subBucket = (int) ((Double.doubleToRawLongBits(absoluteValue) & MANTISSA_MASK) >>> (52 - precision));
+        }
+        bucketsOf(value > 0 ? positiveBuckets : negativeBuckets, exponent - MIN_EXPONENT)
+                .addAndGet(subBucket, count);
+    }
+
+    private AtomicLongArray bucketsOf(AtomicReferenceArray<AtomicLongArray> buckets, int exponentIndex) {
+        AtomicLongArray exponentBuckets = buckets.get(exponentIndex);
+        if (exponentBuckets == null) {
+            buckets.compareAndSet(exponentIndex, null, new AtomicLongArray(subBuckets));
+            exponentBuckets = buckets.get(exponentIndex);
+        }
+        return exponentBuckets;
+    }
+
+    /**
+     * Add the counts of another sketch of the same precision to this sketch.
+     *
+     * @param other sketch to be merged into this sketch
+     */
+    void merge(PrometheusQuantileSketch other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of precision " + other.precision +
+                    " into a sketch of precision " + precision);
+        }
+        mergeBuckets(positiveBuckets, other.positiveBuckets);
+        mergeBuckets(negativeBuckets, other.negativeBuckets);
+        zeroCount.addAndGet(other.zeroCount.get());
+    }
+
+    private void mergeBuckets(AtomicReferenceArray<AtomicLongArray> buckets,
+                              AtomicReferenceArray<AtomicLongArray> otherBuckets) {
+        for (int i = 0; i < EXPONENTS; i++) {
+            AtomicLongArray otherExponentBuckets = otherBuckets.get(i);
+            if (otherExponentBuckets == null) {
+                continue;
+            }
+            AtomicLongArray exponentBuckets = bucketsOf(buckets, i);
+            for (int j = 0; j < subBuckets; j++) {
+                long count = otherExponentBuckets.get(j);
+                if (count != 0) {
+                    exponentBuckets.addAndGet(j, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the non empty buckets of the sketch to a snapshot. Each bucket is written as the distance of its flat
+     * index from the previous bucket followed by its count, and the buckets of a sign end with a zero distance.
+     * The counts are read without stopping the inserts.
+     *
+     * @param writer writer of the snapshot
+     */
+    void writeSnapshot(PrometheusSnapshotFormat.Writer writer) {
+        writer.writeVarint(zeroCount.get());
+        writeBuckets(writer, positiveBuckets);
+        writeBuckets(writer, negativeBuckets);
+    }
+
+    private void writeBuckets(PrometheusSnapshotFormat.Writer writer, AtomicReferenceArray<AtomicLongArray> buckets) {
+        int previousIndex = -1;
+        for (int i = 0; i < EXPONENTS; i++) {
+            AtomicLongArray exponentBuckets = buckets.get(i);
+            for (int j = 0; exponentBuckets != null && j < subBuckets; j++) {
+                long count = exponentBuckets.get(j);
+                if (count != 0) {
+                    int index = i * subBuckets + j;
+                    writer.writeVarint(index - previousIndex);
+                    writer.writeVarint(count);
+                    previousIndex = index;
+                }
+            }
+        }
+        writer.writeVarint(0);
+    }
+
+    /**
+     * Replace the buckets of this sketch with the buckets of a snapshot, written by a sketch of the same precision.
+     * The sketch must not be updated while it is restored, since the quantiles rely on the counts only growing.
+     *
+     * @param reader reader of the snapshot
+     * @throws IOException if the snapshot is malformed
+     */
+    void restoreSnapshot(PrometheusSnapshotFormat.Reader reader) throws IOException {
+        for (int i = 0; i < EXPONENTS; i++) {
+            positiveBuckets.set(i, null);
+            negativeBuckets.set(i, null);
+        }
+        zeroCount.set(reader.readVarint());
+        restoreBuckets(reader, positiveBuckets);
+        restoreBuckets(reader, negativeBuckets);
+    }
+
+    private void restoreBuckets(PrometheusSnapshotFormat.Reader reader,
+                                AtomicReferenceArray<AtomicLongArray> buckets) throws IOException {
+        long index = -1;
+        for (long distance = reader.readVarint(); distance != 0; distance = reader.readVarint()) {
+            index += distance;
+            if (distance < 0 || index >= (long) EXPONENTS * subBuckets) {
+                throw new IOException("Malformed quantile sketch bucket index " + index);
+            }
+            bucketsOf(buckets, (int) index / subBuckets).addAndGet((int) index % subBuckets, reader.readVarint());
+        }
+    }
+
+    /**
+     * Estimate the given quantiles from the bucket counts. The counts are read without stopping the inserts.
+     * Since the counts only grow, the buckets walked after counting the total always reach the ranks of the
+     * quantiles.
+     *
+     * @param quantiles quantiles in ascending order
+     * @return estimated values of the quantiles, NaN if the sketch is empty
+     */
+    double[] quantiles(double[] quantiles) {
+        double[] values = new double[quantiles.length];
+        Arrays.fill(values, Double.NaN);
+        long total = zeroCount.get() + count(negativeBuckets) + count(positiveBuckets);
+        if (total == 0) {
+            return values;
+        }
+        long[] ranks = new long[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            ranks[i] = (long) (quantiles[i] * (total - 1));
+        }
+        QuantileWalk walk = new QuantileWalk(ranks, values);
+        // the negative buckets are walked from the largest magnitude down, then the zero and positive buckets up
+        for (int i = EXPONENTS - 1; i >= 0 && !walk.isDone(); i--) {
+            AtomicLongArray exponentBuckets = negativeBuckets.get(i);
+            for (int j = subBuckets - 1; exponentBuckets != null && j >= 0; j--) {
+                walk.add(exponentBuckets.get(j), -bucketValue(i, j));
+            }
+        }
+        walk.add(zeroCount.get(), 0);
+        for (int i = 0; i < EXPONENTS && !walk.isDone(); i++) {
+            AtomicLongArray exponentBuckets = positiveBuckets.get(i);
+            for (int j = 0; exponentBuckets != null && j < subBuckets; j++) {
+                walk.add(exponentBuckets.get(j), bucketValue(i, j));
+            }
+        }
+        return values;
+    }
+
+    private long count(AtomicReferenceArray<AtomicLongArray> buckets) {
+        long count = 0;
+        for (int i = 0; i < EXPONENTS; i++) {
+            AtomicLongArray exponentBuckets = buckets.get(i);
+            for (int j = 0; exponentBuckets != null && j < subBuckets; j++) {
+                count += exponentBuckets.get(j);
+            }
+        }
+        return count;
+    }
+
+    // middle of a bucket, whose values are within the relative error of it
+    private double bucketValue(int exponentIndex, int subBucket) {
+        return Math.scalb(1 + (subBucket + 0.5) / subBuckets, exponentIndex + MIN_EXPONENT);
+    }
+
+    /**
+     * Assigns the buckets to the quantiles whose ranks they cover, walking the buckets in ascending order of value.
+     */
+    private static final class QuantileWalk {
+        private final long[] ranks;
+        private final double[] values;
+        private long cumulativeCount;
+        private int next;
+
+        QuantileWalk(long[] ranks, double[] values) {
+            this.ranks = ranks;
+            this.values = values;
+        }
+
+        void add(long count, double value) {
+            if (count == 0) {
+                return;
+            }
+            cumulativeCount += count;
+            while (next < ranks.length && cumulativeCount > ranks[next]) {
+                values[next++] = value;
+            }
+        }
+
+        boolean isDone() {
+            return next == ranks.length;
+        }
+    }
+}
@@ -20,31 +20,92 @@ package io.siddhi.extension.io.prometheus.sink.util;
 
 import io.prometheus.client.CollectorRegistry;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A singleton class to initialize registry.
+ * {@code PrometheusRegistryHolder} Holds one registry and one HTTP server per exact host:port endpoint, shared by
+ * all the Prometheus sinks which expose their metrics at that endpoint. The sinks attached to the server of an
+ * endpoint are reference counted, so that the server is started by the first sink and stopped by the last one.
+ * The server of an endpoint is of the type configured by the sink which started it.
  */
-class PrometheusRegistryHolder {
+public class PrometheusRegistryHolder {
 
-    private static Map<Integer, CollectorRegistry> registryMap = new HashMap<>();
+    private static final ConcurrentMap<String, Endpoint> endpointMap = new ConcurrentHashMap<>();
 
     private PrometheusRegistryHolder() {
     }
 
-    private static CollectorRegistry registerRegistry(int hashKey) {
-        CollectorRegistry registry = new CollectorRegistry();
-        registryMap.put(hashKey, registry);
-        return registry;
+    private static Endpoint retrieveEndpoint(String host, int port) {
+        return endpointMap.computeIfAbsent(host + ":" + port, key -> new Endpoint());
     }
 
-    static CollectorRegistry retrieveRegistry(String host, int port) {
-        int hashKey = (host + port).hashCode();
-        if (registryMap.containsKey(hashKey)) {
-            return registryMap.get(hashKey);
-        } else {
-            return registerRegistry(hashKey);
+    static PrometheusExposition retrieveExposition(String host, int port) {
+        return retrieveEndpoint(host, port).exposition;
+    }
+
+    /**
+     * Retrieve the registry of the endpoint, shared by all the metrics exposed at the endpoint.
+     *
+     * @param host host of the endpoint
+     * @param port port of the endpoint
+     * @return registry of the endpoint
+     */
+    public static CollectorRegistry retrieveRegistry(String host, int port) {
+        return retrieveExposition(host, port).getRegistry();
+    }
+
+    /**
+     * Attach a sink to the HTTP server of the endpoint, starting the server if it is not running.
+     *
+     * @param host          host of the endpoint
+     * @param port          port of the endpoint
+     * @param serverFactory factory which starts the server if it is not running
+     * @throws IOException if the server could not be started at the endpoint
+     */
+    public static void attachServer(String host, int port, PrometheusExpositionServer.Factory serverFactory)
+            throws IOException {
+        Endpoint endpoint = retrieveEndpoint(host, port);
+        synchronized (endpoint) {
+            if (endpoint.references == 0) {
+                endpoint.server = serverFactory.start(new InetSocketAddress(host, port), endpoint.exposition);
+            }
+            endpoint.references++;
         }
     }
+
+    /**
+     * Detach a sink from the HTTP server of the endpoint, stopping the server if no other sink is attached.
+     *
+     * @param host host of the endpoint
+     * @param port port of the endpoint
+     * @return true if the server was stopped
+     */
+    public static boolean detachServer(String host, int port) {
+        Endpoint endpoint = retrieveEndpoint(host, port);
+        synchronized (endpoint) {
+            if (endpoint.references == 0) {
+                return false;
+            }
+            endpoint.references--;
+            if (endpoint.references == 0) {
+                endpoint.server.stop();
+                endpoint.server = null;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Metrics and HTTP server of an endpoint. The metrics live as long as the holder, since the sinks bind their
+     * metrics to them before connecting, while the server only runs while sinks are attached to it.
+     */
+    private static final class Endpoint {
+        private final PrometheusExposition exposition = new PrometheusExposition();
+        private PrometheusExpositionServer server;
+        private int references;
+    }
 }
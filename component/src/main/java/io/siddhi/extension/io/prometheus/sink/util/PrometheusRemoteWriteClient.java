@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.prometheus.client.Collector;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusRemoteWriteFormat.TimeSeries;
+import io.siddhi.extension.io.prometheus.util.PrometheusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * {@code PrometheusRemoteWriteClient} Sends the metrics of a Prometheus sink to a receiver of the Prometheus remote
+ * write protocol. The metrics are collected at a fixed interval, and each sample is queued into one of several shards
+ * by the hash of its series, so that the samples of a series are sent in order while the shards send in parallel.
+ * Each shard batches the queued samples into snappy compressed write requests of a bounded size, and retries the
+ * requests which fail with a server error, a throttling response or a connection failure, backing off exponentially.
+ * Requests rejected with a client error are dropped, since resending them would fail again. Samples are dropped
+ * when the queue of their shard is full, so that an unavailable receiver never holds up the sink.
+ */
+public class PrometheusRemoteWriteClient {
+    private static final Logger log = LogManager.getLogger(PrometheusRemoteWriteClient.class);
+    private static final long POLL_INTERVAL = 100;
+
+    private final URL remoteWriteURL;
+    private final String requestPath;
+    private final Map<String, String> externalLabels;
+    private final int maxSamplesPerSend;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final String streamID;
+    private final List<BlockingQueue<TimeSeries>> shardQueues = new ArrayList<>();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final HttpHeaders contentHeaders = new DefaultHttpHeaders();
+    private final PrometheusHttpSender httpSender;
+    private Supplier<List<Collector.MetricFamilySamples>> metricSource;
+    private ScheduledExecutorService collectExecutor;
+    private ExecutorService shardExecutor;
+    private volatile boolean running;
+
+    /**
+     * @param remoteWriteURL     URL of the remote write receiver
+     * @param externalLabels     labels added to every series
+     * @param shards             number of shards which send in parallel
+     * @param queueCapacity      maximum number of samples queued per shard
+     * @param maxSamplesPerSend  maximum number of samples per write request
+     * @param minBackoff         initial delay in milliseconds before retrying a failed request
+     * @param maxBackoff         maximum delay in milliseconds before retrying a failed request
+     * @param trustStoreFile     trust store of https receivers
+     * @param trustStorePassword password of the trust store
+     * @param streamID           streamId of the stream for log messages
+     */
+    public PrometheusRemoteWriteClient(URL remoteWriteURL, Map<String, String> externalLabels, int shards,
+                                       int queueCapacity, int maxSamplesPerSend, long minBackoff, long maxBackoff,
+                                       String trustStoreFile, String trustStorePassword, String streamID) {
+        this.remoteWriteURL = remoteWriteURL;
+        this.requestPath = remoteWriteURL.getPath().isEmpty() ? "/" : remoteWriteURL.getPath();
+        this.externalLabels = externalLabels;
+        this.maxSamplesPerSend = maxSamplesPerSend;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.streamID = streamID;
+        for (int i = 0; i < shards; i++) {
+            shardQueues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        contentHeaders.set(HttpHeaderNames.CONTENT_TYPE, PrometheusRemoteWriteFormat.CONTENT_TYPE);
+        contentHeaders.set(HttpHeaderNames.CONTENT_ENCODING, PrometheusRemoteWriteFormat.CONTENT_ENCODING);
+        contentHeaders.set(PrometheusRemoteWriteFormat.VERSION_HEADER, PrometheusRemoteWriteFormat.VERSION);
+        this.httpSender = new PrometheusHttpSender(remoteWriteURL, "the remote write receiver", shards,
+                trustStoreFile, trustStorePassword, "remote-write-response", streamID);
+    }
+
+    /**
+     * Start collecting the metrics at the given interval and sending them to the receiver.
+     *
+     * @param metricSource  collects the metrics to be sent
+     * @param writeInterval interval in milliseconds between two collections
+     */
+    public void start(Supplier<List<Collector.MetricFamilySamples>> metricSource, long writeInterval) {
+        this.metricSource = metricSource;
+        running = true;
+        shardExecutor = Executors.newFixedThreadPool(shardQueues.size(),
+                new PrometheusThreadFactory("remote-write-shard", streamID));
+        for (BlockingQueue<TimeSeries> shardQueue : shardQueues) {
+            shardExecutor.execute(() -> runShard(shardQueue));
+        }
+        collectExecutor = Executors.newSingleThreadScheduledExecutor(
+                new PrometheusThreadFactory("remote-write-collector", streamID));
+        collectExecutor.scheduleAtFixedRate(this::collect, writeInterval, writeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void collect() {
+        try {
+            append(metricSource.get(), System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.error("Unable to collect the metrics of Prometheus sink associated with stream \'" + streamID +
+                    "\' for remote write.", e);
+        }
+    }
+
+    /**
+     * Queue the samples of the given metric families into the shards of their series.
+     *
+     * @param metricFamilySamples metric families to be sent
+     * @param timestamp           timestamp of the samples in milliseconds since the epoch
+     */
+    void append(List<Collector.MetricFamilySamples> metricFamilySamples, long timestamp) {
+        int dropped = 0;
+        for (TimeSeries timeSeries : PrometheusRemoteWriteFormat.toTimeSeries(metricFamilySamples, externalLabels,
+                timestamp)) {
+            if (!shardQueues.get((timeSeries.hash & Integer.MAX_VALUE) % shardQueues.size()).offer(timeSeries)) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            droppedSamples.add(dropped);
+            log.warn("Dropped " + dropped + " samples of Prometheus sink associated with stream \'" + streamID +
+                    "\' since the remote write queue is full.");
+        }
+    }
+
+    /**
+     * @return number of samples dropped since the client was created, since their queue was full or their request
+     * could not be delivered
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.sum();
+    }
+
+    private void runShard(BlockingQueue<TimeSeries> shardQueue) {
+        List<TimeSeries> batch = new ArrayList<>();
+        try {
+            while (running || !shardQueue.isEmpty()) {
+                TimeSeries timeSeries = shardQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (timeSeries == null) {
+                    continue;
+                }
+                batch.add(timeSeries);
+                shardQueue.drainTo(batch, maxSamplesPerSend - 1);
+                sendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendBatch(List<TimeSeries> batch) throws InterruptedException {
+        byte[] body = PrometheusRemoteWriteFormat.encode(batch);
+        long backoff = minBackoff;
+        while (true) {
+            Throwable failure;
+            try {
+                send(body).get(PrometheusConstants.PUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+                return;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (TimeoutException e) {
+                failure = e;
+            }
+            if (failure instanceof PrometheusResponseException &&
+                    !((PrometheusResponseException) failure).isRecoverable()) {
+                droppedSamples.add(batch.size());
+                log.error("Dropped " + batch.size() + " samples of Prometheus sink associated with stream \'" +
+                        streamID + "\' since they were rejected by the remote write receiver.", failure);
+                return;
+            }
+            if (!running) {
+                // the sink is stopping, hence the remaining samples are not retried
+                droppedSamples.add(batch.size());
+                log.error("Dropped " + batch.size() + " samples of Prometheus sink associated with stream \'" +
+                        streamID + "\' since the remote write receiver is not available.", failure);
+                return;
+            }
+            log.warn("Unable to send samples of Prometheus sink associated with stream \'" + streamID + "\' to " +
+                    "the remote write receiver at " + remoteWriteURL + ", retrying in " + backoff + " ms.", failure);
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+    }
+
+    private CompletableFuture<Void> send(byte[] body) {
+        return httpSender.send(HttpMethod.POST, requestPath, Unpooled.wrappedBuffer(body), contentHeaders);
+    }
+
+    /**
+     * Stop collecting the metrics, and send the last collection together with the samples which are still queued
+     * before returning.
+     *
+     * @param timeout maximum time in milliseconds to wait for the queued samples to be sent
+     */
+    public void stop(long timeout) {
+        if (collectExecutor == null) {
+            return;
+        }
+        collectExecutor.shutdown();
+        try {
+            if (collectExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                collect();
+            }
+            running = false;
+            shardExecutor.shutdown();
+            if (!shardExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                shardExecutor.shutdownNow();
+                log.warn("Timed out while sending the queued samples of Prometheus sink associated with stream \'" +
+                        streamID + "\' to the remote write receiver at " + remoteWriteURL);
+            }
+            httpSender.shutdown(timeout);
+        } catch (InterruptedException e) {
+            running = false;
+            shardExecutor.shutdownNow();
+            log.error("Interrupted exception thrown in Prometheus sink associated with stream \'" + streamID +
+                    "\' while shutting down the remote write client.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
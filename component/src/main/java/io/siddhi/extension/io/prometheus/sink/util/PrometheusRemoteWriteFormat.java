@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import io.siddhi.extension.io.prometheus.sink.util.PrometheusProtobufFormat.ProtoBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@code PrometheusRemoteWriteFormat} Encodes samples in the {@code prometheus.WriteRequest} message of the remote
+ * write protocol, following remote.proto and types.proto of Prometheus. Every sample of the collected metric
+ * families becomes a time series, identified by the sample name as the {@code __name__} label and the labels of the
+ * sample, together with the external labels of the sink. The labels of each series are sorted by name, as required
+ * by the receivers. The encoded request is compressed with snappy.
+ */
+final class PrometheusRemoteWriteFormat {
+    static final String CONTENT_TYPE = "application/x-protobuf";
+    static final String CONTENT_ENCODING = "snappy";
+    static final String VERSION_HEADER = "X-Prometheus-Remote-Write-Version";
+    static final String VERSION = "0.1.0";
+    static final String NAME_LABEL = "__name__";
+
+    // fields of the WriteRequest, TimeSeries, Label and Sample messages
+    private static final int TIMESERIES_FIELD = 1;
+    private static final int LABELS_FIELD = 1;
+    private static final int SAMPLES_FIELD = 2;
+    private static final int LABEL_NAME_FIELD = 1;
+    private static final int LABEL_VALUE_FIELD = 2;
+    private static final int SAMPLE_VALUE_FIELD = 1;
+    private static final int SAMPLE_TIMESTAMP_FIELD = 2;
+
+    private PrometheusRemoteWriteFormat() {
+    }
+
+    /**
+     * Convert the samples of metric families to time series.
+     *
+     * @param metricFamilySamples metric families to be converted
+     * @param externalLabels      labels added to every series, unless the sample has a label of the same name
+     * @param timestamp           timestamp of the samples in milliseconds since the epoch
+     * @return one time series per sample
+     */
+    static List<TimeSeries> toTimeSeries(Collection<Collector.MetricFamilySamples> metricFamilySamples,
+                                         Map<String, String> externalLabels, long timestamp) {
+        List<TimeSeries> timeSeries = new ArrayList<>();
+        for (Collector.MetricFamilySamples familySamples : metricFamilySamples) {
+            for (Collector.MetricFamilySamples.Sample sample : familySamples.samples) {
+                Map<String, String> labels = new TreeMap<>(externalLabels);
+                for (int i = 0; i < sample.labelNames.size(); i++) {
+                    labels.put(sample.labelNames.get(i), sample.labelValues.get(i));
+                }
+                labels.put(NAME_LABEL, sample.name);
+                String[] sortedLabels = new String[labels.size() * 2];
+                int index = 0;
+                for (Map.Entry<String, String> label : labels.entrySet()) {
+                    sortedLabels[index++] = label.getKey();
+                    sortedLabels[index++] = label.getValue();
+                }
+                timeSeries.add(new TimeSeries(sortedLabels, sample.value, timestamp));
+            }
+        }
+        return timeSeries;
+    }
+
+    /**
+     * Encode a batch of time series as a snappy compressed write request.
+     *
+     * @param timeSeries time series of the request
+     * @return body of the request
+     */
+    static byte[] encode(List<TimeSeries> timeSeries) {
+        ProtoBuffer request = new ProtoBuffer();
+        ProtoBuffer series = new ProtoBuffer();
+        ProtoBuffer element = new ProtoBuffer();
+        for (TimeSeries entry : timeSeries) {
+            series.reset();
+            for (int i = 0; i < entry.labels.length; i += 2) {
+                element.reset();
+                element.writeString(LABEL_NAME_FIELD, entry.labels[i]);
+                element.writeString(LABEL_VALUE_FIELD, entry.labels[i + 1]);
+                series.writeMessage(LABELS_FIELD, element);
+            }
+            element.reset();
+            element.writeDouble(SAMPLE_VALUE_FIELD, entry.value);
+            element.writeVarint(SAMPLE_TIMESTAMP_FIELD, entry.timestamp);
+            series.writeMessage(SAMPLES_FIELD, element);
+            request.writeMessage(TIMESERIES_FIELD, series);
+        }
+        return PrometheusSnappy.compress(request.toByteArray(), request.size());
+    }
+
+    /**
+     * A sample together with the sorted labels of its series. The hash of the labels selects the shard of the
+     * series, so that the samples of a series are always sent in order.
+     */
+    static final class TimeSeries {
+        final String[] labels;
+        final double value;
+        final long timestamp;
+        final int hash;
+
+        TimeSeries(String[] labels, double value, long timestamp) {
+            this.labels = labels;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.hash = Arrays.hashCode(labels);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.io.IOException;
+
+/**
+ * {@code PrometheusResponseException} Failure of a request of a Prometheus sink which was answered by the pushGateway
+ * or the remote write receiver with a non 2xx status. Server errors and throttling responses are recoverable, while
+ * the other responses reject the request itself, so that resending it would fail again.
+ */
+public final class PrometheusResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private final int statusCode;
+
+    PrometheusResponseException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isRecoverable() {
+        return statusCode / 100 == 5 || statusCode == TOO_MANY_REQUESTS;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * {@code PrometheusSegmentLog} Append only log of records, stored in a directory as a sequence of fixed size
+ * segment files which are memory mapped. Records are appended to the last segment and consumed in order from the
+ * first one, whose header keeps the offset of the next record to be consumed, so that the log resumes where it
+ * stopped when it is opened again. Fully consumed segments are deleted.
+ * <p>
+ * Each record is written as its length, the CRC32 checksum of its payload and the payload. The length is written
+ * last, hence a record which was not completely written reads as the end of the segment, and a record which fails
+ * its checksum ends the segment when it is recovered.
+ * <p>
+ * The number of segments is bounded. Once the bound is reached, the first segment is dropped together with its
+ * unconsumed records, so that the disk usage of the log never exceeds the number of segments times their size.
+ * Since the space of a deleted file is only released once it is no longer mapped, the mapping of a segment is
+ * released as soon as the segment is deleted or the log is closed, instead of waiting for the garbage collector.
+ */
+final class PrometheusSegmentLog implements Closeable {
+    private static final Logger log = LogManager.getLogger(PrometheusSegmentLog.class);
+    static final String SEGMENT_SUFFIX = ".segment";
+    private static final String LOCK_FILE = "segments.lock";
+    private static final int MAGIC = 0x50534c31;
+    // segment header: magic, offset of the next record to be consumed
+    static final int SEGMENT_HEADER_SIZE = 8;
+    // record header: length of the payload, checksum of the payload
+    static final int RECORD_HEADER_SIZE = 8;
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 checksum = new CRC32();
+    private long nextSegmentId;
+    private long pendingRecords;
+    private long droppedRecords;
+
+    /**
+     * Open the log stored in the given directory, recovering the records which were not consumed.
+     *
+     * @param directory   directory of the segment files, which is created if it does not exist
+     * @param segmentSize size of each segment file in bytes
+     * @param maxSegments maximum number of segment files
+     * @throws IOException if the directory cannot be created, is used by another log, or a segment cannot be mapped
+     */
+    PrometheusSegmentLog(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock directoryLock;
+        try {
+            directoryLock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // the directory is locked by another log of this process
+            directoryLock = null;
+        } catch (IOException e) {
+            lockFile.close();
+            throw e;
+        }
+        if (directoryLock == null) {
+            lockFile.close();
+            throw new IOException("The directory " + directory + " is already used by another buffer.");
+        }
+        this.lock = directoryLock;
+        recoverSegments();
+    }
+
+    private void recoverSegments() throws IOException {
+        File[] segmentFiles = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (segmentFiles != null) {
+            // segment file names are zero padded ids, hence they sort in the order of the segments
+            Arrays.sort(segmentFiles);
+            for (File segmentFile : segmentFiles) {
+                Segment segment = recoverSegment(segmentFile);
+                if (segment != null) {
+                    segments.add(segment);
+                    pendingRecords += segment.countRecords();
+                    nextSegmentId = segment.id + 1;
+                }
+            }
+        }
+        while (segments.size() > 1 && segments.peekFirst().isConsumed()) {
+            deleteSegment(segments.pollFirst());
+        }
+        if (pendingRecords > 0) {
+            log.info("Recovered " + pendingRecords + " records from " + directory);
+        }
+    }
+
+    private Segment recoverSegment(File segmentFile) throws IOException {
+        long id;
+        try {
+            id = Long.parseLong(segmentFile.getName().substring(0,
+                    segmentFile.getName().length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (segmentFile.length() < SEGMENT_HEADER_SIZE) {
+            deleteFile(segmentFile);
+            return null;
+        }
+        Segment segment = new Segment(id, segmentFile, (int) Math.min(segmentFile.length(), Integer.MAX_VALUE));
+        if (segment.buffer.getInt(0) != MAGIC) {
+            log.warn("Ignoring the segment " + segmentFile + " since it is not a segment of a buffer.");
+            unmap(segment.buffer);
+            return null;
+        }
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= segment.size) {
+            int length = segment.buffer.getInt(offset);
+            if (length <= 0 || length > segment.size - offset - RECORD_HEADER_SIZE ||
+                    segment.buffer.getInt(offset + 4) != checksum(segment.buffer, offset + RECORD_HEADER_SIZE,
+                            length)) {
+                break;
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        segment.writeOffset = offset;
+        segment.readOffset = Math.max(SEGMENT_HEADER_SIZE, Math.min(segment.buffer.getInt(4), offset));
+        return segment;
+    }
+
+    /**
+     * Append a record to the log, dropping the first segment if the log is full.
+     *
+     * @param payload payload of the record
+     * @return false if the record does not fit in a segment, and is not appended
+     * @throws IOException if a new segment cannot be created
+     */
+    synchronized boolean append(byte[] payload) throws IOException {
+        if (payload.length > segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE) {
+            return false;
+        }
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.writeOffset + RECORD_HEADER_SIZE + payload.length > segment.size) {
+            if (segment != null) {
+                segment.buffer.force();
+            }
+            segment = createSegment();
+        }
+        int offset = segment.writeOffset;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        buffer.putInt(offset + 4, checksum(buffer, offset + RECORD_HEADER_SIZE, payload.length));
+        // the length completes the record
+        buffer.putInt(offset, payload.length);
+        segment.writeOffset = offset + RECORD_HEADER_SIZE + payload.length;
+        pendingRecords++;
+        return true;
+    }
+
+    /**
+     * Append a record which supersedes the records of the log, consuming the records appended before it. A record
+     * being processed by the consumer is still removed by the consumer, since removing a consumed record is ignored.
+     *
+     * @param payload payload of the record
+     * @return false if the record does not fit in a segment, and is not appended
+     * @throws IOException if a new segment cannot be created
+     */
+    synchronized boolean replace(byte[] payload) throws IOException {
+        if (!append(payload)) {
+            return false;
+        }
+        Segment segment = segments.peekLast();
+        while (segments.peekFirst() != segment) {
+            deleteSegment(segments.pollFirst());
+        }
+        segment.readOffset = segment.writeOffset - RECORD_HEADER_SIZE - payload.length;
+        segment.buffer.putInt(4, segment.readOffset);
+        pendingRecords = 1;
+        return true;
+    }
+
+    private Segment createSegment() throws IOException {
+        if (segments.size() >= maxSegments) {
+            Segment dropped = segments.pollFirst();
+            long droppedSegmentRecords = dropped.countRecords();
+            pendingRecords -= droppedSegmentRecords;
+            droppedRecords += droppedSegmentRecords;
+            deleteSegment(dropped);
+            log.warn("Dropped " + droppedSegmentRecords + " records of " + directory + " since the buffer is full.");
+        }
+        long id = nextSegmentId++;
+        File segmentFile = new File(directory, String.format("%020d", id) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(id, segmentFile, segmentSize);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, SEGMENT_HEADER_SIZE);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * @return first record which is not consumed, or null if the log is empty
+     */
+    synchronized Record peek() {
+        Segment segment = segments.peekFirst();
+        while (segment != null && segment.isConsumed()) {
+            if (segment == segments.peekLast()) {
+                return null;
+            }
+            deleteSegment(segments.pollFirst());
+            segment = segments.peekFirst();
+        }
+        if (segment == null) {
+            return null;
+        }
+        int offset = segment.readOffset;
+        byte[] payload = new byte[segment.buffer.getInt(offset)];
+        segment.buffer.position(offset + RECORD_HEADER_SIZE);
+        segment.buffer.get(payload);
+        return new Record(segment.id, offset, payload);
+    }
+
+    /**
+     * Mark the given record as consumed. The record is ignored if it was already consumed or dropped.
+     *
+     * @param record record returned by {@link #peek()}
+     */
+    synchronized void remove(Record record) {
+        Segment segment = segments.peekFirst();
+        if (segment == null || segment.id != record.segmentId || segment.readOffset != record.offset) {
+            return;
+        }
+        segment.readOffset = record.offset + RECORD_HEADER_SIZE + record.payload.length;
+        segment.buffer.putInt(4, segment.readOffset);
+        pendingRecords--;
+        if (segment.isConsumed() && segment != segments.peekLast()) {
+            deleteSegment(segments.pollFirst());
+        }
+    }
+
+    /**
+     * @return number of records which are not consumed
+     */
+    synchronized long size() {
+        return pendingRecords;
+    }
+
+    /**
+     * @return number of records dropped since the log was opened, since the log was full
+     */
+    synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    private int checksum(MappedByteBuffer buffer, int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+        checksum.reset();
+        checksum.update(payload);
+        return (int) checksum.getValue();
+    }
+
+    private static void deleteSegment(Segment segment) {
+        // the segment is no longer reachable from the log, hence its mapping is not accessed after this
+        unmap(segment.buffer);
+        deleteFile(segment.file);
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("Unable to delete the segment " + file);
+        }
+    }
+
+    /**
+     * Write the segments to the disk and release the directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            unmap(segment.buffer);
+        }
+        segments.clear();
+        try {
+            lock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Release the mapping of a buffer which is no longer accessed. Accessing the buffer afterwards crashes the JVM.
+     * If the JVM does not allow releasing the mapping, it is released once the buffer is garbage collected.
+     *
+     * @param buffer buffer to be unmapped
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to unmap a segment, leaving it to the garbage collector.", e);
+        }
+    }
+
+    /**
+     * Find the way to release the mapping of a buffer, which is Unsafe.invokeCleaner on Java 9 and later, and the
+     * cleaner of the direct buffer on Java 8.
+     *
+     * @return unmapper of buffers, or null if the JVM does not allow releasing a mapping
+     */
+    private static Unmapper createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8, where the direct buffers expose their cleaner
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> clean.invoke(cleaner.invoke(buffer));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to unmap the segments, leaving them to the garbage collector.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Releases the mapping of a buffer.
+     */
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    /**
+     * A record of the log, identified by its segment and its offset in the segment.
+     */
+    static final class Record {
+        final long segmentId;
+        final int offset;
+        final byte[] payload;
+
+        Record(long segmentId, int offset, byte[] payload) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A memory mapped segment file. The records between the read and the write offsets are not consumed. The mapping
+     * stays valid after the file is closed, hence no file descriptor is held per segment.
+     */
+    private static final class Segment {
+        final long id;
+        final File file;
+        final int size;
+        final MappedByteBuffer buffer;
+        int readOffset = SEGMENT_HEADER_SIZE;
+        int writeOffset = SEGMENT_HEADER_SIZE;
+
+        Segment(long id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.size = size;
+            try (RandomAccessFile segmentFile = new RandomAccessFile(file, "rw")) {
+                this.buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        boolean isConsumed() {
+            return readOffset >= writeOffset;
+        }
+
+        long countRecords() {
+            long records = 0;
+            for (int offset = readOffset; offset < writeOffset; offset += RECORD_HEADER_SIZE + buffer.getInt(offset)) {
+                records++;
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PrometheusSeriesSweeper} Expires the idle series of the Prometheus sink metrics in the background. All the
+ * metrics share a single daemon thread, which advances the timer wheel of each series table once per tick. The
+ * expired series are removed in small batches, releasing the lock of the table between the batches, so that a large
+ * expiry never holds up the creation of new series.
+ */
+final class PrometheusSeriesSweeper {
+    private static final Logger log = LogManager.getLogger(PrometheusSeriesSweeper.class);
+    private static final int SWEEP_BATCH = 1024;
+    private static final ScheduledExecutorService executorService =
+            Executors.newSingleThreadScheduledExecutor(new PrometheusThreadFactory("series-sweeper", null));
+
+    private PrometheusSeriesSweeper() {
+    }
+
+    /**
+     * Start expiring the idle series of a table.
+     *
+     * @param seriesTable series table with a time to live
+     * @param metricName  name of the metric for log messages
+     * @return future to be cancelled when the metric is unregistered
+     */
+    static ScheduledFuture<?> schedule(PrometheusSeriesTable<?> seriesTable, String metricName) {
+        long tickDuration = seriesTable.getTickDuration();
+        return executorService.scheduleWithFixedDelay(() -> sweep(seriesTable, metricName), tickDuration,
+                tickDuration, TimeUnit.NANOSECONDS);
+    }
+
+    private static void sweep(PrometheusSeriesTable<?> seriesTable, String metricName) {
+        try {
+            long now = System.nanoTime();
+            while (!seriesTable.expireSeries(now, SWEEP_BATCH)) {
+                Thread.yield();
+            }
+        } catch (RuntimeException e) {
+            // keep the sweep scheduled, the remaining series are expired on the next tick
+            log.error("Unable to expire the idle series of the Prometheus metric \'" + metricName + "\'.", e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@code PrometheusSeriesTable} Open addressing hash table which maps the label values of a metric to the resolved
+ * child of the metric. Repeated label sets are resolved without allocations, by comparing the label values against
+ * the precomputed hash and labels of each series. Lookups are lock free, while new series are added under a lock.
+ * <p>
+ * The number of series can be bounded. Once the bound is reached, a new label set either evicts the least recently
+ * updated series out of a small sample of the table, or is routed into a single overflow series whose label values
+ * are all {@value #OVERFLOW_LABEL_VALUE}.
+ * <p>
+ * Series can also expire once they are not updated for a time to live. Expiry is tracked by a lazy timer wheel:
+ * each series is placed in the slot of the tick in which it would expire, and updates only refresh the update time
+ * of the series. When the tick of a slot is reached, the series of the slot that were not updated since are removed,
+ * and the others are placed in the slot of their new expiry tick.
+ *
+ * @param <C> type of the metric child
+ */
+class PrometheusSeriesTable<C> {
+    static final String OVERFLOW_LABEL_VALUE = "__overflow__";
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EVICTION_SAMPLES = 8;
+    private static final int WHEEL_SIZE = 32;
+
+    private final Function<String[], C> childFactory;
+    private final Consumer<String[]> childRemover;
+    private final int maxSeries;
+    private final boolean overflow;
+    private final long timeToLive;
+    private final boolean trackUpdates;
+    private final ArrayDeque<Series<C>>[] wheel;
+    private final long wheelOrigin = System.nanoTime();
+    private final long tickDuration;
+    private long currentTick;
+    private volatile Series<C>[] table;
+    private int size;
+    private Series<C> overflowSeries;
+    private volatile long evictedSeries;
+
+    PrometheusSeriesTable(Function<String[], C> childFactory) {
+        this(childFactory, labelValues -> {
+        }, 0, false, 0);
+    }
+
+    /**
+     * @param childFactory creates the child of a new label set
+     * @param childRemover removes the child of an evicted label set from the metric
+     * @param maxSeries    maximum number of series, 0 for no bound
+     * @param overflow     true to route the label sets beyond the bound into the overflow series, false to evict the
+     *                     least recently updated series
+     * @param timeToLive   time in nanoseconds after which a series which is not updated is removed, 0 to keep the
+     *                     series forever
+     */
+    @SuppressWarnings("unchecked")
+    PrometheusSeriesTable(Function<String[], C> childFactory, Consumer<String[]> childRemover, int maxSeries,
+                          boolean overflow, long timeToLive) {
+        this.childFactory = childFactory;
+        this.childRemover = childRemover;
+        this.maxSeries = maxSeries;
+        this.overflow = overflow;
+        this.timeToLive = timeToLive;
+        this.trackUpdates = maxSeries > 0 || timeToLive > 0;
+        this.table = newTable(INITIAL_CAPACITY);
+        if (timeToLive > 0) {
+            // the wheel spans twice the time to live, so that every expiry falls within one rotation
+            this.tickDuration = Math.max(1, timeToLive / (WHEEL_SIZE / 2));
+            this.wheel = new ArrayDeque[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ArrayDeque<>();
+            }
+        } else {
+            this.tickDuration = 0;
+            this.wheel = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> Series<C>[] newTable(int capacity) {
+        return (Series<C>[]) new Series[capacity];
+    }
+
+    static int hash(String[] labelValues) {
+        int hash = 1;
+        for (String labelValue : labelValues) {
+            hash = 31 * hash + labelValue.hashCode();
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Retrieve the child of the given label values, creating it if the label set is new.
+     *
+     * @param labelValues label values of the series
+     * @return child of the series
+     */
+    C getChild(String[] labelValues) {
+        int hash = hash(labelValues);
+        Series<C>[] series = table;
+        int mask = series.length - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            Series<C> entry = series[index];
+            if (entry == null) {
+                return addSeries(labelValues, hash).child;
+            }
+            if (entry.hash == hash && Arrays.equals(entry.labelValues, labelValues)) {
+                if (trackUpdates) {
+                    entry.lastUpdated = System.nanoTime();
+                }
+                return entry.child;
+            }
+        }
+    }
+
+    private synchronized Series<C> addSeries(String[] labelValues, int hash) {
+        Series<C>[] series = table;
+        int mask = series.length - 1;
+        int index = hash & mask;
+        for (Series<C> entry = series[index]; entry != null; entry = series[index]) {
+            if (entry.hash == hash && Arrays.equals(entry.labelValues, labelValues)) {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+        if (maxSeries > 0 && size >= maxSeries) {
+            if (overflow) {
+                return retrieveOverflowSeries(labelValues.length);
+            }
+            evictSeries(series);
+        }
+        return insertSeries(labelValues.clone(), hash);
+    }
+
+    private Series<C> insertSeries(String[] labels, int hash) {
+        Series<C>[] series = table;
+        Series<C> entry = new Series<>(labels, hash, childFactory.apply(labels));
+        if ((size + 1) * 2 > series.length) {
+            series = resize(series);
+            table = series;
+        }
+        insert(series, entry);
+        size++;
+        if (wheel != null) {
+            schedule(entry, entry.lastUpdated + timeToLive);
+        }
+        return entry;
+    }
+
+    private void schedule(Series<C> entry, long expiry) {
+        long tick = Math.max((expiry - wheelOrigin) / tickDuration, currentTick + 1);
+        wheel[(int) (tick % WHEEL_SIZE)].add(entry);
+    }
+
+    /**
+     * Remove the series which were not updated within the time to live, advancing the timer wheel up to the given
+     * time. At most the given number of series are examined, so that the lock is held for a bounded time, and the
+     * sweep resumes from where it stopped on the next call.
+     *
+     * @param now    current time in nanoseconds
+     * @param budget maximum number of series to be examined
+     * @return true if the wheel caught up with the given time, false if the budget was exhausted
+     */
+    synchronized boolean expireSeries(long now, int budget) {
+        if (wheel == null) {
+            return true;
+        }
+        long targetTick = (now - wheelOrigin) / tickDuration;
+        while (currentTick <= targetTick) {
+            ArrayDeque<Series<C>> slot = wheel[(int) (currentTick % WHEEL_SIZE)];
+            for (int pending = slot.size(); pending > 0; pending--) {
+                if (budget-- == 0) {
+                    return false;
+                }
+                Series<C> entry = slot.poll();
+                if (entry.removed) {
+                    continue;
+                }
+                long expiry = entry.lastUpdated + timeToLive;
+                if (expiry - now <= 0) {
+                    removeSeries(entry);
+                } else {
+                    schedule(entry, expiry);
+                }
+            }
+            currentTick++;
+        }
+        return true;
+    }
+
+    /**
+     * @return interval in nanoseconds at which {@link #expireSeries(long, int)} needs to be called, 0 if the series
+     * never expire
+     */
+    long getTickDuration() {
+        return tickDuration;
+    }
+
+    private void removeSeries(Series<C> entry) {
+        Series<C>[] series = table;
+        int mask = series.length - 1;
+        for (int index = entry.hash & mask; series[index] != null; index = (index + 1) & mask) {
+            if (series[index] == entry) {
+                removeAt(series, index);
+                childRemover.accept(entry.labelValues);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the series of the given label values, provided that it still holds the given child.
+     *
+     * @param labelValues label values of the series
+     * @param child       child of the series to be removed
+     */
+    synchronized void remove(String[] labelValues, C child) {
+        Series<C>[] series = table;
+        int mask = series.length - 1;
+        for (int index = hash(labelValues) & mask; series[index] != null; index = (index + 1) & mask) {
+            if (series[index].child == child) {
+                removeSeries(series[index]);
+                return;
+            }
+        }
+    }
+
+    private Series<C> retrieveOverflowSeries(int labelCount) {
+        if (overflowSeries == null) {
+            String[] labels = new String[labelCount];
+            Arrays.fill(labels, OVERFLOW_LABEL_VALUE);
+            overflowSeries = insertSeries(labels, hash(labels));
+        }
+        return overflowSeries;
+    }
+
+    /**
+     * Evict the least recently updated series out of a sample of consecutive occupied slots, starting at a random
+     * slot. Sampling keeps the cost of an eviction constant regardless of the number of series.
+     */
+    private void evictSeries(Series<C>[] series) {
+        int mask = series.length - 1;
+        int index = ThreadLocalRandom.current().nextInt(series.length);
+        int victim = -1;
+        int sampled = 0;
+        for (int probed = 0; probed < series.length && sampled < EVICTION_SAMPLES; probed++) {
+            Series<C> entry = series[index];
+            if (entry != null) {
+                if (victim == -1 || entry.lastUpdated < series[victim].lastUpdated) {
+                    victim = index;
+                }
+                sampled++;
+            }
+            index = (index + 1) & mask;
+        }
+        if (victim != -1) {
+            String[] labelValues = series[victim].labelValues;
+            removeAt(series, victim);
+            childRemover.accept(labelValues);
+            evictedSeries++;
+        }
+    }
+
+    /**
+     * Remove the series at the given slot, shifting back the following series of the probe sequence so that no
+     * tombstones are needed. Concurrent readers which miss a series being shifted fall back to the locked path.
+     */
+    private void removeAt(Series<C>[] series, int index) {
+        int mask = series.length - 1;
+        Series<C> removed = series[index];
+        removed.removed = true;
+        if (removed == overflowSeries) {
+            overflowSeries = null;
+        }
+        series[index] = null;
+        for (int next = (index + 1) & mask; series[next] != null; next = (next + 1) & mask) {
+            Series<C> entry = series[next];
+            int ideal = entry.hash & mask;
+            if (((next - ideal) & mask) >= ((next - index) & mask)) {
+                series[index] = entry;
+                series[next] = null;
+                index = next;
+            }
+        }
+        size--;
+    }
+
+    private static <C> Series<C>[] resize(Series<C>[] series) {
+        Series<C>[] resized = newTable(series.length * 2);
+        for (Series<C> entry : series) {
+            if (entry != null) {
+                insert(resized, entry);
+            }
+        }
+        return resized;
+    }
+
+    private static <C> void insert(Series<C>[] series, Series<C> entry) {
+        int mask = series.length - 1;
+        int index = entry.hash & mask;
+        while (series[index] != null) {
+            index = (index + 1) & mask;
+        }
+        series[index] = entry;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return number of series evicted to stay within the bound
+     */
+    long getEvictedSeries() {
+        return evictedSeries;
+    }
+
+    /**
+     * Visit the series of the table without blocking the lookups. Series added while the table is visited may be
+     * skipped.
+     *
+     * @param action action applied to the label values and the child of each series
+     */
+    void forEachSeries(BiConsumer<String[], C> action) {
+        for (Series<C> entry : table) {
+            if (entry != null) {
+                action.accept(entry.labelValues, entry.child);
+            }
+        }
+    }
+
+    /**
+     * Remove all the series of the table, together with their children.
+     */
+    synchronized void clear() {
+        for (Series<C> entry : table) {
+            if (entry != null) {
+                entry.removed = true;
+                childRemover.accept(entry.labelValues);
+            }
+        }
+        table = newTable(INITIAL_CAPACITY);
+        size = 0;
+        overflowSeries = null;
+        if (wheel != null) {
+            for (ArrayDeque<Series<C>> slot : wheel) {
+                slot.clear();
+            }
+        }
+    }
+
+    /**
+     * A label set of the metric together with its resolved child. The identifying fields are final so that the series
+     * are safely published to the lock free readers, while the update time is only used to choose the series to be
+     * evicted or expired.
+     *
+     * @param <C> type of the metric child
+     */
+    static final class Series<C> {
+        final String[] labelValues;
+        final int hash;
+        final C child;
+        volatile long lastUpdated = System.nanoTime();
+        boolean removed;
+
+        Series(String[] labelValues, int hash, C child) {
+            this.labelValues = labelValues;
+            this.hash = hash;
+            this.child = child;
+        }
+    }
+}
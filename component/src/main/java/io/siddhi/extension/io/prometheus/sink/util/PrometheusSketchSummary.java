@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code PrometheusSketchSummary} Summary metric whose quantiles are estimated with a
+ * {@link PrometheusQuantileSketch} per series instead of the CKMS estimator of the Prometheus client. Observations
+ * are recorded without locking, and the quantiles are only computed when the metric is collected. The quantiles
+ * are estimated over all the observations of a series, with the given relative error on the value.
+ */
+public class PrometheusSketchSummary extends Collector {
+
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final List<String> quantileLabelNames;
+    private final double[] quantiles;
+    private final String[] quantileLabels;
+    private final byte[][] encodedQuantiles;
+    private final byte[] quantileName;
+    private final byte[] countName;
+    private final byte[] sumName;
+    private final int precision;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    /**
+     * @param name          name of the metric
+     * @param help          help of the metric
+     * @param labelNames    label names of the metric
+     * @param quantiles     quantiles exposed by the metric
+     * @param relativeError relative error of the estimated quantiles
+     */
+    public PrometheusSketchSummary(String name, String help, List<String> labelNames, double[] quantiles,
+                                   double relativeError) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = new ArrayList<>(labelNames);
+        this.quantileLabelNames = new ArrayList<>(labelNames);
+        quantileLabelNames.add("quantile");
+        this.quantiles = quantiles.clone();
+        Arrays.sort(this.quantiles);
+        this.quantileLabels = new String[this.quantiles.length];
+        this.encodedQuantiles = new byte[this.quantiles.length][];
+        for (int i = 0; i < this.quantiles.length; i++) {
+            quantileLabels[i] = doubleToGoString(this.quantiles[i]);
+            encodedQuantiles[i] = PrometheusTextWriter.encodeLabel("quantile", quantileLabels[i]);
+        }
+        this.quantileName = PrometheusTextWriter.encodeName(name);
+        this.countName = PrometheusTextWriter.encodeName(name + "_count");
+        this.sumName = PrometheusTextWriter.encodeName(name + "_sum");
+        this.precision = PrometheusQuantileSketch.toPrecision(relativeError);
+    }
+
+    /**
+     * Retrieve the child of the given label values, creating it if the label set is new.
+     *
+     * @param labelValues label values of the series
+     * @return child of the series
+     */
+    public Child labels(String... labelValues) {
+        return children.computeIfAbsent(Arrays.asList(labelValues.clone()), key -> new Child());
+    }
+
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            List<String> labelValues = entry.getKey();
+            Child child = entry.getValue();
+            double[] values = child.sketch == null ? new double[0] : child.sketch.quantiles(quantiles);
+            for (int i = 0; i < quantiles.length; i++) {
+                List<String> quantileLabelValues = new ArrayList<>(labelValues);
+                quantileLabelValues.add(quantileLabels[i]);
+                samples.add(new MetricFamilySamples.Sample(name, quantileLabelNames, quantileLabelValues,
+                        values[i]));
+            }
+            samples.add(new MetricFamilySamples.Sample(name + "_count", labelNames, labelValues,
+                    child.count.sum()));
+            samples.add(new MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, child.sum.sum()));
+        }
+        return Collections.singletonList(new MetricFamilySamples(name, Type.SUMMARY, help, samples));
+    }
+
+    /**
+     * Series of the summary. The series only keeps a sketch if the summary exposes quantiles.
+     */
+    public final class Child {
+        private final PrometheusQuantileSketch sketch =
+                quantiles.length == 0 ? null : new PrometheusQuantileSketch(precision);
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        public void observe(double value) {
+            observe(value, 1);
+        }
+
+        /**
+         * Record a value observed the given number of times.
+         *
+         * @param value  observed value
+         * @param weight number of times the value was observed
+         */
+        public void observe(double value, long weight) {
+            if (sketch != null) {
+                sketch.add(value, weight);
+            }
+            count.add(weight);
+            sum.add(value * weight);
+        }
+
+        /**
+         * Write the samples of the series in the text exposition format, as they are collected.
+         *
+         * @param writer writer of the exposition
+         * @param labels encoded label pairs of the series
+         */
+        void writeText(PrometheusTextWriter writer, byte[] labels) {
+            if (sketch != null) {
+                double[] values = sketch.quantiles(quantiles);
+                for (int i = 0; i < quantiles.length; i++) {
+                    writer.writeSample(quantileName, labels, encodedQuantiles[i], values[i]);
+                }
+            }
+            writer.writeSample(countName, labels, null, count.sum());
+            writer.writeSample(sumName, labels, null, sum.sum());
+        }
+
+        /**
+         * Write the count, the sum and the sketch of the series to a snapshot.
+         *
+         * @param writer writer of the snapshot
+         */
+        void writeSnapshot(PrometheusSnapshotFormat.Writer writer) {
+            writer.writeVarint(count.sum());
+            writer.writeDouble(sum.sum());
+            if (sketch != null) {
+                sketch.writeSnapshot(writer);
+            }
+        }
+
+        /**
+         * Replace the count, the sum and the sketch of the series with those of a snapshot.
+         *
+         * @param reader reader of the snapshot
+         * @throws IOException if the snapshot is malformed
+         */
+        void restoreSnapshot(PrometheusSnapshotFormat.Reader reader) throws IOException {
+            count.reset();
+            count.add(reader.readVarint());
+            sum.reset();
+            sum.add(reader.readDouble());
+            if (sketch != null) {
+                sketch.restoreSnapshot(reader);
+            }
+        }
+    }
+}
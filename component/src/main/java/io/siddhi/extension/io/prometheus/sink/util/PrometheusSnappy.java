@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@code PrometheusSnappy} Compresses the bodies of remote write requests in the snappy block format, which is the
+ * encoding required by the Prometheus remote write protocol. The input is compressed in blocks of 64KB, within which
+ * repeated sequences of 4 or more bytes are found through a hash table of the positions of their first 4 bytes and
+ * replaced by copies of the earlier occurrence. The label names and values repeated across the series of a request
+ * make up most of the matches.
+ */
+final class PrometheusSnappy {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int HASH_BITS = 14;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_COPY_LENGTH = 64;
+
+    // element types, in the low 2 bits of each tag
+    private static final int LITERAL = 0;
+    private static final int COPY_1_BYTE_OFFSET = 1;
+    private static final int COPY_2_BYTE_OFFSET = 2;
+    private static final int COPY_4_BYTE_OFFSET = 3;
+
+    private PrometheusSnappy() {
+    }
+
+    /**
+     * Compress the given bytes.
+     *
+     * @param input  bytes to be compressed
+     * @param length number of bytes to be compressed, from the start of the input
+     * @return compressed bytes
+     */
+    static byte[] compress(byte[] input, int length) {
+        byte[] output = new byte[32 + length + length / 6];
+        int outputPosition = writeVarint(output, 0, length);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        for (int blockStart = 0; blockStart < length; blockStart += BLOCK_SIZE) {
+            outputPosition = compressBlock(input, blockStart, Math.min(blockStart + BLOCK_SIZE, length), table,
+                    output, outputPosition);
+        }
+        return Arrays.copyOf(output, outputPosition);
+    }
+
+    // the positions of earlier blocks are ignored, so that the offsets of the copies always fit in 2 bytes
+    private static int compressBlock(byte[] input, int start, int end, int[] table, byte[] output, int position) {
+        int literalStart = start;
+        int index = start;
+        while (index + MIN_MATCH <= end) {
+            int word = readInt(input, index);
+            int hash = (word * 0x1e35a7bd) >>> (32 - HASH_BITS);
+            int candidate = table[hash];
+            table[hash] = index;
+            if (candidate < start || readInt(input, candidate) != word) {
+                index++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (index + matchLength < end && input[candidate + matchLength] == input[index + matchLength]) {
+                matchLength++;
+            }
+            position = writeLiteral(input, literalStart, index - literalStart, output, position);
+            position = writeCopy(index - candidate, matchLength, output, position);
+            index += matchLength;
+            literalStart = index;
+        }
+        return writeLiteral(input, literalStart, end - literalStart, output, position);
+    }
+
+    private static int writeLiteral(byte[] input, int start, int length, byte[] output, int position) {
+        if (length == 0) {
+            return position;
+        }
+        int lengthMinusOne = length - 1;
+        if (lengthMinusOne < 60) {
+            output[position++] = (byte) (lengthMinusOne << 2 | LITERAL);
+        } else {
+            // the length follows the tag in 1 to 4 little endian bytes, which are counted from 60 upwards
+            int lengthBytes = lengthMinusOne < (1 << 8) ? 1 : lengthMinusOne < (1 << 16) ? 2 :
+                    lengthMinusOne < (1 << 24) ? 3 : 4;
+            output[position++] = (byte) ((59 + lengthBytes) << 2 | LITERAL);
+            for (int i = 0; i < lengthBytes; i++) {
+                output[position++] = (byte) (lengthMinusOne >>> (i * 8));
+            }
+        }
+        System.arraycopy(input, start, output, position, length);
+        return position + length;
+    }
+
+    private static int writeCopy(int offset, int length, byte[] output, int position) {
+        // long matches are split so that the last copy is at least 4 bytes long
+        while (length >= MAX_COPY_LENGTH + MIN_MATCH) {
+            position = writeCopy2ByteOffset(offset, MAX_COPY_LENGTH, output, position);
+            length -= MAX_COPY_LENGTH;
+        }
+        if (length > MAX_COPY_LENGTH) {
+            position = writeCopy2ByteOffset(offset, MAX_COPY_LENGTH - MIN_MATCH, output, position);
+            length -= MAX_COPY_LENGTH - MIN_MATCH;
+        }
+        if (length < 12 && offset < 2048) {
+            output[position++] = (byte) ((offset >>> 8) << 5 | (length - 4) << 2 | COPY_1_BYTE_OFFSET);
+            output[position++] = (byte) offset;
+            return position;
+        }
+        return writeCopy2ByteOffset(offset, length, output, position);
+    }
+
+    private static int writeCopy2ByteOffset(int offset, int length, byte[] output, int position) {
+        output[position++] = (byte) ((length - 1) << 2 | COPY_2_BYTE_OFFSET);
+        output[position++] = (byte) offset;
+        output[position++] = (byte) (offset >>> 8);
+        return position;
+    }
+
+    /**
+     * Uncompress the given bytes.
+     *
+     * @param input compressed bytes
+     * @return uncompressed bytes
+     * @throws IOException if the input is not valid snappy compressed data
+     */
+    static byte[] uncompress(byte[] input) throws IOException {
+        int inputPosition = 0;
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (inputPosition == input.length || shift > 28) {
+                throw new IOException("Invalid length of snappy compressed data");
+            }
+            byte lengthByte = input[inputPosition++];
+            length |= (long) (lengthByte & 0x7F) << shift;
+            if (lengthByte >= 0) {
+                break;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length of snappy compressed data");
+        }
+        byte[] output = new byte[(int) length];
+        int outputPosition = 0;
+        try {
+            while (inputPosition < input.length) {
+                int tag = input[inputPosition++] & 0xFF;
+                int elementLength;
+                int offset;
+                switch (tag & 3) {
+                    case LITERAL:
+                        elementLength = tag >>> 2;
+                        if (elementLength >= 60) {
+                            int lengthBytes = elementLength - 59;
+                            elementLength = readLittleEndian(input, inputPosition, lengthBytes);
+                            inputPosition += lengthBytes;
+                        }
+                        elementLength++;
+                        System.arraycopy(input, inputPosition, output, outputPosition, elementLength);
+                        inputPosition += elementLength;
+                        outputPosition += elementLength;
+                        continue;
+                    case COPY_1_BYTE_OFFSET:
+                        elementLength = ((tag >>> 2) & 7) + 4;
+                        offset = (tag >>> 5) << 8 | input[inputPosition++] & 0xFF;
+                        break;
+                    case COPY_2_BYTE_OFFSET:
+                        elementLength = (tag >>> 2) + 1;
+                        offset = readLittleEndian(input, inputPosition, 2);
+                        inputPosition += 2;
+                        break;
+                    default:
+                        elementLength = (tag >>> 2) + 1;
+                        offset = readLittleEndian(input, inputPosition, 4);
+                        inputPosition += 4;
+                }
+                if (offset <= 0 || offset > outputPosition || outputPosition + elementLength > output.length) {
+                    throw new IOException("Invalid copy in snappy compressed data");
+                }
+                // copies may overlap the bytes which they produce, hence they are copied byte by byte
+                for (int i = 0; i < elementLength; i++) {
+                    output[outputPosition + i] = output[outputPosition - offset + i];
+                }
+                outputPosition += elementLength;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated snappy compressed data", e);
+        }
+        if (outputPosition != output.length) {
+            throw new IOException("Snappy compressed data is shorter than its length");
+        }
+        return output;
+    }
+
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8 | (bytes[position + 2] & 0xFF) << 16 |
+                (bytes[position + 3] & 0xFF) << 24;
+    }
+
+    private static int readLittleEndian(byte[] bytes, int position, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value |= (bytes[position + i] & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    private static int writeVarint(byte[] output, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            output[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output[position++] = (byte) value;
+        return position;
+    }
+}
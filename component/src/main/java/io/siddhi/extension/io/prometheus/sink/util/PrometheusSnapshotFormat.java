@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@code PrometheusSnapshotFormat} Binary encoding of the state snapshots of Prometheus sink metrics. Integers are
+ * written as variable length quantities, doubles as their eight raw bytes and strings as their UTF-8 bytes
+ * prefixed with their length. The snapshot of a metric builder is laid out in columns: the label sets of the series
+ * are written as indices into a dictionary of the distinct label values, one column per label, followed by a
+ * section per metric with the state of the metric in each series, in the order of the label sets.
+ */
+final class PrometheusSnapshotFormat {
+    static final int MAGIC = 0x50535331;
+    static final int VERSION = 1;
+
+    // kinds of metric state, identifying the layout of the state of a series
+    static final byte UNRESTORABLE_KIND = 0;
+    static final byte COUNTER_KIND = 1;
+    static final byte GAUGE_KIND = 2;
+    static final byte HISTOGRAM_KIND = 3;
+    static final byte NATIVE_HISTOGRAM_KIND = 4;
+    static final byte SKETCH_SUMMARY_KIND = 5;
+
+    private PrometheusSnapshotFormat() {
+    }
+
+    /**
+     * Growable buffer which encodes a snapshot.
+     */
+    static final class Writer {
+        private byte[] bytes;
+        private int size;
+
+        Writer(int initialCapacity) {
+            this.bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        // signed values are zig zag encoded, so that small negative values stay short
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 0; shift < 64; shift += 8) {
+                bytes[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(encoded.length);
+            writeBytes(encoded, 0, encoded.length);
+        }
+
+        void writeBytes(byte[] value, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(value, offset, bytes, size, length);
+            size += length;
+        }
+
+        /**
+         * Append the content of another writer prefixed with its length, so that the reader can skip it.
+         */
+        void writeSection(Writer section) {
+            writeVarint(section.size);
+            writeBytes(section.bytes, 0, section.size);
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Decodes a snapshot. Truncated or malformed snapshots are reported with an {@code IOException}.
+     */
+    static final class Reader {
+        private final byte[] bytes;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] bytes) {
+            this(bytes, 0, bytes.length);
+        }
+
+        private Reader(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private void require(int length) throws IOException {
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Truncated snapshot at offset " + position);
+            }
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return bytes[position++];
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            int value = (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16 |
+                    (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+            position += 4;
+            return value;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length integer at offset " + position);
+        }
+
+        int readLength() throws IOException {
+            long length = readVarint();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Malformed length at offset " + position);
+            }
+            return (int) length;
+        }
+
+        long readSignedVarint() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble() throws IOException {
+            require(8);
+            long bits = 0;
+            for (int shift = 0; shift < 64; shift += 8) {
+                bits |= (long) (bytes[position++] & 0xFF) << shift;
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            require(length);
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Read a section written by {@link Writer#writeSection(Writer)}, moving this reader past the section.
+         *
+         * @return reader of the content of the section
+         */
+        Reader readSection() throws IOException {
+            int length = readLength();
+            require(length);
+            Reader section = new Reader(bytes, position, position + length);
+            position += length;
+            return section;
+        }
+
+        /**
+         * Read the raw content of a section written by {@link Writer#writeSection(Writer)}.
+         *
+         * @return content of the section
+         */
+        byte[] readSectionBytes() throws IOException {
+            int length = readLength();
+            require(length);
+            byte[] section = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return section;
+        }
+    }
+}
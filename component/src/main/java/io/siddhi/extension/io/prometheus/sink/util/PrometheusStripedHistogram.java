@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code PrometheusStripedHistogram} Histogram metric of Prometheus sink. The bucket of an observation is
+ * found with a binary search over the upper bounds instead of a linear scan, and the bucket counters are striped
+ * across the observing threads, so that many threads can observe into the same series without contending on a
+ * counter. The metric exposes the same samples as the histogram of the Prometheus client, while its series can be
+ * written to and restored from the state snapshots of the sink.
+ */
+public class PrometheusStripedHistogram extends Collector {
+    private static final double[] DEFAULT_BUCKETS = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
+
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final List<String> bucketLabelNames;
+    private final double[] upperBounds;
+    private final String[] upperBoundLabels;
+    private final byte[][] encodedUpperBounds;
+    private final byte[] bucketName;
+    private final byte[] countName;
+    private final byte[] sumName;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    /**
+     * @param name       name of the metric
+     * @param help       help of the metric
+     * @param labelNames label names of the metric
+     * @param buckets    upper bounds of the buckets, or an empty array for the default buckets
+     */
+    public PrometheusStripedHistogram(String name, String help, List<String> labelNames, double[] buckets) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = new ArrayList<>(labelNames);
+        this.bucketLabelNames = new ArrayList<>(labelNames);
+        bucketLabelNames.add("le");
+        this.upperBounds = toUpperBounds(buckets);
+        this.upperBoundLabels = new String[upperBounds.length];
+        this.encodedUpperBounds = new byte[upperBounds.length][];
+        for (int i = 0; i < upperBounds.length; i++) {
+            upperBoundLabels[i] = doubleToGoString(upperBounds[i]);
+            encodedUpperBounds[i] = PrometheusTextWriter.encodeLabel("le", upperBoundLabels[i]);
+        }
+        this.bucketName = PrometheusTextWriter.encodeName(name + "_bucket");
+        this.countName = PrometheusTextWriter.encodeName(name + "_count");
+        this.sumName = PrometheusTextWriter.encodeName(name + "_sum");
+    }
+
+    /**
+     * Sort the given buckets, falling back to the default buckets of the Prometheus client, and close them with the
+     * +Inf bucket.
+     *
+     * @param buckets upper bounds of the buckets, or an empty array for the default buckets
+     * @return upper bounds of the buckets ending with +Inf
+     */
+    static double[] toUpperBounds(double[] buckets) {
+        double[] sortedBuckets = buckets.length == 0 ? DEFAULT_BUCKETS.clone() : buckets.clone();
+        Arrays.sort(sortedBuckets);
+        if (sortedBuckets[sortedBuckets.length - 1] == Double.POSITIVE_INFINITY) {
+            return sortedBuckets;
+        }
+        double[] upperBounds = Arrays.copyOf(sortedBuckets, sortedBuckets.length + 1);
+        upperBounds[sortedBuckets.length] = Double.POSITIVE_INFINITY;
+        return upperBounds;
+    }
+
+    /**
+     * Find the first bucket whose upper bound is not below the value.
+     *
+     * @param upperBounds sorted upper bounds of the buckets
+     * @param value       observed value
+     * @return index of the bucket, or the number of buckets for NaN
+     */
+    static int bucketIndex(double[] upperBounds, double value) {
+        int index = Arrays.binarySearch(upperBounds, value);
+        // an exact match falls into its own bucket since the upper bounds are inclusive
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Retrieve the child of the given label values, creating it if the label set is new.
+     *
+     * @param labelValues label values of the series
+     * @return child of the series
+     */
+    public Child labels(String... labelValues) {
+        return children.computeIfAbsent(Arrays.asList(labelValues.clone()), key -> new Child());
+    }
+
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            List<String> labelValues = entry.getKey();
+            Child child = entry.getValue();
+            long cumulativeCount = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                cumulativeCount += child.buckets[i].sum();
+                List<String> bucketLabelValues = new ArrayList<>(labelValues);
+                bucketLabelValues.add(upperBoundLabels[i]);
+                samples.add(new MetricFamilySamples.Sample(name + "_bucket", bucketLabelNames, bucketLabelValues,
+                        cumulativeCount));
+            }
+            samples.add(new MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, cumulativeCount));
+            samples.add(new MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, child.sum.sum()));
+        }
+        return Collections.singletonList(new MetricFamilySamples(name, Type.HISTOGRAM, help, samples));
+    }
+
+    /**
+     * Series of the histogram, with a striped counter per bucket.
+     */
+    public final class Child {
+        private final LongAdder[] buckets = new LongAdder[upperBounds.length];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Child() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            observe(value, 1);
+        }
+
+        /**
+         * Record a value observed the given number of times.
+         *
+         * @param value observed value
+         * @param count number of times the value was observed
+         */
+        public void observe(double value, long count) {
+            int index = bucketIndex(upperBounds, value);
+            if (index < buckets.length) {
+                buckets[index].add(count);
+            }
+            sum.add(value * count);
+        }
+
+        /**
+         * Write the samples of the series in the text exposition format, as they are collected.
+         *
+         * @param writer writer of the exposition
+         * @param labels encoded label pairs of the series
+         */
+        void writeText(PrometheusTextWriter writer, byte[] labels) {
+            long cumulativeCount = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulativeCount += buckets[i].sum();
+                writer.writeSample(bucketName, labels, encodedUpperBounds[i], cumulativeCount);
+            }
+            writer.writeSample(countName, labels, null, cumulativeCount);
+            writer.writeSample(sumName, labels, null, sum.sum());
+        }
+
+        /**
+         * Write the bucket counts and the sum of the series to a snapshot.
+         *
+         * @param writer writer of the snapshot
+         */
+        void writeSnapshot(PrometheusSnapshotFormat.Writer writer) {
+            for (LongAdder bucket : buckets) {
+                writer.writeVarint(bucket.sum());
+            }
+            writer.writeDouble(sum.sum());
+        }
+
+        /**
+         * Replace the bucket counts and the sum of the series with those of a snapshot.
+         *
+         * @param reader reader of the snapshot
+         * @throws IOException if the snapshot is malformed
+         */
+        void restoreSnapshot(PrometheusSnapshotFormat.Reader reader) throws IOException {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+                bucket.add(reader.readVarint());
+            }
+            sum.reset();
+            sum.add(reader.readDouble());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@code PrometheusTextWriter} Writes metric families in the text exposition format 0.0.4 straight into a byte
+ * buffer, with the same output as the text format of the Prometheus client, but without building the samples of
+ * the families first. The sink metrics write their children into the buffer directly, using sample names and label
+ * pairs which are escaped and encoded once, so that writing a sample only appends bytes and formats its value.
+ * The label pairs of a series are encoded as a prefix which is left open, so that the bucket and quantile labels
+ * can be appended to it.
+ */
+final class PrometheusTextWriter {
+    static final byte[] NO_LABELS = {'{'};
+    // integral values below this bound are written without Double.toString, which switches to the E notation there
+    private static final long MAX_PLAIN_INTEGRAL = 10000000L;
+
+    private byte[] bytes;
+    private int size;
+
+    PrometheusTextWriter(int initialCapacity) {
+        this.bytes = new byte[Math.max(256, initialCapacity)];
+    }
+
+    static byte[] encodeName(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode the label pairs of a series as an open prefix, such as <code>{symbol="WSO2",</code>.
+     *
+     * @param labelNames  label names of the series
+     * @param labelValues label values of the series, in the order of the label names
+     * @return encoded label pairs, or {@link #NO_LABELS} if the series has no labels
+     */
+    static byte[] encodeLabels(List<String> labelNames, List<String> labelValues) {
+        if (labelNames.isEmpty()) {
+            return NO_LABELS;
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < labelNames.size(); i++) {
+            appendLabel(labels, labelNames.get(i), labelValues.get(i));
+        }
+        return labels.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode a label pair to be appended to the label pairs of a series, such as <code>le="0.5",</code>.
+     *
+     * @param labelName  name of the label
+     * @param labelValue value of the label
+     * @return encoded label pair
+     */
+    static byte[] encodeLabel(String labelName, String labelValue) {
+        StringBuilder label = new StringBuilder();
+        appendLabel(label, labelName, labelValue);
+        return label.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendLabel(StringBuilder builder, String labelName, String labelValue) {
+        builder.append(labelName).append("=\"");
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\"':
+                    builder.append("\\\"");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        builder.append("\",");
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+    }
+
+    private void writeBytes(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, size, value.length);
+        size += value.length;
+    }
+
+    private void writeByte(char value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) value;
+    }
+
+    // the formatted values are ASCII
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            bytes[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Write the HELP and TYPE lines of a metric family.
+     *
+     * @param name name of the family
+     * @param help help of the family
+     * @param type type of the family
+     */
+    void writeHeader(String name, String help, Collector.Type type) {
+        StringBuilder header = new StringBuilder(name.length() * 2 + help.length() + 32);
+        header.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            switch (c) {
+                case '\\':
+                    header.append("\\\\");
+                    break;
+                case '\n':
+                    header.append("\\n");
+                    break;
+                default:
+                    header.append(c);
+            }
+        }
+        header.append("\n# TYPE ").append(name).append(' ').append(typeString(type)).append('\n');
+        writeBytes(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String typeString(Collector.Type type) {
+        switch (type) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "untyped";
+        }
+    }
+
+    /**
+     * Write a sample of a series.
+     *
+     * @param name   encoded name of the sample
+     * @param labels encoded label pairs of the series
+     * @param label  encoded label pair of the sample within the series, such as the bucket, or null
+     * @param value  value of the sample
+     */
+    void writeSample(byte[] name, byte[] labels, byte[] label, double value) {
+        writeBytes(name);
+        if (labels.length > NO_LABELS.length || label != null) {
+            writeBytes(labels);
+            if (label != null) {
+                writeBytes(label);
+            }
+            writeByte('}');
+        }
+        writeByte(' ');
+        writeValue(value);
+        writeByte('\n');
+    }
+
+    private void writeValue(double value) {
+        long integralValue = (long) value;
+        if (integralValue == value && Math.abs(integralValue) < MAX_PLAIN_INTEGRAL &&
+                (integralValue != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            // formats as Double.toString does, such as 42.0
+            writeIntegral(integralValue);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            writeAscii(Collector.doubleToGoString(value));
+        }
+    }
+
+    private void writeIntegral(long value) {
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            bytes[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte digit = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = digit;
+        }
+    }
+
+    /**
+     * Write a metric family collected by a collector of the Prometheus client, for the metrics which cannot be
+     * written from their children.
+     *
+     * @param familySamples samples of the family
+     */
+    void writeFamily(Collector.MetricFamilySamples familySamples) {
+        writeHeader(familySamples.name, familySamples.help, familySamples.type);
+        for (Collector.MetricFamilySamples.Sample sample : familySamples.samples) {
+            writeSample(encodeName(sample.name), encodeLabels(sample.labelNames, sample.labelValues), null,
+                    sample.value);
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code PrometheusThreadFactory} Creates the threads of the background tasks of Prometheus sinks. The threads are
+ * named after the task and its owner, the stream of the sink or the port of a shared server, so that they can be
+ * told apart in thread dumps, and are daemon threads, so that a sink which is not shut down never keeps the JVM
+ * alive.
+ */
+final class PrometheusThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * @param task  name of the background task
+     * @param owner streamId of the sink or port of the server running the task, or null for tasks shared by all
+     *              the sinks
+     */
+    PrometheusThreadFactory(String task, String owner) {
+        this.name = owner == null ? "prometheus-" + task : "prometheus-" + task + "-" + owner;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
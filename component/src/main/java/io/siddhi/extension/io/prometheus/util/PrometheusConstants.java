@@ -40,6 +40,33 @@ public class PrometheusConstants {
     public static final String PUSH_DEFINITION = "push.operation";
     public static final String GROUPING_KEY_DEFINITION = "grouping.key";
     public static final String QUANTILE_ERROR = "quantile.error";
+    public static final String PUSH_INTERVAL = "push.interval";
+    public static final String PUSH_CONNECTION_POOL_SIZE = "push.connection.pool.size";
+    public static final String PUSH_GZIP = "push.gzip";
+    public static final String PUSH_BUFFER_DIRECTORY = "push.buffer.directory";
+    public static final String PUSH_BUFFER_MAX_SIZE = "push.buffer.max.size";
+    public static final String PUSH_BUFFER_SEGMENT_SIZE = "push.buffer.segment.size";
+    public static final String SERVER_TYPE = "server.type";
+    public static final String MAX_SERIES = "max.series";
+    public static final String MAX_METRICS = "max.metrics";
+    public static final String MAX_SERIES_POLICY = "max.series.policy";
+    public static final String SERIES_TTL = "series.ttl";
+    public static final String NATIVE_HISTOGRAM = "native.histogram";
+    public static final String NATIVE_HISTOGRAM_SCHEMA = "native.histogram.schema";
+    public static final String SUMMARY_ESTIMATOR = "summary.estimator";
+    public static final String COUNT_ATTRIBUTE = "count.attribute";
+    public static final String WINDOW_LENGTH = "window.length";
+    public static final String WINDOW_AGGREGATOR = "window.aggregator";
+    public static final String ADDITIONAL_METRICS = "additional.metrics";
+    public static final String REMOTE_WRITE_URL = "remote.write.url";
+    public static final String REMOTE_WRITE_INTERVAL = "remote.write.interval";
+    public static final String REMOTE_WRITE_SHARDS = "remote.write.shards";
+    public static final String REMOTE_WRITE_QUEUE_CAPACITY = "remote.write.queue.capacity";
+    public static final String REMOTE_WRITE_MAX_SAMPLES = "remote.write.max.samples";
+    public static final String REMOTE_WRITE_MIN_BACKOFF = "remote.write.min.backoff";
+    public static final String REMOTE_WRITE_MAX_BACKOFF = "remote.write.max.backoff";
+    public static final String SERVER_EVENT_LOOP_THREADS = "server.event.loop.threads";
+    public static final String SERVER_WORKER_THREADS = "server.worker.threads";
 
     public static final String EMPTY_STRING = "";
     public static final String HELP_STRING = "help for ";
@@ -51,11 +78,40 @@ public class PrometheusConstants {
     static final String DEFAULT_PUSH_URL = "http://localhost:9091";
     static final String DEFAULT_SERVER_URL = "http://localhost:9080";
     public static final String DEFAULT_ERROR = "0.001";
+    public static final String DEFAULT_PUSH_INTERVAL = "0";
+    public static final String DEFAULT_PUSH_CONNECTION_POOL_SIZE = "1";
+    public static final String DEFAULT_PUSH_GZIP = "false";
+    public static final String DEFAULT_PUSH_BUFFER_MAX_SIZE = "67108864";
+    public static final String DEFAULT_PUSH_BUFFER_SEGMENT_SIZE = "4194304";
+    public static final int PUSH_TIMEOUT = 30000;
+    public static final String DEFAULT_SERVER_TYPE = "default";
+    public static final String NETTY_SERVER_TYPE = "netty";
+    public static final String DEFAULT_SERVER_THREADS = "0";
+    public static final String DEFAULT_MAX_SERIES = "0";
+    public static final String DEFAULT_MAX_METRICS = "0";
+    public static final String DEFAULT_SERIES_TTL = "0";
+    public static final String DEFAULT_NATIVE_HISTOGRAM = "false";
+    public static final String DEFAULT_NATIVE_HISTOGRAM_SCHEMA = "3";
+    public static final String CKMS_SUMMARY_ESTIMATOR = "ckms";
+    public static final String SKETCH_SUMMARY_ESTIMATOR = "sketch";
+    public static final String DEFAULT_WINDOW_LENGTH = "0";
+    public static final String DEFAULT_WINDOW_AGGREGATOR = "sum";
+    public static final String DEFAULT_REMOTE_WRITE_URL = "http://localhost:9090/api/v1/write";
+    public static final String DEFAULT_REMOTE_WRITE_INTERVAL = "15000";
+    public static final String DEFAULT_REMOTE_WRITE_SHARDS = "1";
+    public static final String DEFAULT_REMOTE_WRITE_QUEUE_CAPACITY = "10000";
+    public static final String DEFAULT_REMOTE_WRITE_MAX_SAMPLES = "2000";
+    public static final String DEFAULT_REMOTE_WRITE_MIN_BACKOFF = "30";
+    public static final String DEFAULT_REMOTE_WRITE_MAX_BACKOFF = "5000";
+    public static final String JOB_LABEL = "job";
+    public static final String EVICT_SERIES_POLICY = "evict";
+    public static final String OVERFLOW_SERIES_POLICY = "overflow";
     public static final String VALUE_STRING = "value";
     public static final String METRIC_NAME_REGEX = "[a-zA-Z_:][a-zA-Z0-9_:]*";
 
     public static final String SERVER_PUBLISH_MODE = "server";
     public static final String PUSHGATEWAY_PUBLISH_MODE = "pushgateway";
+    public static final String REMOTE_WRITE_PUBLISH_MODE = "remote.write";
 
     public static final String PUSH_OPERATION = "push";
     public static final String PUSH_ADD_OPERATION = "pushadd";
@@ -64,7 +120,8 @@ public class PrometheusConstants {
     static final String VALUE_SEPARATOR = ":";
     static final String ELEMENT_SEPARATOR = "\\s*,\\s*";
 
-    public static final String REGISTERED_METRICS = "Last registered sample";
+    public static final String METRIC_SNAPSHOTS = "Metric snapshots";
+    public static final String METRIC_HELPS = "Metric helps";
     public static final String MAP_ANNOTATION = "map";
     public static final String PAYLOAD_ANNOTATION = "payload";
 
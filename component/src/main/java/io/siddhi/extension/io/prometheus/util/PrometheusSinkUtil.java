@@ -20,14 +20,22 @@ package io.siddhi.extension.io.prometheus.util;
 
 
 import io.prometheus.client.Collector;
+import io.siddhi.core.event.Event;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.util.config.ConfigReader;
+import io.siddhi.core.util.transport.Option;
+import io.siddhi.query.api.definition.StreamDefinition;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.KEY_VALUE_SEPARATOR;
 import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.VALUE_SEPARATOR;
@@ -38,7 +46,8 @@ import static io.siddhi.extension.io.prometheus.util.PrometheusConstants.VALUE_S
  */
 
 public class PrometheusSinkUtil {
-
+    private static final String TEMPLATE_MARKER = "\u0000";
+    private static final Pattern TEMPLATE_MARKER_PATTERN = Pattern.compile("\u0000(\\d+)\u0000");
 
     /**
      * Split values by ',' for buckets and quantiles definition.
@@ -142,23 +151,52 @@ public class PrometheusSinkUtil {
     }
 
     /**
-     * Retrieve labels from payload to assign metrics.
+     * Retrieve the additional metrics of a sink, each as its name, metric type and value attribute.
      *
-     * @param attributeMap   payload in Map format
-     * @param valueAttribute name of the value attribute
-     * @return labels as string array
+     * @param additionalMetricsString additional metrics parameter as string
+     * @param streamID                streamId of the stream for error message
+     * @return name, metric type and value attribute of each additional metric, in the defined order
      */
-    public static String[] populateLabelArray(Map<String, Object> attributeMap, String valueAttribute) {
-        String[] labels = new String[attributeMap.size() - 1];
-        int count = 0;
-        for (Map.Entry<String, Object> entry : attributeMap.entrySet()) {
-            if (entry.getKey().equals(valueAttribute)) {
-                continue;
+    public static List<String[]> populateAdditionalMetrics(String additionalMetricsString, String streamID) {
+        List<String[]> additionalMetrics = new ArrayList<>();
+        if (PrometheusConstants.EMPTY_STRING.equals(additionalMetricsString)) {
+            return additionalMetrics;
+        }
+        String[] metricList = additionalMetricsString.substring(1, additionalMetricsString.length() - 1)
+                .split(KEY_VALUE_SEPARATOR);
+        Arrays.stream(metricList).forEach(metricEntry -> {
+            String[] entry = metricEntry.split(VALUE_SEPARATOR);
+            if (entry.length != 3) {
+                throw new SiddhiAppCreationException("The additional metrics field in Prometheus sink associated " +
+                        "with the stream \'" + streamID + "\' is not in the expected format. " +
+                        "please insert them as 'name1:type1:attribute1','name2:type2:attribute2'.");
             }
-            labels[count] = entry.getValue().toString();
-            count++;
+            additionalMetrics.add(new String[]{entry[0].trim(), entry[1].trim(), entry[2].trim()});
+        });
+        return additionalMetrics;
+    }
+
+    /**
+     * Retrieve the attributes referred by the template of a dynamic option of a sink, such as 'metric' in
+     * "{{metric}}". Since the option does not expose its template, the option is rendered with a marker in place of
+     * the value of each attribute, and the attributes are read back from the markers.
+     *
+     * @param streamDefinition definition of the stream published by the sink
+     * @param option           dynamic option of the sink
+     * @return names of the attributes referred by the template of the option
+     */
+    public static Set<String> findTemplateAttributes(StreamDefinition streamDefinition, Option option) {
+        String[] attributeNames = streamDefinition.getAttributeNameArray();
+        Object[] markers = new Object[attributeNames.length];
+        for (int i = 0; i < markers.length; i++) {
+            markers[i] = TEMPLATE_MARKER + i + TEMPLATE_MARKER;
+        }
+        Set<String> templateAttributes = new HashSet<>();
+        Matcher matcher = TEMPLATE_MARKER_PATTERN.matcher(option.getValue(new Event(0, markers)));
+        while (matcher.find()) {
+            templateAttributes.add(attributeNames[Integer.parseInt(matcher.group(1))]);
         }
-        return labels;
+        return templateAttributes;
     }
 
     /**
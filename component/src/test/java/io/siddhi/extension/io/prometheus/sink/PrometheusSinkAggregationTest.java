@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink;
+
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.exception.SiddhiAppCreationException;
+import io.siddhi.core.stream.input.InputHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for the aggregation window of Prometheus sink in server publish mode, scraping the metrics of the sink
+ * over HTTP.
+ */
+public class PrometheusSinkAggregationTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSinkAggregationTest.class);
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void gaugeMaxAggregationTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for setting a gauge to the maximum of each aggregation window");
+        log.info("----------------------------------------------------------------------------------");
+        String serverURL = "http://localhost:" + freePort();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(
+                createSiddhiApp(serverURL, "gauge", "aggregation_max_test", "max"));
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        try {
+            siddhiAppRuntime.start();
+            inputHandler.send(new Object[]{"WSO2", 3.0});
+            inputHandler.send(new Object[]{"WSO2", 7.0});
+            inputHandler.send(new Object[]{"WSO2", 5.0});
+            waitForSample(serverURL, "aggregation_max_test{symbol=\"WSO2\",} 7.0");
+            // the maximum of the next window replaces the value, even when it is lower
+            inputHandler.send(new Object[]{"WSO2", 2.0});
+            inputHandler.send(new Object[]{"WSO2", 4.0});
+            waitForSample(serverURL, "aggregation_max_test{symbol=\"WSO2\",} 4.0");
+        } finally {
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+        }
+    }
+
+    @Test
+    public void counterSumAggregationTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for adding the sum of each aggregation window to a counter");
+        log.info("----------------------------------------------------------------------------------");
+        String serverURL = "http://localhost:" + freePort();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(
+                createSiddhiApp(serverURL, "counter", "aggregation_sum_test", "sum"));
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        try {
+            siddhiAppRuntime.start();
+            inputHandler.send(new Object[]{"WSO2", 1.0});
+            inputHandler.send(new Object[]{"WSO2", 2.0});
+            waitForSample(serverURL, "aggregation_sum_test{symbol=\"WSO2\",} 3.0");
+            inputHandler.send(new Object[]{"WSO2", 3.0});
+            waitForSample(serverURL, "aggregation_sum_test{symbol=\"WSO2\",} 6.0");
+        } finally {
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ".*The window aggregator 'last' in Prometheus sink associated " +
+                    "with stream 'TestStream' is not supported for counters.*")
+    public void counterLastAggregationTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for rejecting an aggregation function which replaces a counter");
+        log.info("----------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        try {
+            siddhiManager.createSiddhiAppRuntime(createSiddhiApp("http://localhost:9080", "counter",
+                    "aggregation_last_test", "last"));
+        } finally {
+            siddhiManager.shutdown();
+        }
+    }
+
+    private static String createSiddhiApp(String serverURL, String metricType, String metricName,
+                                          String aggregator) {
+        return "" +
+                "define stream InputStream (symbol String, price double);" +
+                "@sink(type='prometheus'," +
+                "job='aggregationTest'," +
+                "publish.mode='server'," +
+                "server.url='" + serverURL + "'," +
+                "metric.type='" + metricType + "'," +
+                "metric.name='" + metricName + "'," +
+                "value.attribute='price'," +
+                "window.length='100'," +
+                "window.aggregator='" + aggregator + "'," +
+                "@map(type = \'keyvalue\'))" +
+                "define stream TestStream (symbol String, price double);" +
+                "@info(name = 'query') " +
+                "from InputStream " +
+                "select symbol, price " +
+                "insert into TestStream;";
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitForSample(String serverURL, String sample) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String metrics = scrape(serverURL);
+        while (!metrics.contains(sample + "\n") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            metrics = scrape(serverURL);
+        }
+        Assert.assertTrue(metrics.contains(sample + "\n"), metrics);
+    }
+
+    private static String scrape(String serverURL) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(serverURL + "/metrics").openConnection();
+        StringBuilder metrics = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                metrics.append(line).append('\n');
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return metrics.toString();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink;
+
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.stream.input.InputHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for Prometheus sinks whose metric name is resolved per event from the attributes of the stream,
+ * scraping the metrics of the sinks over HTTP.
+ */
+public class PrometheusSinkDynamicMetricTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSinkDynamicMetricTest.class);
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void routingAttributesOfEachSinkTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for two dynamic sinks of a stream, each routing by its own attribute");
+        log.info("----------------------------------------------------------------------------------");
+        String serverURL = "http://localhost:" + freePort();
+        String siddhiApp = "" +
+                "define stream InputStream (metric String, kind String, symbol String, price double);" +
+                "@sink(type='prometheus', job='dynamicMetricTest', publish.mode='server', " +
+                "server.url='" + serverURL + "', metric.type='gauge', metric.name='{{metric}}', " +
+                "value.attribute='price', @map(type = \'keyvalue\'))" +
+                "@sink(type='prometheus', job='dynamicMetricTest', publish.mode='server', " +
+                "server.url='" + serverURL + "', metric.type='gauge', metric.name='{{kind}}', " +
+                "value.attribute='price', @map(type = \'keyvalue\'))" +
+                "define stream TestStream (metric String, kind String, symbol String, price double);" +
+                "@info(name = 'query') " +
+                "from InputStream " +
+                "select * " +
+                "insert into TestStream;";
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        try {
+            siddhiAppRuntime.start();
+            inputHandler.send(new Object[]{"stock_price", "bid_price", "WSO2", 1.0});
+            inputHandler.send(new Object[]{"stock_price", "ask_price", "WSO2", 2.0});
+            // each sink keeps the routing attribute of the other sink as a label, so the series stay apart
+            waitForSample(serverURL, "stock_price{kind=\"bid_price\",symbol=\"WSO2\",} 1.0");
+            waitForSample(serverURL, "stock_price{kind=\"ask_price\",symbol=\"WSO2\",} 2.0");
+            waitForSample(serverURL, "bid_price{metric=\"stock_price\",symbol=\"WSO2\",} 1.0");
+            waitForSample(serverURL, "ask_price{metric=\"stock_price\",symbol=\"WSO2\",} 2.0");
+        } finally {
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitForSample(String serverURL, String sample) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String metrics = scrape(serverURL);
+        while (!metrics.contains(sample + "\n") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            metrics = scrape(serverURL);
+        }
+        Assert.assertTrue(metrics.contains(sample + "\n"), metrics);
+    }
+
+    private static String scrape(String serverURL) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(serverURL + "/metrics").openConnection();
+        StringBuilder metrics = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                metrics.append(line).append('\n');
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return metrics.toString();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink;
+
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.event.Event;
+import io.siddhi.core.stream.input.InputHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for publishing the events of Prometheus sink through the passThrough mapper, which hands the events
+ * to the sink as they are, comparing the scraped metrics with the ones published through the keyvalue mapper.
+ */
+public class PrometheusSinkMappingTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSinkMappingTest.class);
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void passThroughMappingTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for single and batched events published through the passThrough mapper");
+        log.info("----------------------------------------------------------------------------------");
+        String keyValueURL = "http://localhost:" + freePort();
+        String passThroughURL = "http://localhost:" + freePort();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime keyValueRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp("KeyValueApp",
+                keyValueURL, "keyvalue"));
+        SiddhiAppRuntime passThroughRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp("PassThroughApp",
+                passThroughURL, "passThrough"));
+        try {
+            keyValueRuntime.start();
+            passThroughRuntime.start();
+            sendEvents(keyValueRuntime.getInputHandler("InputStream"));
+            sendEvents(passThroughRuntime.getInputHandler("InputStream"));
+            // the labels follow the order of the attributes in the stream, except the value attribute
+            String volumeSample = "mapping_volume{symbol=\"WSO2\",price=\"55.6\",exchange=\"NYSE\",} 600.0";
+            String priceSample = "mapping_price_count{symbol=\"IBM\",exchange=\"NASDAQ\",volume=\"200\",} 2.0";
+            waitForSample(keyValueURL, volumeSample);
+            waitForSample(keyValueURL, priceSample);
+            waitForSample(passThroughURL, volumeSample);
+            waitForSample(passThroughURL, priceSample);
+            // the families are exposed in the order in which the sinks of each app registered them
+            Assert.assertEquals(sortedLines(scrape(passThroughURL)), sortedLines(scrape(keyValueURL)));
+        } finally {
+            keyValueRuntime.shutdown();
+            passThroughRuntime.shutdown();
+            siddhiManager.shutdown();
+        }
+    }
+
+    private static String siddhiApp(String name, String serverURL, String mapType) {
+        return "" +
+                "@App:name('" + name + "')" +
+                "define stream InputStream (symbol String, price double, exchange String, volume int);" +
+                "@sink(type='prometheus', job='mappingTest', publish.mode='server', " +
+                "server.url='" + serverURL + "', metric.type='counter', metric.name='mapping_volume', " +
+                "value.attribute='volume', @map(type = \'" + mapType + "\'))" +
+                "@sink(type='prometheus', job='mappingTest', publish.mode='server', " +
+                "server.url='" + serverURL + "', metric.type='histogram', metric.name='mapping_price', " +
+                "value.attribute='price', @map(type = \'" + mapType + "\'))" +
+                "define stream TestStream (symbol String, price double, exchange String, volume int);" +
+                "@info(name = 'query') " +
+                "from InputStream " +
+                "select * " +
+                "insert into TestStream;";
+    }
+
+    private static void sendEvents(InputHandler inputHandler) throws InterruptedException {
+        inputHandler.send(new Object[]{"WSO2", 55.6, "NYSE", 100});
+        inputHandler.send(new Object[]{"IBM", 75.6, "NASDAQ", 200});
+        long timestamp = System.currentTimeMillis();
+        inputHandler.send(new Event[]{
+                new Event(timestamp, new Object[]{"WSO2", 55.6, "NYSE", 200}),
+                new Event(timestamp, new Object[]{"IBM", 57.6, "NASDAQ", 200}),
+                new Event(timestamp, new Object[]{"WSO2", 55.6, "NYSE", 300})
+        });
+    }
+
+    private static List<String> sortedLines(String metrics) {
+        List<String> lines = new ArrayList<>(Arrays.asList(metrics.split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitForSample(String serverURL, String sample) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String metrics = scrape(serverURL);
+        while (!metrics.contains(sample + "\n") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            metrics = scrape(serverURL);
+        }
+        Assert.assertTrue(metrics.contains(sample + "\n"), metrics);
+    }
+
+    private static String scrape(String serverURL) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(serverURL + "/metrics").openConnection();
+        StringBuilder metrics = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                metrics.append(line).append('\n');
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return metrics.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink;
+
+import com.sun.net.httpserver.HttpServer;
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.stream.input.InputHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test cases for Prometheus sink in pushgateway publish mode, against an in-process stand-in pushGateway which
+ * records the pushes it receives.
+ */
+public class PrometheusSinkPushGatewayTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSinkPushGatewayTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer pushGateway;
+    private String pushGatewayURL;
+    private final List<String> receivedPushes = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void startPushGateway() throws IOException {
+        receivedPushes.clear();
+        pushGateway = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        pushGateway.createContext("/metrics", exchange -> {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            receivedPushes.add(exchange.getRequestMethod() + "\n" + new String(body.toByteArray(),
+                    StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        pushGateway.start();
+        pushGatewayURL = "http://localhost:" + pushGateway.getAddress().getPort();
+    }
+
+    @AfterMethod
+    public void stopPushGateway() {
+        pushGateway.stop(0);
+    }
+
+    /**
+     * With 'pushadd', a push is only sent when the metric of the sink changed since the last accepted push. Events
+     * which are observed no times leave the metric unchanged, hence they do not cause a push.
+     */
+    @Test
+    public void pushAddUnchangedMetricTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test for skipping pushadd pushes of an unchanged metric");
+        log.info("----------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "" +
+                "define stream InputStream (symbol String, price double, volume long);" +
+                "@sink(type='prometheus'," +
+                "job='pushAddTest'," +
+                "push.url='" + pushGatewayURL + "'," +
+                "publish.mode='pushgateway'," +
+                "push.operation='pushadd'," +
+                "metric.type='histogram'," +
+                "metric.name='push_add_unchanged_test'," +
+                "value.attribute='price'," +
+                "count.attribute='volume'," +
+                "@map(type = \'keyvalue\'))" +
+                "define stream TestStream (symbol String, price double, volume long);" +
+                "@info(name = 'query') " +
+                "from InputStream " +
+                "select symbol, price, volume " +
+                "insert into TestStream;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        try {
+            siddhiAppRuntime.start();
+            int initialPushes = receivedPushes.size();
+
+            inputHandler.send(new Object[]{"WSO2", 1.5, 2L});
+            waitForPushes(initialPushes + 1);
+            String push = receivedPushes.get(initialPushes);
+            Assert.assertTrue(push.startsWith("POST\n"), push);
+            Assert.assertTrue(push.contains("push_add_unchanged_test_count{symbol=\"WSO2\",} 2.0"), push);
+
+            inputHandler.send(new Object[]{"WSO2", 2.5, 0L});
+            inputHandler.send(new Object[]{"IBM", 2.5, 0L});
+            Thread.sleep(500);
+            Assert.assertEquals(receivedPushes.size(), initialPushes + 1);
+
+            inputHandler.send(new Object[]{"IBM", 2.5, 1L});
+            waitForPushes(initialPushes + 2);
+            push = receivedPushes.get(initialPushes + 1);
+            Assert.assertTrue(push.contains("push_add_unchanged_test_count{symbol=\"IBM\",} 1.0"), push);
+            Thread.sleep(200);
+            Assert.assertEquals(receivedPushes.size(), initialPushes + 2);
+        } finally {
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+        }
+    }
+
+    private void waitForPushes(int pushes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (receivedPushes.size() < pushes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(receivedPushes.size(), pushes);
+    }
+}
@@ -307,5 +307,203 @@ public class SinkValidationTestcase {
                 "Define stream SummaryTestStream (symbol String, value int, price double);";
         createSiddhiApp(streamDefinition12);
     }
-}
 
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid value for \'push.interval\' in Prometheus " +
+                    "sink associated with stream \'(.*)\'. Value must be a non-negative integer")
+    public void prometheusValidationTest13() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with invalid value for push interval");
+        log.info("----------------------------------------------------------------------------------");
+
+        String pushInterval = "-100";
+        String streamDefinition13 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "push.url='" + pushgatewayURL + "', publish.mode='pushgateway', metric.type='counter', " +
+                "metric.help= 'Counter definition test'," +
+                "push.interval = '" + pushInterval + "',@map(type = 'keyvalue'))" +
+                "Define stream SummaryTestStream (symbol String, value int, price double);";
+        createSiddhiApp(streamDefinition13);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid server type : (.*) in Prometheus sink " +
+                    "associated with stream \'(.*)\'.")
+    public void prometheusValidationTest14() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with invalid server type");
+        log.info("----------------------------------------------------------------------------------");
+
+        String serverType = "jetty";
+        String streamDefinition14 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.help= 'Counter definition test'," +
+                "server.type = '" + serverType + "',@map(type = 'keyvalue'))" +
+                "Define stream SummaryTestStream (symbol String, value int, price double);";
+        createSiddhiApp(streamDefinition14);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid value for \'max.series\' in Prometheus " +
+                    "sink associated with stream \'(.*)\'. Value must be a non-negative integer")
+    public void prometheusValidationTest15() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with invalid value for maximum number of series");
+        log.info("----------------------------------------------------------------------------------");
+
+        String maxSeries = "-1";
+        String streamDefinition15 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.help= 'Counter definition test'," +
+                "max.series = '" + maxSeries + "',@map(type = 'keyvalue'))" +
+                "Define stream SummaryTestStream (symbol String, value int, price double);";
+        createSiddhiApp(streamDefinition15);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "The native.histogram field in Prometheus sink " +
+                    "associated with stream \'(.*)\' is not supported for metric type \'(.*)\'.")
+    public void prometheusValidationTest16() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with native histogram for a counter metric");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition16 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.help= 'Counter definition test'," +
+                "native.histogram = 'true',@map(type = 'keyvalue'))" +
+                "Define stream SummaryTestStream (symbol String, value int, price double);";
+        createSiddhiApp(streamDefinition16);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid summary estimator : (.*) in Prometheus " +
+                    "sink associated with stream \'(.*)\'.")
+    public void prometheusValidationTest17() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with invalid summary estimator");
+        log.info("----------------------------------------------------------------------------------");
+
+        String summaryEstimator = "gk";
+        String streamDefinition17 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='summary', " +
+                "metric.help= 'Summary definition test'," +
+                "summary.estimator = '" + summaryEstimator + "',@map(type = 'keyvalue'))" +
+                "Define stream SummaryTestStream (symbol String, value int, price double);";
+        createSiddhiApp(streamDefinition17);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "The count.attribute field in Prometheus sink " +
+                    "associated with stream \'(.*)\' is only supported for histograms and for summaries with the " +
+                    "sketch summary estimator.")
+    public void prometheusValidationTest18() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with count attribute for a counter metric");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition18 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.help= 'Counter definition test', value.attribute='price', " +
+                "count.attribute = 'volume',@map(type = 'keyvalue'))" +
+                "Define stream TestStream (symbol String, volume int, price double);";
+        createSiddhiApp(streamDefinition18);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "The value attribute \'symbol\' of metric " +
+                    "\'trade_symbol\' contains unsupported type in Prometheus sink associated with stream \'(.*)\'")
+    public void prometheusValidationTest19() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with an additional metric of a string attribute");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition19 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.help= 'Counter definition test', value.attribute='price', " +
+                "additional.metrics = \"'trade_volume:counter:volume','trade_symbol:gauge:symbol'\"," +
+                "@map(type = 'keyvalue'))" +
+                "Define stream TestStream (symbol String, volume int, price double);";
+        createSiddhiApp(streamDefinition19);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "The metric.help field in Prometheus sink associated " +
+                    "with stream \'(.*)\' can only be dynamic when the metric.name field is dynamic.")
+    public void prometheusValidationTest20() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with a dynamic metric help for a static metric name");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition20 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "server.url='" + serverURL + "', publish.mode='server', metric.type='counter', " +
+                "metric.name='trade_price', metric.help= 'Price of {{symbol}}', value.attribute='price', " +
+                "@map(type = 'keyvalue'))" +
+                "Define stream TestStream (symbol String, volume int, price double);";
+        createSiddhiApp(streamDefinition20);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid value for \'remote.write.max.backoff\' in " +
+                    "Prometheus sink associated with stream \'(.*)\'. Value must not be less than " +
+                    "\'remote.write.min.backoff\'")
+    public void prometheusValidationTest21() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with a maximum remote write backoff below the minimum backoff");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition21 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "publish.mode='remote.write', remote.write.url='http://localhost:9090/api/v1/write', " +
+                "remote.write.min.backoff='1000', remote.write.max.backoff='100', metric.type='gauge', " +
+                "value.attribute='price', @map(type = 'keyvalue'))" +
+                "Define stream TestStream (symbol String, volume int, price double);";
+        createSiddhiApp(streamDefinition21);
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class,
+            expectedExceptionsMessageRegExp = ERROR_MESSAGE + "Invalid value for \'push.buffer.segment.size\' in " +
+                    "Prometheus sink associated with stream \'(.*)\'. Value must not be greater than " +
+                    "half of \'push.buffer.max.size\'")
+    public void prometheusValidationTest22() throws InterruptedException {
+
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Sink test with a push buffer which cannot hold two segments");
+        log.info("----------------------------------------------------------------------------------");
+
+        String streamDefinition22 = "" +
+                "define stream InputStream (symbol String, volume int, price double);" +
+                "@sink(type='prometheus',job='prometheusSinkTest'," +
+                "publish.mode='pushgateway', push.url='" + pushgatewayURL + "', " +
+                "push.buffer.directory='target/push-buffer', push.buffer.max.size='6144', " +
+                "push.buffer.segment.size='4096', metric.type='gauge', value.attribute='price', " +
+                "@map(type = 'keyvalue'))" +
+                "Define stream TestStream (symbol String, volume int, price double);";
+        createSiddhiApp(streamDefinition22);
+    }
+}
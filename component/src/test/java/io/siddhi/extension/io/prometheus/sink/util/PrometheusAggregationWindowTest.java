@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for the pre-aggregation windows of Prometheus sinks.
+ */
+public class PrometheusAggregationWindowTest {
+    private static final Logger log = LogManager.getLogger(PrometheusAggregationWindowTest.class);
+
+    @Test
+    public void aggregateFunctionTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus aggregation window test for the aggregate functions");
+        log.info("----------------------------------------------------------------------------------");
+        for (String function : new String[]{"sum", "count", "min", "max", "last"}) {
+            Map<List<String>, Double> aggregates = new HashMap<>();
+            PrometheusAggregationWindow window = new PrometheusAggregationWindow(function, 60000,
+                    (value, labelValues) -> aggregates.put(Arrays.asList(labelValues), value), () -> {
+            }, "TestStream");
+            for (double value : new double[]{3, 1, 4, 1, 5}) {
+                window.add(value, new String[]{"WSO2"});
+            }
+            window.add(7, new String[]{"IBM"});
+            window.emitWindow();
+            double expectedIBM = "count".equals(function) ? 1.0 : 7.0;
+            Assert.assertEquals(aggregates.get(Arrays.asList("IBM")).doubleValue(), expectedIBM);
+            double expected;
+            switch (function) {
+                case "sum":
+                    expected = 14;
+                    break;
+                case "count":
+                    expected = 5;
+                    break;
+                case "min":
+                    expected = 1;
+                    break;
+                case "max":
+                    expected = 5;
+                    break;
+                default:
+                    expected = 5;
+            }
+            Assert.assertEquals(aggregates.get(Arrays.asList("WSO2")).doubleValue(), expected, 0, function);
+        }
+    }
+
+    @Test
+    public void tumblingWindowTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus aggregation window test for emitting each window once");
+        log.info("----------------------------------------------------------------------------------");
+        AtomicInteger emittedAggregates = new AtomicInteger();
+        AtomicInteger emittedWindows = new AtomicInteger();
+        double[] lastValue = new double[1];
+        PrometheusAggregationWindow window = new PrometheusAggregationWindow("sum", 60000, (value, labelValues) -> {
+            emittedAggregates.incrementAndGet();
+            lastValue[0] = value;
+        }, emittedWindows::incrementAndGet, "TestStream");
+        window.start();
+        for (int i = 0; i < 100000; i++) {
+            window.add(1, new String[]{"WSO2"});
+        }
+        window.emitWindow();
+        Assert.assertEquals(emittedAggregates.get(), 1);
+        Assert.assertEquals(lastValue[0], 100000.0);
+        // a window without events emits nothing
+        window.emitWindow();
+        Assert.assertEquals(emittedWindows.get(), 1);
+        window.add(2, new String[]{"WSO2"});
+        window.stop(1000);
+        Assert.assertEquals(emittedAggregates.get(), 2);
+        Assert.assertEquals(lastValue[0], 2.0);
+        Assert.assertEquals(emittedWindows.get(), 2);
+    }
+
+    @Test
+    public void idleSeriesTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus aggregation window test for removing the label sets without events in a window");
+        log.info("----------------------------------------------------------------------------------");
+        Map<List<String>, Double> aggregates = new HashMap<>();
+        PrometheusAggregationWindow window = new PrometheusAggregationWindow("sum", 60000,
+                (value, labelValues) -> aggregates.put(Arrays.asList(labelValues), value), () -> {
+        }, "TestStream");
+        for (int i = 0; i < 1000; i++) {
+            window.add(1, new String[]{"symbol" + i});
+        }
+        window.emitWindow();
+        Assert.assertEquals(aggregates.size(), 1000);
+        Assert.assertEquals(window.size(), 1000);
+        window.add(2, new String[]{"symbol0"});
+        window.emitWindow();
+        // only the label set which received an event in the window is kept
+        Assert.assertEquals(window.size(), 1);
+        window.emitWindow();
+        Assert.assertEquals(window.size(), 0);
+        // a retired label set starts a new aggregate
+        window.add(3, new String[]{"symbol1"});
+        window.emitWindow();
+        Assert.assertEquals(aggregates.get(Arrays.asList("symbol1")).doubleValue(), 3.0);
+        Assert.assertEquals(aggregates.get(Arrays.asList("symbol0")).doubleValue(), 2.0);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Test cases for the encoded metric families cached by Prometheus metric builders until the next update of their
+ * metrics.
+ */
+public class PrometheusEncodedFamilyCacheTest {
+    private static final Logger log = LogManager.getLogger(PrometheusEncodedFamilyCacheTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private static PrometheusMetricBuilder createBuilder(String url, Collector.Type type) {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("cache_" + type.name().toLowerCase(),
+                "cache test", type, new ArrayList<>(Arrays.asList("symbol", "value")));
+        metricBuilder.setRegistry(url, "CacheTestStream");
+        return metricBuilder;
+    }
+
+    private static String text(byte[] encodedFamily) {
+        return new String(encodedFamily, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void unchangedFamilyTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus encoded family cache test for reusing the family until the metric is updated");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder metricBuilder = createBuilder("http://localhost:9211", Collector.Type.COUNTER);
+        metricBuilder.addMetric("cache_latency", "cache test", Collector.Type.HISTOGRAM);
+        metricBuilder.registerMetric("value");
+        try {
+            metricBuilder.insertMetricValues(new double[]{1, 2}, 1, new String[]{"WSO2"});
+            for (PrometheusExpositionFormat format : PrometheusExpositionFormat.values()) {
+                byte[] encodedFamily = metricBuilder.encodeMetric(format);
+                Assert.assertSame(metricBuilder.encodeMetric(format), encodedFamily, format.name());
+                // only the scrapes which select all the families are served from the cache
+                Assert.assertSame(metricBuilder.encodeMetric(format, null), encodedFamily, format.name());
+                Assert.assertNotSame(metricBuilder.encodeMetric(format, new HashSet<>(Arrays.asList("cache_counter"))),
+                        encodedFamily, format.name());
+            }
+            byte[] encodedFamily = metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            Assert.assertTrue(text(encodedFamily).contains("cache_counter{symbol=\"WSO2\",} 1.0\n"));
+
+            metricBuilder.insertMetricValues(new double[]{3, 4}, 1, new String[]{"WSO2"});
+            byte[] updatedFamily = metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            Assert.assertNotSame(updatedFamily, encodedFamily);
+            Assert.assertTrue(text(updatedFamily).contains("cache_counter{symbol=\"WSO2\",} 4.0\n"));
+            Assert.assertSame(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT), updatedFamily);
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void expiredSeriesTest() throws IOException, InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus encoded family cache test for encoding the family again once a series is removed");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder metricBuilder = createBuilder("http://localhost:9212", Collector.Type.GAUGE);
+        metricBuilder.setSeriesTimeToLive(100);
+        metricBuilder.registerMetric("value");
+        try {
+            metricBuilder.insertValues(1, new String[]{"WSO2"});
+            byte[] encodedFamily = metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            Assert.assertTrue(text(encodedFamily).contains("cache_gauge{symbol=\"WSO2\",} 1.0\n"));
+            // the series is expired without an update of the metric, which must not leave the family cached
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            byte[] expiredFamily = metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            while (expiredFamily == encodedFamily && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                expiredFamily = metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            }
+            Assert.assertNotSame(expiredFamily, encodedFamily);
+            Assert.assertFalse(text(expiredFamily).contains("WSO2"), text(expiredFamily));
+            Assert.assertSame(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT), expiredFamily);
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void summaryFamilyTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus encoded family cache test for encoding the CKMS summaries on every scrape");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder ckmsBuilder = createBuilder("http://localhost:9213", Collector.Type.SUMMARY);
+        ckmsBuilder.setQuantiles(new double[]{0.5, 0.99}, 0.01);
+        ckmsBuilder.registerMetric("value");
+        PrometheusMetricBuilder sketchBuilder = createBuilder("http://localhost:9214", Collector.Type.SUMMARY);
+        sketchBuilder.setQuantiles(new double[]{0.5, 0.99}, 0.01);
+        sketchBuilder.setSketchSummary(true);
+        sketchBuilder.registerMetric("value");
+        try {
+            ckmsBuilder.insertValues(1, new String[]{"WSO2"});
+            sketchBuilder.insertValues(1, new String[]{"WSO2"});
+            // the quantiles of CKMS summaries change as their observations age, without an update of the metric
+            byte[] ckmsFamily = ckmsBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            Assert.assertNotSame(ckmsBuilder.encodeMetric(PrometheusExpositionFormat.TEXT), ckmsFamily);
+            Assert.assertEquals(text(ckmsBuilder.encodeMetric(PrometheusExpositionFormat.TEXT)), text(ckmsFamily));
+            byte[] sketchFamily = sketchBuilder.encodeMetric(PrometheusExpositionFormat.TEXT);
+            Assert.assertSame(sketchBuilder.encodeMetric(PrometheusExpositionFormat.TEXT), sketchFamily);
+        } finally {
+            ckmsBuilder.unregisterMetric();
+            sketchBuilder.unregisterMetric();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Test cases for the selection of the metrics exposed to a scrape by the Siddhi app and the metric names.
+ */
+public class PrometheusExpositionTest {
+    private static final Logger log = LogManager.getLogger(PrometheusExpositionTest.class);
+
+    private static PrometheusMetricBuilder createBuilder(String url, String appName, String name) {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder(name + "_total", "total",
+                Collector.Type.COUNTER, new ArrayList<>(Arrays.asList("symbol", "value")));
+        metricBuilder.addMetric(name + "_latency", "latency", Collector.Type.HISTOGRAM);
+        metricBuilder.setAppName(appName);
+        metricBuilder.setRegistry(url, "ExpositionTestStream");
+        metricBuilder.registerMetric("value");
+        metricBuilder.insertMetricValues(new double[]{1, 2}, 1, new String[]{"WSO2"});
+        return metricBuilder;
+    }
+
+    private static String encode(PrometheusExposition exposition, String appName, String... includedNames)
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (byte[] encodedFamily : exposition.encode(appName, includedNames.length == 0 ? null :
+                new HashSet<>(Arrays.asList(includedNames)), PrometheusExpositionFormat.TEXT)) {
+            text.append(new String(encodedFamily, StandardCharsets.UTF_8));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void appPathTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus exposition test for the Siddhi app selected by the path of a scrape");
+        log.info("----------------------------------------------------------------------------------");
+        Assert.assertNull(PrometheusExposition.parseAppName("/"));
+        Assert.assertNull(PrometheusExposition.parseAppName("/metrics"));
+        Assert.assertNull(PrometheusExposition.parseAppName("/metrics/"));
+        Assert.assertEquals(PrometheusExposition.parseAppName("/metrics/StockApp"), "StockApp");
+        Assert.assertEquals(PrometheusExposition.parseAppName("/metrics/Stock App/"), "Stock App");
+        Assert.assertTrue(PrometheusExposition.isExposedPath("/"));
+        Assert.assertTrue(PrometheusExposition.isExposedPath("/metrics/StockApp/"));
+        Assert.assertFalse(PrometheusExposition.isExposedPath("/metrics/StockApp/extra"));
+        Assert.assertFalse(PrometheusExposition.isExposedPath("/metrics/StockApp//"));
+    }
+
+    @Test
+    public void metricSelectionTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus exposition test for the selection of metrics by Siddhi app and metric name");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9204";
+        List<PrometheusMetricBuilder> metricBuilders = Arrays.asList(createBuilder(url, "StockApp", "stock"),
+                createBuilder(url, "OrderApp", "order"));
+        try {
+            PrometheusExposition exposition = PrometheusRegistryHolder.retrieveExposition("localhost", 9204);
+            String allMetrics = encode(exposition, null);
+            Assert.assertTrue(allMetrics.contains("# TYPE stock_total counter\n"));
+            Assert.assertTrue(allMetrics.contains("# TYPE order_latency histogram\n"));
+
+            String stockMetrics = encode(exposition, "StockApp");
+            Assert.assertTrue(stockMetrics.contains("# TYPE stock_total counter\n"));
+            Assert.assertTrue(stockMetrics.contains("# TYPE stock_latency histogram\n"));
+            Assert.assertFalse(stockMetrics.contains("order_"));
+            Assert.assertEquals(encode(exposition, "UnknownApp"), "");
+
+            // only the requested family of a builder is encoded, matching the names of its samples as well
+            String latency = encode(exposition, null, "order_latency_bucket");
+            Assert.assertTrue(latency.startsWith("# HELP order_latency latency\n"));
+            Assert.assertFalse(latency.contains("order_total"));
+            Assert.assertFalse(latency.contains("stock_"));
+            Assert.assertEquals(encode(exposition, "StockApp", "order_total"), "");
+            Assert.assertEquals(encode(exposition, null, "stock_total", "stock_latency"),
+                    encode(exposition, "StockApp"));
+        } finally {
+            for (PrometheusMetricBuilder metricBuilder : metricBuilders) {
+                metricBuilder.unregisterMetric();
+            }
+        }
+    }
+
+    @Test
+    public void serverMetricSelectionTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus exposition test for the selection of metrics through the exposition server");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9205";
+        List<PrometheusMetricBuilder> metricBuilders = Arrays.asList(createBuilder(url, "StockApp", "stock"),
+                createBuilder(url, "OrderApp", "order"));
+        PrometheusExpositionServer server = new PrometheusHttpExpositionServer(new InetSocketAddress("localhost",
+                9205), PrometheusRegistryHolder.retrieveExposition("localhost", 9205));
+        try {
+            String orderMetrics = scrape(url + "/metrics/OrderApp");
+            Assert.assertTrue(orderMetrics.contains("order_total{symbol=\"WSO2\",} 1.0\n"));
+            Assert.assertFalse(orderMetrics.contains("stock_"));
+            String stockTotal = scrape(url + "/metrics/StockApp?name[]=stock_total&name[]=order_total");
+            Assert.assertEquals(stockTotal, "# HELP stock_total total\n# TYPE stock_total counter\n" +
+                    "stock_total{symbol=\"WSO2\",} 1.0\n");
+            String allMetrics = scrape(url + "/metrics");
+            Assert.assertTrue(allMetrics.contains("stock_total") && allMetrics.contains("order_total"));
+        } finally {
+            server.stop();
+            for (PrometheusMetricBuilder metricBuilder : metricBuilders) {
+                metricBuilder.unregisterMetric();
+            }
+        }
+    }
+
+    @Test
+    public void serverUnknownPathTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus exposition test for the paths below an app which are not found");
+        log.info("----------------------------------------------------------------------------------");
+        List<PrometheusMetricBuilder> metricBuilders = Arrays.asList(
+                createBuilder("http://localhost:9207", "StockApp", "stock"),
+                createBuilder("http://localhost:9208", "StockApp", "stock"));
+        List<PrometheusExpositionServer> servers = Arrays.asList(
+                new PrometheusHttpExpositionServer(new InetSocketAddress("localhost", 9207),
+                        PrometheusRegistryHolder.retrieveExposition("localhost", 9207)),
+                new PrometheusNettyExpositionServer(new InetSocketAddress("localhost", 9208),
+                        PrometheusRegistryHolder.retrieveExposition("localhost", 9208), 1, 0));
+        try {
+            for (String url : new String[]{"http://localhost:9207", "http://localhost:9208"}) {
+                Assert.assertTrue(scrape(url + "/metrics/StockApp").contains("stock_total"));
+                Assert.assertEquals(responseCode(url + "/metrics/StockApp/extra"), 404);
+            }
+        } finally {
+            for (PrometheusExpositionServer server : servers) {
+                server.stop();
+            }
+            for (PrometheusMetricBuilder metricBuilder : metricBuilders) {
+                metricBuilder.unregisterMetric();
+            }
+        }
+    }
+
+    private static int responseCode(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String scrape(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream inputStream = connection.getInputStream()) {
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int length = inputStream.read(buffer); length != -1; length = inputStream.read(buffer)) {
+                body.write(buffer, 0, length);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import com.sun.net.httpserver.HttpServer;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.transport.http.netty.contract.HttpWsConnectorFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for sharing the connector factory of the HTTP transport between the senders of Prometheus sinks.
+ */
+public class PrometheusHttpSenderTest {
+    private static final Logger log = LogManager.getLogger(PrometheusHttpSenderTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer endpoint;
+    private URL endpointURL;
+    private final List<String> receivedRequests = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void startEndpoint() throws IOException {
+        receivedRequests.clear();
+        endpoint = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        endpoint.createContext("/metrics", exchange -> {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                while (inputStream.read() != -1) {
+                    // discard the request body
+                }
+            }
+            receivedRequests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawPath());
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        endpoint.start();
+        endpointURL = new URL("http://localhost:" + endpoint.getAddress().getPort() + "/metrics");
+    }
+
+    @AfterMethod
+    public void stopEndpoint() {
+        endpoint.stop(0);
+    }
+
+    @Test
+    public void sharedConnectorFactoryTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus HTTP sender test for sharing the connector factory until the last sender shuts down");
+        log.info("----------------------------------------------------------------------------------");
+        // every other test shuts down the senders it creates
+        Assert.assertNull(PrometheusHttpSender.getConnectorFactory());
+        PrometheusHttpSender firstSender = createSender("first");
+        HttpWsConnectorFactory connectorFactory = PrometheusHttpSender.getConnectorFactory();
+        Assert.assertNotNull(connectorFactory);
+        PrometheusHttpSender secondSender = createSender("second");
+        Assert.assertSame(PrometheusHttpSender.getConnectorFactory(), connectorFactory);
+
+        firstSender.shutdown(TIMEOUT);
+        // shutting down a sender twice does not release the factory of the other sender
+        firstSender.shutdown(TIMEOUT);
+        Assert.assertSame(PrometheusHttpSender.getConnectorFactory(), connectorFactory);
+        secondSender.send(HttpMethod.POST, "/metrics/job/second", Unpooled.wrappedBuffer(
+                "second 1".getBytes(StandardCharsets.UTF_8)), new DefaultHttpHeaders())
+                .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(receivedRequests.size(), 1);
+        Assert.assertEquals(receivedRequests.get(0), "POST /metrics/job/second");
+
+        secondSender.shutdown(TIMEOUT);
+        Assert.assertNull(PrometheusHttpSender.getConnectorFactory());
+        PrometheusHttpSender thirdSender = createSender("third");
+        Assert.assertNotSame(PrometheusHttpSender.getConnectorFactory(), connectorFactory);
+        thirdSender.shutdown(TIMEOUT);
+        Assert.assertNull(PrometheusHttpSender.getConnectorFactory());
+    }
+
+    private PrometheusHttpSender createSender(String streamID) {
+        return new PrometheusHttpSender(endpointURL, "test endpoint", 2, "", "", "test", streamID);
+    }
+}
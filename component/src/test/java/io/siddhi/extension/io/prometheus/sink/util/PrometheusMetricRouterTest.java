@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for the routing of events to the metrics of Prometheus sinks with a dynamic metric name.
+ */
+public class PrometheusMetricRouterTest {
+    private static final Logger log = LogManager.getLogger(PrometheusMetricRouterTest.class);
+
+    private static PrometheusMetricRouter createRouter() {
+        return createRouter(0);
+    }
+
+    private static PrometheusMetricRouter createRouter(int maxMetrics) {
+        return new PrometheusMetricRouter((name, help) -> {
+            PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder(name, help,
+                    Collector.Type.HISTOGRAM, new ArrayList<>(Arrays.asList("symbol", "value")));
+            metricBuilder.setHistogramBuckets(new double[]{1, 10});
+            metricBuilder.setWeightedObservations(true);
+            metricBuilder.setRegistry("http://localhost:9197", "RouterTestStream");
+            return metricBuilder;
+        }, "value", maxMetrics, "RouterTestStream");
+    }
+
+    @Test
+    public void metricRoutingTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric router test for metrics created on their first event");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricRouter metricRouter = createRouter();
+        metricRouter.registerMetrics();
+        try {
+            Assert.assertNull(metricRouter.retrieve("router_latency"));
+            PrometheusMetricBuilder latencyBuilder = metricRouter.create("router_latency", "latency");
+            Assert.assertSame(metricRouter.retrieve("router_latency"), latencyBuilder);
+            Assert.assertSame(metricRouter.create("router_latency", "latency"), latencyBuilder);
+            latencyBuilder.insertValues(5, new String[]{"WSO2"});
+
+            PrometheusMetricBuilder sizeBuilder = metricRouter.create("router_size", "size");
+            sizeBuilder.insertValues(20, 3, new String[]{"WSO2"});
+            Assert.assertEquals(metricRouter.size(), 2);
+            Assert.assertEquals(metricRouter.getGeneration(), 2L);
+
+            List<Collector.MetricFamilySamples> metricFamilySamples = metricRouter.collect();
+            Assert.assertEquals(metricFamilySamples.size(), 2);
+            for (Collector.MetricFamilySamples familySamples : metricFamilySamples) {
+                for (Collector.MetricFamilySamples.Sample sample : familySamples.samples) {
+                    if (sample.name.endsWith("_count")) {
+                        Assert.assertEquals(sample.value, familySamples.name.equals("router_size") ? 3.0 : 1.0);
+                    }
+                }
+            }
+        } finally {
+            metricRouter.unregisterMetrics();
+        }
+    }
+
+    @Test
+    public void metricNameCollisionTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric router test for a metric name registered by another sink");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricRouter metricRouter = new PrometheusMetricRouter((name, help) -> {
+            PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder(name, help,
+                    Collector.Type.HISTOGRAM, new ArrayList<>(Arrays.asList("symbol", "value")));
+            metricBuilder.addMetric(name + "_last", help, Collector.Type.GAUGE);
+            metricBuilder.setRegistry("http://localhost:9198", "RouterTestStream");
+            return metricBuilder;
+        }, "value", 0, "RouterTestStream");
+        CollectorRegistry registry = PrometheusRegistryHolder.retrieveRegistry("localhost", 9198);
+        Gauge otherMetric = Gauge.build("router_collision_last", "other sink").register(registry);
+        metricRouter.registerMetrics();
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    metricRouter.create("router_collision", "collision");
+                    Assert.fail("Metric colliding with the metric of another sink was expected to be rejected");
+                } catch (SiddhiAppRuntimeException e) {
+                    Assert.assertTrue(e.getMessage().startsWith("Metric 'router_collision' of Prometheus sink " +
+                            "associated with stream 'RouterTestStream' could not be registered"), e.getMessage());
+                }
+                // the histogram registered before the collision is not left behind
+                Assert.assertEquals(registeredNames(registry), Collections.singletonList("router_collision_last"));
+                Assert.assertNull(metricRouter.retrieve("router_collision"));
+            }
+
+            // the name is registered again once the sink reconnects without the other metric
+            registry.unregister(otherMetric);
+            metricRouter.unregisterMetrics();
+            metricRouter.registerMetrics();
+            metricRouter.create("router_collision", "collision").insertValues(1, new String[]{"WSO2"});
+            Assert.assertEquals(registeredNames(registry), Arrays.asList("router_collision",
+                    "router_collision_last"));
+        } finally {
+            metricRouter.unregisterMetrics();
+        }
+    }
+
+    @Test
+    public void maxMetricsTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric router test for the limit on the number of metrics");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricRouter metricRouter = createRouter(2);
+        metricRouter.registerMetrics();
+        try {
+            metricRouter.create("router_limit_a", "a");
+            metricRouter.create("router_limit_b", "b");
+            try {
+                metricRouter.create("router_limit_c", "c");
+                Assert.fail("Metric beyond the limit was expected to be rejected");
+            } catch (SiddhiAppRuntimeException e) {
+                Assert.assertEquals(e.getMessage(), "Metric 'router_limit_c' exceeds the limit of 2 metrics set " +
+                        "by 'max.metrics' in Prometheus sink associated with stream 'RouterTestStream'.");
+            }
+            // the metrics created before the limit are still routed
+            Assert.assertNotNull(metricRouter.create("router_limit_a", "a"));
+            Assert.assertEquals(metricRouter.size(), 2);
+        } finally {
+            metricRouter.unregisterMetrics();
+        }
+    }
+
+    private static List<String> registeredNames(CollectorRegistry registry) {
+        List<String> names = new ArrayList<>();
+        for (Collector.MetricFamilySamples familySamples : Collections.list(registry.metricFamilySamples())) {
+            names.add(familySamples.name);
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test(expectedExceptions = SiddhiAppRuntimeException.class)
+    public void invalidMetricNameTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric router test for an event with an invalid metric name");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricRouter metricRouter = createRouter();
+        metricRouter.create("router latency", "latency");
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for the state snapshots of Prometheus sink metrics.
+ */
+public class PrometheusMetricSnapshotTest {
+    private static final Logger log = LogManager.getLogger(PrometheusMetricSnapshotTest.class);
+
+    private static PrometheusMetricBuilder createBuilder(String url, double[] buckets) {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("snapshot_total", "total",
+                Collector.Type.COUNTER, new ArrayList<>(Arrays.asList("symbol", "region", "value")));
+        metricBuilder.addMetric("snapshot_last", "last", Collector.Type.GAUGE);
+        metricBuilder.addMetric("snapshot_latency", "latency", Collector.Type.HISTOGRAM);
+        metricBuilder.setHistogramBuckets(buckets);
+        metricBuilder.setRegistry(url, "SnapshotTestStream");
+        return metricBuilder;
+    }
+
+    private static PrometheusMetricBuilder createNativeBuilder(String url) {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("snapshot_duration", "duration",
+                Collector.Type.HISTOGRAM, new ArrayList<>(Arrays.asList("symbol", "value")));
+        metricBuilder.addMetric("snapshot_size", "size", Collector.Type.SUMMARY);
+        metricBuilder.setNativeHistogram(true, 3);
+        metricBuilder.setSketchSummary(true);
+        metricBuilder.setWeightedObservations(true);
+        metricBuilder.setQuantiles(new double[]{0.5, 0.99}, 0.01);
+        metricBuilder.setRegistry(url, "SnapshotTestStream");
+        return metricBuilder;
+    }
+
+    // samples of the metrics of a builder as sorted text lines, for comparing the metrics of two builders
+    private static List<String> toLines(PrometheusMetricBuilder metricBuilder) {
+        List<String> lines = new ArrayList<>();
+        for (Collector.MetricFamilySamples familySamples : metricBuilder.collect()) {
+            for (Collector.MetricFamilySamples.Sample sample : familySamples.samples) {
+                lines.add(sample.name + sample.labelNames + sample.labelValues + " " + sample.value);
+            }
+            if (familySamples instanceof PrometheusNativeHistogram.NativeHistogramFamilySamples) {
+                ((PrometheusNativeHistogram.NativeHistogramFamilySamples) familySamples).snapshots.forEach(
+                        (labelValues, snapshot) -> lines.add(familySamples.name + labelValues + " native " +
+                                snapshot.zeroCount + Arrays.toString(snapshot.positiveIndices) +
+                                Arrays.toString(snapshot.positiveCounts) + Arrays.toString(snapshot.negativeIndices) +
+                                Arrays.toString(snapshot.negativeCounts)));
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void metricSnapshotTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for counters, gauges and histograms sharing their series");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9198";
+        double[] buckets = {1, 10, 100};
+        PrometheusMetricBuilder metricBuilder = createBuilder(url, buckets);
+        metricBuilder.registerMetric("value");
+        byte[] snapshot;
+        List<String> expectedLines;
+        try {
+            for (int i = 0; i < 100; i++) {
+                metricBuilder.insertMetricValues(new double[]{i, -i, i * 1.5}, 1,
+                        new String[]{"symbol" + i % 10, i % 2 == 0 ? "east" : "west"});
+            }
+            expectedLines = toLines(metricBuilder);
+            snapshot = metricBuilder.snapshot();
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+        // ten series, each with a counter, a gauge and a histogram of four buckets
+        Assert.assertEquals(expectedLines.size(), 10 * 8);
+
+        PrometheusMetricBuilder restoredBuilder = createBuilder(url, buckets);
+        // the snapshot is restored once the metrics are registered
+        restoredBuilder.restore(snapshot);
+        Assert.assertSame(restoredBuilder.snapshot(), snapshot);
+        restoredBuilder.registerMetric("value");
+        try {
+            Assert.assertEquals(toLines(restoredBuilder), expectedLines);
+            Assert.assertTrue(Arrays.equals(restoredBuilder.snapshot(), snapshot));
+        } finally {
+            restoredBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void nativeHistogramAndSketchSummarySnapshotTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for native histograms and sketch summaries");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9199";
+        PrometheusMetricBuilder metricBuilder = createNativeBuilder(url);
+        metricBuilder.registerMetric("value");
+        byte[] snapshot;
+        List<String> expectedLines;
+        try {
+            for (int i = 0; i < 1000; i++) {
+                metricBuilder.insertValues(i % 2 == 0 ? i * 0.37 : -i * 0.11, i % 3 + 1,
+                        new String[]{"symbol" + i % 7});
+            }
+            metricBuilder.insertValues(0, 5, new String[]{"zero"});
+            expectedLines = toLines(metricBuilder);
+            snapshot = metricBuilder.snapshot();
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+
+        PrometheusMetricBuilder restoredBuilder = createNativeBuilder(url);
+        restoredBuilder.registerMetric("value");
+        try {
+            restoredBuilder.restore(snapshot);
+            Assert.assertEquals(toLines(restoredBuilder), expectedLines);
+        } finally {
+            restoredBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void changedBucketsSnapshotTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for a histogram whose buckets changed since the snapshot");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9200";
+        PrometheusMetricBuilder metricBuilder = createBuilder(url, new double[]{1, 10});
+        metricBuilder.registerMetric("value");
+        byte[] snapshot;
+        try {
+            metricBuilder.insertMetricValues(new double[]{3, 4, 5}, 1, new String[]{"WSO2", "east"});
+            snapshot = metricBuilder.snapshot();
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+
+        PrometheusMetricBuilder restoredBuilder = createBuilder(url, new double[]{1, 10, 100});
+        restoredBuilder.registerMetric("value");
+        try {
+            restoredBuilder.restore(snapshot);
+            List<String> lines = toLines(restoredBuilder);
+            Assert.assertTrue(lines.contains("snapshot_total[symbol, region][WSO2, east] 3.0"));
+            Assert.assertTrue(lines.contains("snapshot_last[symbol, region][WSO2, east] 4.0"));
+            // the histogram keeps its series, without the state of the former buckets
+            Assert.assertTrue(lines.contains("snapshot_latency_count[symbol, region][WSO2, east] 0.0"));
+        } finally {
+            restoredBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void restoreReplacesSeriesTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for replacing the series of metrics which already hold data");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9206";
+        PrometheusMetricBuilder metricBuilder = createBuilder(url, new double[]{1, 10});
+        metricBuilder.registerMetric("value");
+        byte[] snapshot;
+        List<String> expectedLines;
+        try {
+            metricBuilder.insertMetricValues(new double[]{3, 4, 5}, 1, new String[]{"WSO2", "east"});
+            expectedLines = toLines(metricBuilder);
+            snapshot = metricBuilder.snapshot();
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+
+        PrometheusMetricBuilder restoredBuilder = createBuilder(url, new double[]{1, 10});
+        restoredBuilder.registerMetric("value");
+        try {
+            restoredBuilder.insertMetricValues(new double[]{7, 8, 9}, 1, new String[]{"WSO2", "east"});
+            restoredBuilder.insertMetricValues(new double[]{1, 2, 3}, 1, new String[]{"IBM", "west"});
+            restoredBuilder.restore(snapshot);
+            // the values are replaced rather than added, and the series which are not in the snapshot are removed
+            Assert.assertEquals(toLines(restoredBuilder), expectedLines);
+            restoredBuilder.restore(snapshot);
+            Assert.assertEquals(toLines(restoredBuilder), expectedLines);
+        } finally {
+            restoredBuilder.unregisterMetric();
+        }
+
+        PrometheusMetricBuilder nativeBuilder = createNativeBuilder(url);
+        nativeBuilder.registerMetric("value");
+        try {
+            nativeBuilder.insertValues(2.5, 3, new String[]{"WSO2"});
+            expectedLines = toLines(nativeBuilder);
+            snapshot = nativeBuilder.snapshot();
+            nativeBuilder.insertValues(-4, 2, new String[]{"WSO2"});
+            nativeBuilder.insertValues(1, 1, new String[]{"IBM"});
+            nativeBuilder.restore(snapshot);
+            Assert.assertEquals(toLines(nativeBuilder), expectedLines);
+        } finally {
+            nativeBuilder.unregisterMetric();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void truncatedSnapshotTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for a truncated snapshot");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9201";
+        PrometheusMetricBuilder metricBuilder = createBuilder(url, new double[]{1, 10});
+        metricBuilder.registerMetric("value");
+        try {
+            metricBuilder.insertMetricValues(new double[]{3, 4, 5}, 1, new String[]{"WSO2", "east"});
+            byte[] snapshot = metricBuilder.snapshot();
+            metricBuilder.restore(Arrays.copyOf(snapshot, snapshot.length - 3));
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void largeRegistrySnapshotTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus metric snapshot test for the cost of snapshots of many series");
+        log.info("----------------------------------------------------------------------------------");
+        String url = "http://localhost:9202";
+        int seriesCount = 100000;
+        PrometheusMetricBuilder metricBuilder = createBuilder(url, new double[]{1, 10, 100});
+        metricBuilder.registerMetric("value");
+        byte[] snapshot;
+        try {
+            for (int i = 0; i < seriesCount; i++) {
+                metricBuilder.insertMetricValues(new double[]{i, i, i % 200}, 1,
+                        new String[]{"symbol" + i, "region" + i % 16});
+            }
+            long start = System.nanoTime();
+            snapshot = metricBuilder.snapshot();
+            log.info("Snapshot of " + seriesCount + " series took " + (System.nanoTime() - start) / 1000000 +
+                    " ms and " + snapshot.length + " bytes");
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+
+        PrometheusMetricBuilder restoredBuilder = createBuilder(url, new double[]{1, 10, 100});
+        restoredBuilder.registerMetric("value");
+        try {
+            long start = System.nanoTime();
+            restoredBuilder.restore(snapshot);
+            log.info("Restore of " + seriesCount + " series took " + (System.nanoTime() - start) / 1000000 + " ms");
+            List<Collector.MetricFamilySamples> metricFamilySamples = restoredBuilder.collect();
+            // one sample per series for the counter and the gauge, six for the histogram
+            Assert.assertEquals(metricFamilySamples.get(0).samples.size(), seriesCount);
+            Assert.assertEquals(metricFamilySamples.get(2).samples.size(), seriesCount * 6);
+        } finally {
+            restoredBuilder.unregisterMetric();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for the native histograms of Prometheus sink metrics.
+ */
+public class PrometheusNativeHistogramTest {
+    private static final Logger log = LogManager.getLogger(PrometheusNativeHistogramTest.class);
+
+    @Test
+    public void nativeBucketIndexTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus native histogram test for the bucket indices of the schemas");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusNativeHistogram schemaZero = new PrometheusNativeHistogram("foo", "h",
+                Collections.emptyList(), new double[0], 0);
+        Assert.assertEquals(schemaZero.bucketIndex(1), 0);
+        Assert.assertEquals(schemaZero.bucketIndex(2), 1);
+        Assert.assertEquals(schemaZero.bucketIndex(3), 2);
+        Assert.assertEquals(schemaZero.bucketIndex(0.25), -2);
+        PrometheusNativeHistogram schemaThree = new PrometheusNativeHistogram("foo", "h",
+                Collections.emptyList(), new double[0], 3);
+        Assert.assertEquals(schemaThree.bucketIndex(1), 0);
+        Assert.assertEquals(schemaThree.bucketIndex(2), 8);
+        Assert.assertEquals(schemaThree.bucketIndex(Math.pow(2, 0.125)), 1);
+        Assert.assertEquals(schemaThree.bucketIndex(Math.pow(2, 0.125) + 0.01), 2);
+        PrometheusNativeHistogram negativeSchema = new PrometheusNativeHistogram("foo", "h",
+                Collections.emptyList(), new double[0], -1);
+        Assert.assertEquals(negativeSchema.bucketIndex(4), 1);
+        Assert.assertEquals(negativeSchema.bucketIndex(5), 2);
+        Assert.assertEquals(negativeSchema.bucketIndex(16), 2);
+    }
+
+    @Test
+    public void sparseBucketTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus native histogram test for the sparse buckets and the classic fallback");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusNativeHistogram histogram = new PrometheusNativeHistogram("foo", "h",
+                Collections.singletonList("symbol"), new double[]{1, 10}, 0);
+        PrometheusNativeHistogram.Child child = histogram.labels("WSO2");
+        for (double value : new double[]{1, 2, 8, 1000, -3, 0}) {
+            child.observe(value);
+        }
+        PrometheusNativeHistogram.Snapshot snapshot = child.snapshot();
+        Assert.assertTrue(Arrays.equals(snapshot.positiveIndices, new int[]{0, 1, 3, 10}));
+        Assert.assertTrue(Arrays.equals(snapshot.positiveCounts, new long[]{1, 1, 1, 1}));
+        Assert.assertTrue(Arrays.equals(snapshot.negativeIndices, new int[]{2}));
+        Assert.assertEquals(snapshot.zeroCount, 1L);
+
+        List<Collector.MetricFamilySamples> families = histogram.collect();
+        Assert.assertEquals(families.size(), 1);
+        List<Collector.MetricFamilySamples.Sample> samples = families.get(0).samples;
+        Assert.assertEquals(samples.get(0).labelValues, Arrays.asList("WSO2", "1.0"));
+        Assert.assertEquals(samples.get(0).value, 3.0);
+        Assert.assertEquals(samples.get(1).value, 5.0);
+        Assert.assertEquals(samples.get(2).labelValues, Arrays.asList("WSO2", "+Inf"));
+        Assert.assertEquals(samples.get(2).value, 6.0);
+        Assert.assertEquals(samples.get(3).name, "foo_count");
+        Assert.assertEquals(samples.get(3).value, 6.0);
+    }
+
+    @Test
+    public void nativeBucketEncodingTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus native histogram test for the protobuf encoding of the native buckets");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusNativeHistogram histogram = new PrometheusNativeHistogram("foo", "h",
+                Collections.emptyList(), new double[]{1}, 0);
+        histogram.labels().observe(2);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrometheusProtobufFormat.writeDelimited(outputStream, histogram.collect().get(0));
+        byte[] encoded = outputStream.toByteArray();
+        byte[] expectedTail = {
+                0x28, 0,
+                0x31, 0, 0, 0, 0, 0, 0, (byte) 0xF0, 0x37,
+                0x38, 0,
+                0x62, 4, 0x08, 2, 0x10, 1,
+                0x68, 2
+        };
+        Assert.assertEquals(Arrays.copyOfRange(encoded, encoded.length - expectedTail.length, encoded.length),
+                expectedTail);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test cases for the Netty exposition server, scraping it over raw connections so that the keep-alive and the
+ * encoding of the responses are visible to the test.
+ */
+public class PrometheusNettyExpositionServerTest {
+    private static final Logger log = LogManager.getLogger(PrometheusNettyExpositionServerTest.class);
+    private static final int PORT = 9209;
+    private static final int TIMEOUT = 10000;
+
+    @Test
+    public void keepAliveScrapeTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Netty exposition server test for two scrapes over one kept alive connection");
+        log.info("----------------------------------------------------------------------------------");
+        for (int workerThreads : new int[]{0, 2}) {
+            scrapeTwice(workerThreads, false);
+        }
+    }
+
+    @Test
+    public void gzipScrapeTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus Netty exposition server test for gzip encoded scrapes over one kept alive connection");
+        log.info("----------------------------------------------------------------------------------");
+        for (int workerThreads : new int[]{0, 2}) {
+            scrapeTwice(workerThreads, true);
+        }
+    }
+
+    private static void scrapeTwice(int workerThreads, boolean gzip) throws IOException {
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("netty_scrape_total", "total",
+                Collector.Type.COUNTER, new ArrayList<>(Collections.singletonList("symbol")));
+        metricBuilder.setRegistry("http://localhost:" + PORT, "NettyExpositionTestStream");
+        metricBuilder.registerMetric("value");
+        PrometheusExpositionServer server = new PrometheusNettyExpositionServer(new InetSocketAddress("localhost",
+                PORT), PrometheusRegistryHolder.retrieveExposition("localhost", PORT), 1, workerThreads);
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(TIMEOUT);
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            metricBuilder.insertValues(1, new String[]{"WSO2"});
+            Assert.assertEquals(scrape(outputStream, inputStream, gzip),
+                    "# HELP netty_scrape_total total\n# TYPE netty_scrape_total counter\n" +
+                            "netty_scrape_total{symbol=\"WSO2\",} 1.0\n", "worker threads " + workerThreads);
+            metricBuilder.insertValues(2, new String[]{"WSO2"});
+            // the second scrape is answered over the same connection with the current values
+            Assert.assertEquals(scrape(outputStream, inputStream, gzip),
+                    "# HELP netty_scrape_total total\n# TYPE netty_scrape_total counter\n" +
+                            "netty_scrape_total{symbol=\"WSO2\",} 3.0\n", "worker threads " + workerThreads);
+        } finally {
+            server.stop();
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    private static String scrape(OutputStream outputStream, InputStream inputStream, boolean gzip)
+            throws IOException {
+        String request = "GET /metrics HTTP/1.1\r\nHost: localhost:" + PORT + "\r\n" +
+                (gzip ? "Accept-Encoding: gzip\r\n" : "") + "\r\n";
+        outputStream.write(request.getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+        Assert.assertEquals(readLine(inputStream), "HTTP/1.1 200 OK");
+        Map<String, String> headers = new HashMap<>();
+        for (String line = readLine(inputStream); !line.isEmpty(); line = readLine(inputStream)) {
+            int separator = line.indexOf(':');
+            headers.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+        }
+        Assert.assertNotEquals(headers.get("connection"), "close");
+        Assert.assertEquals(headers.get("content-encoding"), gzip ? "gzip" : null);
+        byte[] body;
+        if ("chunked".equals(headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            for (int length = Integer.parseInt(readLine(inputStream), 16); length > 0;
+                 length = Integer.parseInt(readLine(inputStream), 16)) {
+                chunks.write(readFully(inputStream, length));
+                Assert.assertEquals(readLine(inputStream), "");
+            }
+            Assert.assertEquals(readLine(inputStream), "");
+            body = chunks.toByteArray();
+        } else {
+            body = readFully(inputStream, Integer.parseInt(headers.get("content-length")));
+        }
+        if (gzip) {
+            try (InputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                ByteArrayOutputStream text = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int length = gzipInputStream.read(buffer); length != -1;
+                     length = gzipInputStream.read(buffer)) {
+                    text.write(buffer, 0, length);
+                }
+                body = text.toByteArray();
+            }
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int read = inputStream.read(); read != '\n'; read = inputStream.read()) {
+            Assert.assertNotEquals(read, -1, "connection closed by the server");
+            if (read != '\r') {
+                line.append((char) read);
+            }
+        }
+        return line.toString();
+    }
+
+    private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int offset = 0; offset < length; ) {
+            int read = inputStream.read(bytes, offset, length - offset);
+            Assert.assertNotEquals(read, -1, "connection closed by the server");
+            offset += read;
+        }
+        return bytes;
+    }
+}
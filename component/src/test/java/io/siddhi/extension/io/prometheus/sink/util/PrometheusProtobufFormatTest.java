@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for the protobuf exposition format of Prometheus sink metrics.
+ */
+public class PrometheusProtobufFormatTest {
+    private static final Logger log = LogManager.getLogger(PrometheusProtobufFormatTest.class);
+
+    @Test
+    public void protobufCounterEncodingTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus protobuf format test for the wire encoding of a counter");
+        log.info("----------------------------------------------------------------------------------");
+        Collector.MetricFamilySamples counter = new Collector.MetricFamilySamples("foo", Collector.Type.COUNTER,
+                "h", Collections.singletonList(new Collector.MetricFamilySamples.Sample("foo",
+                Collections.singletonList("a"), Collections.singletonList("b"), 1.0)));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrometheusProtobufFormat.writeDelimited(outputStream, counter);
+        byte[] expected = {
+                31,
+                0x0A, 3, 'f', 'o', 'o',
+                0x12, 1, 'h',
+                0x18, 0,
+                0x22, 19,
+                0x0A, 6, 0x0A, 1, 'a', 0x12, 1, 'b',
+                0x1A, 9, 0x09, 0, 0, 0, 0, 0, 0, (byte) 0xF0, 0x3F
+        };
+        Assert.assertEquals(outputStream.toByteArray(), expected);
+    }
+
+    @Test
+    public void protobufHistogramGroupingTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus protobuf format test for grouping histogram samples by label set");
+        log.info("----------------------------------------------------------------------------------");
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (String symbol : new String[]{"WSO2", "IBM"}) {
+            samples.add(new Collector.MetricFamilySamples.Sample("bar_bucket", Arrays.asList("symbol", "le"),
+                    Arrays.asList(symbol, "1.0"), 2));
+            samples.add(new Collector.MetricFamilySamples.Sample("bar_bucket", Arrays.asList("symbol", "le"),
+                    Arrays.asList(symbol, "+Inf"), 3));
+            samples.add(new Collector.MetricFamilySamples.Sample("bar_count",
+                    Collections.singletonList("symbol"), Collections.singletonList(symbol), 3));
+            samples.add(new Collector.MetricFamilySamples.Sample("bar_sum",
+                    Collections.singletonList("symbol"), Collections.singletonList(symbol), 4.5));
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrometheusProtobufFormat.writeDelimited(outputStream, new Collector.MetricFamilySamples("bar",
+                Collector.Type.HISTOGRAM, "help", samples));
+        byte[] bytes = outputStream.toByteArray();
+        Assert.assertEquals(bytes[0], (byte) (bytes.length - 1));
+
+        List<byte[]> metrics = readMessages(bytes, 1, bytes.length, 4);
+        Assert.assertEquals(metrics.size(), 2);
+        byte[] metric = metrics.get(0);
+        List<byte[]> labels = readMessages(metric, 0, metric.length, 1);
+        Assert.assertEquals(labels.size(), 1);
+        Assert.assertEquals(new String(labels.get(0), StandardCharsets.UTF_8), "\n\u0006symbol\u0012\u0004WSO2");
+        List<byte[]> histograms = readMessages(metric, 0, metric.length, 7);
+        Assert.assertEquals(histograms.size(), 1);
+        byte[] histogram = histograms.get(0);
+        Assert.assertEquals(histogram[0], (byte) 0x08);
+        Assert.assertEquals(histogram[1], (byte) 3);
+        Assert.assertEquals(readMessages(histogram, 0, histogram.length, 3).size(), 2);
+    }
+
+    @Test
+    public void protobufNegotiationTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus exposition format test for content negotiation");
+        log.info("----------------------------------------------------------------------------------");
+        Assert.assertEquals(PrometheusExpositionFormat.negotiate(null), PrometheusExpositionFormat.TEXT);
+        Assert.assertEquals(PrometheusExpositionFormat.negotiate("text/plain;version=0.0.4;q=0.3,*/*;q=0.1"),
+                PrometheusExpositionFormat.TEXT);
+        Assert.assertEquals(PrometheusExpositionFormat.negotiate("application/vnd.google.protobuf;" +
+                        "proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.7," +
+                        "text/plain;version=0.0.4;q=0.3,*/*;q=0.1"),
+                PrometheusExpositionFormat.PROTOBUF);
+    }
+
+    /**
+     * Read the length delimited fields with the given field number, assuming lengths and tags below 128.
+     */
+    private static List<byte[]> readMessages(byte[] bytes, int from, int to, int field) {
+        List<byte[]> messages = new ArrayList<>();
+        int index = from;
+        while (index < to) {
+            int tag = bytes[index++];
+            switch (tag & 0x07) {
+                case 0:
+                    while ((bytes[index++] & 0x80) != 0) {
+                        // skip varint
+                    }
+                    break;
+                case 1:
+                    index += 8;
+                    break;
+                default:
+                    int length = bytes[index++];
+                    if (tag >>> 3 == field) {
+                        messages.add(Arrays.copyOfRange(bytes, index, index + length));
+                    }
+                    index += length;
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import io.siddhi.query.api.definition.Attribute;
+import io.siddhi.query.api.definition.StreamDefinition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test cases for the publish plans of Prometheus sinks.
+ */
+public class PrometheusPublishPlanTest {
+    private static final Logger log = LogManager.getLogger(PrometheusPublishPlanTest.class);
+
+    @Test
+    public void batchValueExtractionTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus publish plan test for batches of values and observation counts");
+        log.info("----------------------------------------------------------------------------------");
+        StreamDefinition streamDefinition = StreamDefinition.id("LatencyStream")
+                .attribute("service", Attribute.Type.STRING)
+                .attribute("samples", Attribute.Type.OBJECT)
+                .attribute("repeats", Attribute.Type.LONG)
+                .attribute("region", Attribute.Type.STRING);
+        PrometheusPublishPlan publishPlan = PrometheusPublishPlan.compile(streamDefinition, "samples", "repeats");
+        Assert.assertTrue(publishPlan.isBatch());
+
+        double[] samples = {0.1, 0.2, 0.3};
+        Object[] data = {"checkout", samples, 3L, "eu"};
+        Assert.assertSame(publishPlan.extractValues(data), samples);
+        Assert.assertEquals(publishPlan.extractCount(data), 3L);
+        Assert.assertEquals(Arrays.asList(publishPlan.extractLabels(data)), Arrays.asList("checkout", "eu"));
+
+        Map<String, Object> attributeMap = new HashMap<>();
+        attributeMap.put("service", "checkout");
+        attributeMap.put("samples", new int[]{1, 2});
+        attributeMap.put("repeats", 1L);
+        attributeMap.put("region", "us");
+        Assert.assertTrue(Arrays.equals(publishPlan.extractValues(attributeMap), new double[]{1, 2}));
+        Assert.assertEquals(Arrays.asList(publishPlan.extractLabels(attributeMap)), Arrays.asList("checkout", "us"));
+    }
+
+    @Test
+    public void metricValueExtractionTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus publish plan test for the values of additional metrics");
+        log.info("----------------------------------------------------------------------------------");
+        StreamDefinition streamDefinition = StreamDefinition.id("RequestStream")
+                .attribute("service", Attribute.Type.STRING)
+                .attribute("latency", Attribute.Type.DOUBLE)
+                .attribute("bytes", Attribute.Type.LONG)
+                .attribute("region", Attribute.Type.STRING)
+                .attribute("errors", Attribute.Type.INT);
+        PrometheusPublishPlan publishPlan = PrometheusPublishPlan.compile(streamDefinition, "latency", null,
+                new String[]{"bytes", "latency", "errors"});
+
+        Object[] data = {"checkout", 0.25, 512L, "eu", 2};
+        Assert.assertTrue(Arrays.equals(publishPlan.extractMetricValues(data), new double[]{0.25, 512, 0.25, 2}));
+        Assert.assertEquals(publishPlan.extractCount(data), 1L);
+        Assert.assertEquals(Arrays.asList(publishPlan.extractLabels(data)), Arrays.asList("checkout", "eu"));
+
+        Map<String, Object> attributeMap = new HashMap<>();
+        attributeMap.put("service", "checkout");
+        attributeMap.put("latency", 0.5);
+        attributeMap.put("bytes", 1024L);
+        attributeMap.put("region", "us");
+        attributeMap.put("errors", 0);
+        Assert.assertTrue(Arrays.equals(publishPlan.extractMetricValues(attributeMap),
+                new double[]{0.5, 1024, 0.5, 0}));
+        Assert.assertEquals(Arrays.asList(publishPlan.extractLabels(attributeMap)), Arrays.asList("checkout", "us"));
+    }
+
+    @Test(expectedExceptions = SiddhiAppRuntimeException.class)
+    public void invalidBatchValueTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus publish plan test for an object value which is not a batch of values");
+        log.info("----------------------------------------------------------------------------------");
+        StreamDefinition streamDefinition = StreamDefinition.id("LatencyStream")
+                .attribute("service", Attribute.Type.STRING)
+                .attribute("samples", Attribute.Type.OBJECT);
+        PrometheusPublishPlan publishPlan = PrometheusPublishPlan.compile(streamDefinition, "samples");
+        publishPlan.extractValues(new Object[]{"checkout", "0.1,0.2"});
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test cases for replaying the buffered pushes of Prometheus sink against a stand-in pushGateway.
+ */
+public class PrometheusPushBufferTest {
+    private static final Logger log = LogManager.getLogger(PrometheusPushBufferTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private final List<String> receivedPushes = new CopyOnWriteArrayList<>();
+    private volatile boolean available;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("prometheus-push-buffer").toFile();
+        receivedPushes.clear();
+        available = true;
+    }
+
+    @AfterMethod
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test
+    public void pushBufferOutageTest() throws IOException, InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push buffer test for sending the latest push once the pushGateway recovers");
+        log.info("----------------------------------------------------------------------------------");
+        available = false;
+        PrometheusPushBuffer pushBuffer = new PrometheusPushBuffer(directory, 1 << 20, 1 << 16, "TestStream");
+        pushBuffer.start(this::push);
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Void> appendResult = pushBuffer.append(text(i), i % 2 == 0);
+            // the push completes once it is buffered, regardless of the pushGateway
+            Assert.assertTrue(appendResult.isDone());
+            Assert.assertFalse(appendResult.isCompletedExceptionally());
+        }
+        Thread.sleep(300);
+        Assert.assertTrue(receivedPushes.isEmpty());
+        // every push carries the current state of the metrics, hence only the latest push stays buffered
+        Assert.assertEquals(pushBuffer.size(), 1);
+        available = true;
+        waitForPushes(1);
+        waitForSize(pushBuffer, 0);
+        Assert.assertEquals(receivedPushes, expectedPushes(4, 5));
+        pushBuffer.stop(TIMEOUT);
+    }
+
+    @Test
+    public void pushBufferRestartTest() throws IOException, InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push buffer test for sending the push buffered before a restart");
+        log.info("----------------------------------------------------------------------------------");
+        available = false;
+        PrometheusPushBuffer pushBuffer = new PrometheusPushBuffer(directory, 1 << 20, 1 << 16, "TestStream");
+        pushBuffer.start(this::push);
+        for (int i = 0; i < 3; i++) {
+            pushBuffer.append(text(i), i % 2 == 0);
+        }
+        pushBuffer.stop(TIMEOUT);
+        Assert.assertTrue(receivedPushes.isEmpty());
+        available = true;
+        pushBuffer = new PrometheusPushBuffer(directory, 1 << 20, 1 << 16, "TestStream");
+        Assert.assertEquals(pushBuffer.size(), 1);
+        pushBuffer.start(this::push);
+        waitForPushes(1);
+        pushBuffer.append(text(3), false);
+        waitForPushes(2);
+        Assert.assertEquals(receivedPushes, expectedPushes(2, 4));
+        pushBuffer.stop(TIMEOUT);
+    }
+
+    @Test
+    public void pushBufferRejectionTest() throws IOException, InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push buffer test for dropping a push rejected by the pushGateway");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusPushBuffer pushBuffer = new PrometheusPushBuffer(directory, 1 << 20, 1 << 16, "TestStream");
+        pushBuffer.start((text, replace) -> {
+            if (new String(text, StandardCharsets.UTF_8).equals("push_1 1")) {
+                CompletableFuture<Void> pushResult = new CompletableFuture<>();
+                pushResult.completeExceptionally(new PrometheusResponseException(
+                        "Response code was 400", 400));
+                return pushResult;
+            }
+            return push(text, replace);
+        });
+        for (int i = 0; i < 3; i++) {
+            pushBuffer.append(text(i), i % 2 == 0);
+            waitForSize(pushBuffer, 0);
+        }
+        List<String> expected = expectedPushes(0, 3);
+        expected.remove(1);
+        Assert.assertEquals(receivedPushes, expected);
+        pushBuffer.stop(TIMEOUT);
+        Assert.assertEquals(pushBuffer.size(), 0);
+    }
+
+    @Test
+    public void pushBufferDiskUsageTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push buffer test for bounding the disk usage by the maximum size");
+        log.info("----------------------------------------------------------------------------------");
+        long maxSize = 1024 * 3 + 512;
+        PrometheusPushBuffer pushBuffer = new PrometheusPushBuffer(directory, maxSize, 1024, "TestStream");
+        for (int i = 0; i < 500; i++) {
+            pushBuffer.append(text(i), true);
+            long diskUsage = 0;
+            File[] segmentFiles = directory.listFiles((dir, name) ->
+                    name.endsWith(PrometheusSegmentLog.SEGMENT_SUFFIX));
+            for (File segmentFile : segmentFiles) {
+                diskUsage += segmentFile.length();
+            }
+            Assert.assertTrue(diskUsage <= maxSize, "disk usage of " + diskUsage + " bytes");
+        }
+        Assert.assertEquals(pushBuffer.size(), 1);
+        pushBuffer.stop(TIMEOUT);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void pushBufferSegmentCountTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push buffer test for rejecting a maximum size which does not hold two segments");
+        log.info("----------------------------------------------------------------------------------");
+        new PrometheusPushBuffer(directory, 1024 + 512, 1024, "TestStream");
+    }
+
+    private CompletableFuture<Void> push(byte[] text, boolean replace) {
+        CompletableFuture<Void> pushResult = new CompletableFuture<>();
+        if (available) {
+            receivedPushes.add((replace ? "PUT " : "POST ") + new String(text, StandardCharsets.UTF_8));
+            pushResult.complete(null);
+        } else {
+            pushResult.completeExceptionally(new ConnectException("Unable to connect to pushGateway"));
+        }
+        return pushResult;
+    }
+
+    private void waitForPushes(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (receivedPushes.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitForSize(PrometheusPushBuffer pushBuffer, long size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (pushBuffer.size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] text(int index) {
+        return ("push_" + index + " " + index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> expectedPushes(int from, int to) {
+        List<String> pushes = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            pushes.add((i % 2 == 0 ? "PUT " : "POST ") + "push_" + i + " " + i);
+        }
+        return pushes;
+    }
+}
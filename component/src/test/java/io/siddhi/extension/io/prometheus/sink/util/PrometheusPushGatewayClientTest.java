@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test cases for the pushGateway client of Prometheus sink, against an in-process stand-in pushGateway which records
+ * the pushes it receives.
+ */
+public class PrometheusPushGatewayClientTest {
+    private static final Logger log = LogManager.getLogger(PrometheusPushGatewayClientTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer pushGateway;
+    private URL pushGatewayURL;
+    private final List<String> receivedPushes = new CopyOnWriteArrayList<>();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile int responseCode;
+
+    @BeforeMethod
+    public void startPushGateway() throws IOException {
+        receivedPushes.clear();
+        clientPorts.clear();
+        responseCode = 202;
+        pushGateway = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        pushGateway.createContext("/metrics", exchange -> {
+            byte[] body;
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                body = readFully(inputStream);
+            }
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            if ("gzip".equals(encoding)) {
+                body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            receivedPushes.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawPath() + " " +
+                    encoding + "\n" + new String(body, StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(responseCode, -1);
+            exchange.close();
+        });
+        pushGateway.start();
+        pushGatewayURL = new URL("http://localhost:" + pushGateway.getAddress().getPort());
+    }
+
+    @AfterMethod
+    public void stopPushGateway() {
+        pushGateway.stop(0);
+    }
+
+    @Test
+    public void pushOperationTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus pushGateway client test for the methods and the paths of push and pushadd");
+        log.info("----------------------------------------------------------------------------------");
+        Map<String, String> groupingKey = new LinkedHashMap<>();
+        groupingKey.put("instance", "host 1");
+        groupingKey.put("purpose", "test/push");
+        PrometheusPushGatewayClient client = new PrometheusPushGatewayClient(pushGatewayURL, "test job",
+                groupingKey, 2, false, null, null, "TestStream");
+        try {
+            client.push(Collections.enumeration(createMetrics(1.0)), true).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            client.push(PrometheusPushGatewayClient.encodeText(Collections.enumeration(createMetrics(2.0))), false)
+                    .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } finally {
+            client.shutdown();
+        }
+        String path = "/metrics/job/test+job/instance/host+1/purpose/test%2Fpush";
+        Assert.assertEquals(receivedPushes.size(), 2);
+        Assert.assertEquals(receivedPushes.get(0), "PUT " + path + " null\n" + expectedText(1.0));
+        Assert.assertEquals(receivedPushes.get(1), "POST " + path + " null\n" + expectedText(2.0));
+    }
+
+    @Test
+    public void gzipPushTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus pushGateway client test for gzip compressed pushes");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusPushGatewayClient client = new PrometheusPushGatewayClient(pushGatewayURL, "test",
+                Collections.emptyMap(), 2, true, null, null, "TestStream");
+        try {
+            client.push(Collections.enumeration(createMetrics(1.0)), false).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            client.push(PrometheusPushGatewayClient.encodeText(Collections.enumeration(createMetrics(2.0))), true)
+                    .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } finally {
+            client.shutdown();
+        }
+        Assert.assertEquals(receivedPushes.size(), 2);
+        Assert.assertEquals(receivedPushes.get(0), "POST /metrics/job/test gzip\n" + expectedText(1.0));
+        Assert.assertEquals(receivedPushes.get(1), "PUT /metrics/job/test gzip\n" + expectedText(2.0));
+    }
+
+    @Test
+    public void connectionPoolTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus pushGateway client test for reusing the keep-alive connections of the pool");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusPushGatewayClient client = new PrometheusPushGatewayClient(pushGatewayURL, "test",
+                Collections.emptyMap(), 2, false, null, null, "TestStream");
+        try {
+            for (int i = 0; i < 20; i++) {
+                client.push(Collections.enumeration(createMetrics(i)), false).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            client.shutdown();
+        }
+        Assert.assertEquals(receivedPushes.size(), 20);
+        // without keep-alive each push would open a connection of its own
+        Assert.assertTrue(clientPorts.size() <= 2, "Connections opened: " + clientPorts.size());
+    }
+
+    @Test
+    public void rejectedPushTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus pushGateway client test for mapping the response codes of rejected pushes");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusPushGatewayClient client = new PrometheusPushGatewayClient(pushGatewayURL, "test",
+                Collections.emptyMap(), 2, false, null, null, "TestStream");
+        try {
+            int[] responseCodes = {400, 429, 500, 503};
+            boolean[] recoverable = {false, true, true, true};
+            for (int i = 0; i < responseCodes.length; i++) {
+                responseCode = responseCodes[i];
+                PrometheusResponseException exception = (PrometheusResponseException) pushFailure(client);
+                Assert.assertEquals(exception.getStatusCode(), responseCodes[i]);
+                Assert.assertEquals(exception.isRecoverable(), recoverable[i]);
+            }
+            responseCode = 200;
+            client.push(Collections.enumeration(createMetrics(1.0)), false).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void unreachablePushGatewayTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus pushGateway client test for pushing while the pushGateway is not listening");
+        log.info("----------------------------------------------------------------------------------");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        PrometheusPushGatewayClient client = new PrometheusPushGatewayClient(new URL("http://localhost:" + port),
+                "test", Collections.emptyMap(), 2, false, null, null, "TestStream");
+        try {
+            Assert.assertTrue(pushFailure(client) instanceof ConnectException);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    private static Throwable pushFailure(PrometheusPushGatewayClient client)
+            throws InterruptedException, TimeoutException {
+        try {
+            client.push(Collections.enumeration(createMetrics(1.0)), false).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Push was expected to fail");
+    }
+
+    private static List<Collector.MetricFamilySamples> createMetrics(double value) {
+        return Collections.singletonList(new Collector.MetricFamilySamples("foo", Collector.Type.GAUGE, "h",
+                Collections.singletonList(new Collector.MetricFamilySamples.Sample("foo",
+                        Collections.singletonList("symbol"), Collections.singletonList("WSO2"), value))));
+    }
+
+    private static String expectedText(double value) {
+        return "# HELP foo h\n# TYPE foo gauge\nfoo{symbol=\"WSO2\",} " + value + "\n";
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for the background pushes of Prometheus sink.
+ */
+public class PrometheusPushSchedulerTest {
+    private static final Logger log = LogManager.getLogger(PrometheusPushSchedulerTest.class);
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void pushFailureRetryTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push scheduler test for pushing the updates of a failed push again");
+        log.info("----------------------------------------------------------------------------------");
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger acceptedPushes = new AtomicInteger();
+        AtomicReference<Thread> pushThread = new AtomicReference<>();
+        PrometheusPushScheduler pushScheduler = new PrometheusPushScheduler(() -> {
+            pushThread.set(Thread.currentThread());
+            CompletableFuture<Void> pushResult = new CompletableFuture<>();
+            if (attempts.incrementAndGet() <= 2) {
+                pushResult.completeExceptionally(new ConnectException("Unable to connect to pushGateway"));
+            } else {
+                acceptedPushes.incrementAndGet();
+                pushResult.complete(null);
+            }
+            return pushResult;
+        }, 50, "TestStream");
+        pushScheduler.start();
+        pushScheduler.markDirty();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (acceptedPushes.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(acceptedPushes.get(), 1);
+        Assert.assertEquals(attempts.get(), 3);
+        Assert.assertTrue(pushThread.get().isDaemon());
+        Assert.assertEquals(pushThread.get().getName(), "prometheus-push-scheduler-TestStream-1");
+        // the registry is clean once the push is accepted, hence nothing else is pushed
+        Thread.sleep(200);
+        Assert.assertEquals(attempts.get(), 3);
+        pushScheduler.stop(TIMEOUT);
+        Assert.assertEquals(attempts.get(), 3);
+    }
+
+    @Test
+    public void immediatePushRetryTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push scheduler test for retrying a failed push without further updates");
+        log.info("----------------------------------------------------------------------------------");
+        List<Long> attemptTimes = new CopyOnWriteArrayList<>();
+        AtomicInteger acceptedPushes = new AtomicInteger();
+        PrometheusPushScheduler pushScheduler = new PrometheusPushScheduler(() -> {
+            attemptTimes.add(System.nanoTime());
+            CompletableFuture<Void> pushResult = new CompletableFuture<>();
+            if (attemptTimes.size() <= 3) {
+                pushResult.completeExceptionally(new ConnectException("Unable to connect to pushGateway"));
+            } else {
+                acceptedPushes.incrementAndGet();
+                pushResult.complete(null);
+            }
+            return pushResult;
+        }, 0, "TestStream");
+        pushScheduler.start();
+        pushScheduler.markDirty();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (attemptTimes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // the updates arriving while a retry is pending wait for the retry
+        for (int i = 0; i < 5; i++) {
+            pushScheduler.markDirty();
+        }
+        Assert.assertEquals(attemptTimes.size(), 1);
+        while (acceptedPushes.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(acceptedPushes.get(), 1);
+        Assert.assertEquals(attemptTimes.size(), 4);
+        // the retries back off exponentially
+        for (int i = 1; i < attemptTimes.size(); i++) {
+            long delay = TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(i) - attemptTimes.get(i - 1));
+            Assert.assertTrue(delay >= 100L << (i - 1), "delay of retry " + i + " was " + delay + " ms");
+        }
+        // the registry is clean once the push is accepted, hence nothing else is pushed
+        Thread.sleep(200);
+        pushScheduler.stop(TIMEOUT);
+        Assert.assertEquals(attemptTimes.size(), 4);
+    }
+
+    @Test
+    public void pushCoalescingTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus push scheduler test for coalescing the updates into the pending push");
+        log.info("----------------------------------------------------------------------------------");
+        AtomicInteger attempts = new AtomicInteger();
+        PrometheusPushScheduler pushScheduler = new PrometheusPushScheduler(() -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, 60000, "TestStream");
+        pushScheduler.start();
+        for (int i = 0; i < 100; i++) {
+            pushScheduler.markDirty();
+        }
+        Assert.assertEquals(attempts.get(), 0);
+        // the pending updates are pushed once when the scheduler stops
+        pushScheduler.stop(TIMEOUT);
+        Assert.assertEquals(attempts.get(), 1);
+    }
+}
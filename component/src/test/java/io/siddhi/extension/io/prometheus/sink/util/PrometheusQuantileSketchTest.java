@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the sketch backed summaries of Prometheus sink metrics.
+ */
+public class PrometheusQuantileSketchTest {
+    private static final Logger log = LogManager.getLogger(PrometheusQuantileSketchTest.class);
+
+    @Test
+    public void sketchRelativeErrorTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus quantile sketch test for the relative error of the quantiles");
+        log.info("----------------------------------------------------------------------------------");
+        double relativeError = 0.01;
+        PrometheusQuantileSketch sketch = new PrometheusQuantileSketch(
+                PrometheusQuantileSketch.toPrecision(relativeError));
+        for (int i = 1; i <= 100000; i++) {
+            sketch.add(i);
+        }
+        double[] quantiles = {0.0, 0.5, 0.9, 0.99, 1.0};
+        double[] values = sketch.quantiles(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            double expected = 1 + quantiles[i] * 99999;
+            Assert.assertTrue(Math.abs(values[i] - expected) <= expected * relativeError,
+                    "quantile " + quantiles[i] + " estimated as " + values[i]);
+        }
+    }
+
+    @Test
+    public void sketchSignedValuesTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus quantile sketch test for negative, zero and empty sketches");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusQuantileSketch sketch = new PrometheusQuantileSketch(6);
+        Assert.assertTrue(Double.isNaN(sketch.quantiles(new double[]{0.5})[0]));
+        for (double value : new double[]{-100, -1, 0, 1, 100}) {
+            sketch.add(value);
+        }
+        double[] values = sketch.quantiles(new double[]{0.0, 0.25, 0.5, 0.75, 1.0});
+        Assert.assertTrue(Math.abs(values[0] + 100) <= 1);
+        Assert.assertTrue(Math.abs(values[1] + 1) <= 0.01);
+        Assert.assertEquals(values[2], 0.0);
+        Assert.assertTrue(Math.abs(values[3] - 1) <= 0.01);
+        Assert.assertTrue(Math.abs(values[4] - 100) <= 1);
+    }
+
+    @Test
+    public void sketchMergeTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus quantile sketch test for merging sketches");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusQuantileSketch lower = new PrometheusQuantileSketch(6);
+        PrometheusQuantileSketch upper = new PrometheusQuantileSketch(6);
+        for (int i = 1; i <= 1000; i++) {
+            lower.add(i);
+            upper.add(1000 + i);
+        }
+        lower.merge(upper);
+        double median = lower.quantiles(new double[]{0.5})[0];
+        Assert.assertTrue(Math.abs(median - 1000) <= 1000 / 128.0, "median estimated as " + median);
+    }
+
+    @Test
+    public void sketchSummaryConcurrencyTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus sketch summary test for concurrent observations");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusSketchSummary summary = new PrometheusSketchSummary("foo", "h",
+                Collections.singletonList("symbol"), new double[]{0.5, 0.99}, 0.01);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executorService.execute(() -> {
+                PrometheusSketchSummary.Child child = summary.labels("WSO2");
+                for (int i = 1; i <= 10000; i++) {
+                    child.observe(i);
+                }
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        List<Collector.MetricFamilySamples.Sample> samples = summary.collect().get(0).samples;
+        Assert.assertEquals(samples.size(), 4);
+        Assert.assertEquals(samples.get(0).labelValues.get(1), "0.5");
+        Assert.assertTrue(Math.abs(samples.get(0).value - 5000) <= 50);
+        Assert.assertEquals(samples.get(2).name, "foo_count");
+        Assert.assertEquals(samples.get(2).value, 40000.0);
+        Assert.assertEquals(samples.get(3).value, 4 * 50005000.0);
+    }
+
+    @Test
+    public void weightedObservationTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus sketch summary test for observations with a weight");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusSketchSummary summary = new PrometheusSketchSummary("foo", "h", Collections.emptyList(),
+                new double[]{0.5, 0.95}, 0.01);
+        PrometheusSketchSummary.Child child = summary.labels();
+        child.observe(10, 90);
+        child.observe(1000, 10);
+        List<Collector.MetricFamilySamples.Sample> samples = summary.collect().get(0).samples;
+        Assert.assertTrue(Math.abs(samples.get(0).value - 10) <= 0.1);
+        Assert.assertTrue(Math.abs(samples.get(1).value - 1000) <= 10);
+        Assert.assertEquals(samples.get(2).value, 100.0);
+        Assert.assertEquals(samples.get(3).value, 10900.0);
+    }
+}
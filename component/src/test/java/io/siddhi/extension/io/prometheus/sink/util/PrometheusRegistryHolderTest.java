@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for sharing the registries and the HTTP servers of the endpoints between Prometheus sinks. The
+ * servers are stand-ins which only record when they are started and stopped.
+ */
+public class PrometheusRegistryHolderTest {
+    private static final Logger log = LogManager.getLogger(PrometheusRegistryHolderTest.class);
+    private static final String HOST = "localhost";
+
+    private final List<InetSocketAddress> startedServers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger stoppedServers = new AtomicInteger();
+
+    private final PrometheusExpositionServer.Factory serverFactory = (address, exposition) -> {
+        startedServers.add(address);
+        return stoppedServers::incrementAndGet;
+    };
+
+    @Test
+    public void sharedServerTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus registry holder test for reference counting the sinks attached to a server");
+        log.info("----------------------------------------------------------------------------------");
+        startedServers.clear();
+        stoppedServers.set(0);
+        int port = 19301;
+        PrometheusRegistryHolder.attachServer(HOST, port, serverFactory);
+        PrometheusRegistryHolder.attachServer(HOST, port, serverFactory);
+        Assert.assertEquals(startedServers.size(), 1);
+        Assert.assertEquals(startedServers.get(0), new InetSocketAddress(HOST, port));
+
+        Assert.assertFalse(PrometheusRegistryHolder.detachServer(HOST, port));
+        Assert.assertEquals(stoppedServers.get(), 0);
+        Assert.assertTrue(PrometheusRegistryHolder.detachServer(HOST, port));
+        Assert.assertEquals(stoppedServers.get(), 1);
+        // detaching a sink which is not attached leaves the endpoint stopped
+        Assert.assertFalse(PrometheusRegistryHolder.detachServer(HOST, port));
+        Assert.assertEquals(stoppedServers.get(), 1);
+
+        // the first sink attached after the last one detached starts the server again
+        PrometheusRegistryHolder.attachServer(HOST, port, serverFactory);
+        Assert.assertEquals(startedServers.size(), 2);
+        Assert.assertTrue(PrometheusRegistryHolder.detachServer(HOST, port));
+        Assert.assertEquals(stoppedServers.get(), 2);
+    }
+
+    @Test
+    public void failedServerStartTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus registry holder test for a server which could not be started");
+        log.info("----------------------------------------------------------------------------------");
+        startedServers.clear();
+        stoppedServers.set(0);
+        int port = 19302;
+        try {
+            PrometheusRegistryHolder.attachServer(HOST, port, (address, exposition) -> {
+                throw new IOException("Address already in use");
+            });
+            Assert.fail("Attaching to a server which could not be started was expected to fail");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Address already in use");
+        }
+        // the failed sink was not attached, hence the next sink starts the server
+        Assert.assertFalse(PrometheusRegistryHolder.detachServer(HOST, port));
+        PrometheusRegistryHolder.attachServer(HOST, port, serverFactory);
+        Assert.assertEquals(startedServers.size(), 1);
+        Assert.assertTrue(PrometheusRegistryHolder.detachServer(HOST, port));
+        Assert.assertEquals(stoppedServers.get(), 1);
+    }
+
+    @Test
+    public void endpointRegistryTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus registry holder test for the registries of the endpoints");
+        log.info("----------------------------------------------------------------------------------");
+        Assert.assertSame(PrometheusRegistryHolder.retrieveRegistry(HOST, 19303),
+                PrometheusRegistryHolder.retrieveRegistry(HOST, 19303));
+        Assert.assertNotSame(PrometheusRegistryHolder.retrieveRegistry(HOST, 19303),
+                PrometheusRegistryHolder.retrieveRegistry(HOST, 19304));
+        Assert.assertNotSame(PrometheusRegistryHolder.retrieveRegistry(HOST, 19303),
+                PrometheusRegistryHolder.retrieveRegistry("127.0.0.1", 19303));
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for the remote write client of Prometheus sink, against an in-process stand-in receiver which decodes
+ * the snappy compressed write requests.
+ */
+public class PrometheusRemoteWriteClientTest {
+    private static final Logger log = LogManager.getLogger(PrometheusRemoteWriteClientTest.class);
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer receiver;
+    private URL receiverURL;
+    private final List<List<String>> receivedRequests = new CopyOnWriteArrayList<>();
+    private final List<String> receivedHeaders = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failedResponses = new AtomicInteger();
+    private volatile int failureCode;
+
+    @BeforeMethod
+    public void startReceiver() throws IOException {
+        receivedRequests.clear();
+        receivedHeaders.clear();
+        failedResponses.set(0);
+        receiver = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        receiver.createContext("/api/v1/write", exchange -> {
+            byte[] body;
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                body = readFully(inputStream);
+            }
+            if (failedResponses.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(failureCode, -1);
+                exchange.close();
+                return;
+            }
+            receivedHeaders.add(exchange.getRequestHeaders().getFirst("Content-Encoding") + " " +
+                    exchange.getRequestHeaders().getFirst("Content-Type") + " " +
+                    exchange.getRequestHeaders().getFirst("X-Prometheus-Remote-Write-Version"));
+            receivedRequests.add(decodeWriteRequest(PrometheusSnappy.uncompress(body)));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        receiver.start();
+        receiverURL = new URL("http://localhost:" + receiver.getAddress().getPort() + "/api/v1/write");
+    }
+
+    @AfterMethod
+    public void stopReceiver() {
+        receiver.stop(0);
+    }
+
+    @Test
+    public void snappyRoundTripTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for the snappy compression of write requests");
+        log.info("----------------------------------------------------------------------------------");
+        Random random = new Random(7);
+        byte[] randomBytes = new byte[100000];
+        random.nextBytes(randomBytes);
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            repeated.append("foo_bucket{symbol=\"WSO2\",le=\"").append(i % 10).append("\"} ");
+        }
+        byte[] repeatedBytes = repeated.toString().getBytes(StandardCharsets.UTF_8);
+        for (byte[] input : new byte[][]{new byte[0], {42}, randomBytes, repeatedBytes}) {
+            byte[] compressed = PrometheusSnappy.compress(input, input.length);
+            Assert.assertEquals(PrometheusSnappy.uncompress(compressed), input);
+        }
+        Assert.assertTrue(PrometheusSnappy.compress(repeatedBytes, repeatedBytes.length).length <
+                repeatedBytes.length / 10);
+    }
+
+    @Test
+    public void remoteWriteEncodingTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for the wire encoding of a write request");
+        log.info("----------------------------------------------------------------------------------");
+        List<PrometheusRemoteWriteFormat.TimeSeries> timeSeries = PrometheusRemoteWriteFormat.toTimeSeries(
+                Collections.singletonList(new Collector.MetricFamilySamples("a", Collector.Type.GAUGE, "h",
+                        Collections.singletonList(new Collector.MetricFamilySamples.Sample("a",
+                                Collections.emptyList(), Collections.emptyList(), 1.0)))),
+                Collections.emptyMap(), 5);
+        byte[] expected = {
+                0x0A, 28,
+                0x0A, 13, 0x0A, 8, '_', '_', 'n', 'a', 'm', 'e', '_', '_', 0x12, 1, 'a',
+                0x12, 11, 0x09, 0, 0, 0, 0, 0, 0, (byte) 0xF0, 0x3F, 0x10, 5
+        };
+        Assert.assertEquals(PrometheusSnappy.uncompress(PrometheusRemoteWriteFormat.encode(timeSeries)), expected);
+    }
+
+    @Test
+    public void remoteWriteShardingTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for sending the samples through several shards");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusRemoteWriteClient client = new PrometheusRemoteWriteClient(receiverURL,
+                Collections.singletonMap("job", "test"), 3, 100, 2, 10, 100, null, null, "TestStream");
+        List<Collector.MetricFamilySamples> metrics = createMetrics(10);
+        client.start(() -> metrics, TIMEOUT * 6);
+        // the last collection is sent when the client is stopped
+        client.stop(TIMEOUT);
+        List<String> received = new ArrayList<>();
+        for (List<String> request : receivedRequests) {
+            Assert.assertTrue(request.size() <= 2);
+            received.addAll(request);
+        }
+        Assert.assertEquals(new HashSet<>(received), expectedSamples(10));
+        Assert.assertEquals(received.size(), 10);
+        for (String headers : receivedHeaders) {
+            Assert.assertEquals(headers, "snappy application/x-protobuf 0.1.0");
+        }
+        Assert.assertEquals(client.getDroppedSamples(), 0);
+    }
+
+    @Test
+    public void remoteWriteRetryTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for retrying requests failed with a server error");
+        log.info("----------------------------------------------------------------------------------");
+        failureCode = 503;
+        failedResponses.set(3);
+        PrometheusRemoteWriteClient client = new PrometheusRemoteWriteClient(receiverURL,
+                Collections.singletonMap("job", "test"), 1, 100, 100, 10, 40, null, null, "TestStream");
+        // the samples are queued before the shards start, so that they are sent in a single request
+        client.append(createMetrics(4), 1000);
+        client.start(() -> createMetrics(4), TIMEOUT * 6);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (receivedRequests.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(receivedRequests.size(), 1);
+        Assert.assertEquals(new HashSet<>(receivedRequests.get(0)), expectedSamples(4));
+        client.stop(TIMEOUT);
+        Assert.assertEquals(client.getDroppedSamples(), 0);
+    }
+
+    @Test
+    public void remoteWriteRejectionTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for dropping requests rejected by the receiver");
+        log.info("----------------------------------------------------------------------------------");
+        failureCode = 400;
+        failedResponses.set(1);
+        PrometheusRemoteWriteClient client = new PrometheusRemoteWriteClient(receiverURL,
+                Collections.singletonMap("job", "test"), 1, 100, 100, 10, 40, null, null, "TestStream");
+        client.append(createMetrics(4), 1000);
+        client.start(() -> createMetrics(4), TIMEOUT * 6);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (client.getDroppedSamples() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(client.getDroppedSamples(), 4);
+        Assert.assertTrue(receivedRequests.isEmpty());
+        client.stop(TIMEOUT);
+    }
+
+    @Test
+    public void remoteWriteQueueCapacityTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus remote write test for dropping samples beyond the queue capacity");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusRemoteWriteClient client = new PrometheusRemoteWriteClient(receiverURL,
+                Collections.singletonMap("job", "test"), 1, 5, 100, 10, 40, null, null, "TestStream");
+        // the shards are not started, hence the queue is never drained
+        client.append(createMetrics(8), 1000);
+        Assert.assertEquals(client.getDroppedSamples(), 3);
+    }
+
+    private static List<Collector.MetricFamilySamples> createMetrics(int seriesCount) {
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < seriesCount; i++) {
+            samples.add(new Collector.MetricFamilySamples.Sample("foo", Arrays.asList("symbol", "job"),
+                    Arrays.asList("S" + i, "sink"), i));
+        }
+        return Collections.singletonList(new Collector.MetricFamilySamples("foo", Collector.Type.GAUGE, "h",
+                samples));
+    }
+
+    // the sample labels take precedence over the external labels
+    private static Set<String> expectedSamples(int seriesCount) {
+        Set<String> samples = new HashSet<>();
+        for (int i = 0; i < seriesCount; i++) {
+            samples.add("{__name__=foo, job=sink, symbol=S" + i + "} " + (double) i);
+        }
+        return samples;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Decode the time series of a write request as "{labels} value" strings, checking that the labels of each
+     * series are sorted.
+     */
+    private static List<String> decodeWriteRequest(byte[] request) {
+        List<String> samples = new ArrayList<>();
+        ByteBuffer requestBuffer = ByteBuffer.wrap(request);
+        while (requestBuffer.hasRemaining()) {
+            Assert.assertEquals(readVarint(requestBuffer), (1 << 3) | 2);
+            ByteBuffer series = readMessage(requestBuffer);
+            TreeMap<String, String> labels = new TreeMap<>();
+            String lastLabel = "";
+            double value = Double.NaN;
+            while (series.hasRemaining()) {
+                long tag = readVarint(series);
+                ByteBuffer element = readMessage(series);
+                if (tag == ((1 << 3) | 2)) {
+                    Assert.assertEquals(readVarint(element), (1 << 3) | 2);
+                    String name = readString(element);
+                    Assert.assertEquals(readVarint(element), (2 << 3) | 2);
+                    Assert.assertTrue(name.compareTo(lastLabel) > 0);
+                    lastLabel = name;
+                    labels.put(name, readString(element));
+                } else {
+                    Assert.assertEquals(tag, (2 << 3) | 2);
+                    Assert.assertEquals(readVarint(element), (1 << 3) | 1);
+                    value = element.order(ByteOrder.LITTLE_ENDIAN).getDouble();
+                    Assert.assertEquals(readVarint(element), 2 << 3);
+                    Assert.assertTrue(readVarint(element) > 0);
+                }
+            }
+            samples.add(labels + " " + value);
+        }
+        return samples;
+    }
+
+    private static ByteBuffer readMessage(ByteBuffer buffer) {
+        int length = (int) readVarint(buffer);
+        ByteBuffer message = buffer.slice();
+        message.limit(length);
+        buffer.position(buffer.position() + length);
+        return message;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        ByteBuffer value = readMessage(buffer);
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for the memory mapped segment log which buffers the pushes of Prometheus sink.
+ */
+public class PrometheusSegmentLogTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSegmentLogTest.class);
+    private static final int SEGMENT_SIZE = 64;
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("prometheus-segment-log").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test
+    public void segmentLogOrderTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for consuming the records in order across segments");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(segmentLog.append(record(i)));
+            }
+            Assert.assertEquals(segmentLog.size(), 10);
+            Assert.assertTrue(countSegments() > 1);
+            Assert.assertEquals(consume(segmentLog, 10), expectedRecords(0, 10));
+            Assert.assertNull(segmentLog.peek());
+            Assert.assertEquals(segmentLog.size(), 0);
+            // the consumed segments are deleted, except the segment being appended to
+            Assert.assertEquals(countSegments(), 1);
+            Assert.assertFalse(segmentLog.append(new byte[SEGMENT_SIZE]));
+        }
+    }
+
+    @Test
+    public void segmentLogRecoveryTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for resuming the unconsumed records after reopening");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            for (int i = 0; i < 6; i++) {
+                segmentLog.append(record(i));
+            }
+            Assert.assertEquals(consume(segmentLog, 4), expectedRecords(0, 4));
+        }
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            Assert.assertEquals(segmentLog.size(), 2);
+            segmentLog.append(record(6));
+            Assert.assertEquals(consume(segmentLog, 3), expectedRecords(4, 7));
+        }
+    }
+
+    @Test
+    public void segmentLogTornRecordTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for ignoring a corrupted record when recovering");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            segmentLog.append(record(0));
+            segmentLog.append(record(1));
+        }
+        File[] segmentFiles = directory.listFiles((dir, name) -> name.endsWith(PrometheusSegmentLog.SEGMENT_SUFFIX));
+        Assert.assertEquals(segmentFiles.length, 1);
+        try (RandomAccessFile segmentFile = new RandomAccessFile(segmentFiles[0], "rw")) {
+            // corrupt the last byte of the payload of the second record
+            int secondRecord = PrometheusSegmentLog.SEGMENT_HEADER_SIZE + PrometheusSegmentLog.RECORD_HEADER_SIZE +
+                    record(0).length;
+            segmentFile.seek(secondRecord + PrometheusSegmentLog.RECORD_HEADER_SIZE + record(1).length - 1);
+            segmentFile.write('x');
+        }
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            Assert.assertEquals(segmentLog.size(), 1);
+            segmentLog.append(record(2));
+            List<String> records = consume(segmentLog, 2);
+            Assert.assertEquals(records.get(0), "record-0");
+            Assert.assertEquals(records.get(1), "record-2");
+        }
+    }
+
+    @Test
+    public void segmentLogBoundTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for dropping the oldest segment once the log is full");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 2)) {
+            // each segment holds three records of 16 bytes
+            for (int i = 0; i < 7; i++) {
+                segmentLog.append(record(i));
+            }
+            Assert.assertEquals(countSegments(), 2);
+            Assert.assertEquals(segmentLog.getDroppedRecords(), 3);
+            Assert.assertEquals(consume(segmentLog, 4), expectedRecords(3, 7));
+        }
+    }
+
+    @Test
+    public void segmentLogReplaceTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for superseding the unconsumed records by a record");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            for (int i = 0; i < 5; i++) {
+                segmentLog.append(record(i));
+            }
+            PrometheusSegmentLog.Record inFlight = segmentLog.peek();
+            // each segment holds three records of 16 bytes, hence the record is appended to the second segment
+            segmentLog.replace(record(5));
+            Assert.assertEquals(segmentLog.size(), 1);
+            Assert.assertEquals(countSegments(), 1);
+            // the record superseded while it is processed is not removed again
+            segmentLog.remove(inFlight);
+            Assert.assertEquals(segmentLog.size(), 1);
+            segmentLog.replace(record(6));
+            segmentLog.replace(record(7));
+            Assert.assertEquals(segmentLog.size(), 1);
+        }
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 16)) {
+            Assert.assertEquals(segmentLog.size(), 1);
+            Assert.assertEquals(consume(segmentLog, 1), expectedRecords(7, 8));
+            Assert.assertNull(segmentLog.peek());
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void segmentLogLockTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus segment log test for refusing a directory which is already in use");
+        log.info("----------------------------------------------------------------------------------");
+        try (PrometheusSegmentLog segmentLog = new PrometheusSegmentLog(directory, SEGMENT_SIZE, 2)) {
+            new PrometheusSegmentLog(directory, SEGMENT_SIZE, 2);
+        }
+    }
+
+    private int countSegments() {
+        return directory.listFiles((dir, name) -> name.endsWith(PrometheusSegmentLog.SEGMENT_SUFFIX)).length;
+    }
+
+    private static byte[] record(int index) {
+        return ("record-" + index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> expectedRecords(int from, int to) {
+        List<String> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add("record-" + i);
+        }
+        return records;
+    }
+
+    private static List<String> consume(PrometheusSegmentLog segmentLog, int count) {
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PrometheusSegmentLog.Record record = segmentLog.peek();
+            Assert.assertNotNull(record);
+            records.add(new String(record.payload, StandardCharsets.UTF_8));
+            segmentLog.remove(record);
+        }
+        return records;
+    }
+}
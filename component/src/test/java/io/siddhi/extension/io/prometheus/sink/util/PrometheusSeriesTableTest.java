@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for the series table of Prometheus sink metrics.
+ */
+public class PrometheusSeriesTableTest {
+    private static final Logger log = LogManager.getLogger(PrometheusSeriesTableTest.class);
+
+    @Test
+    public void seriesTableLookupTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus series table test for repeated and distinct label sets");
+        log.info("----------------------------------------------------------------------------------");
+        AtomicInteger createdChildren = new AtomicInteger();
+        PrometheusSeriesTable<String> seriesTable = new PrometheusSeriesTable<>(labelValues -> {
+            createdChildren.incrementAndGet();
+            return String.join(",", labelValues);
+        });
+        String child = seriesTable.getChild(new String[]{"WSO2", "78.8"});
+        Assert.assertSame(seriesTable.getChild(new String[]{"WSO2", "78.8"}), child);
+        Assert.assertEquals(seriesTable.getChild(new String[]{"IBM", "78.8"}), "IBM,78.8");
+        Assert.assertEquals(createdChildren.get(), 2);
+
+        for (int i = 0; i < 1000; i++) {
+            seriesTable.getChild(new String[]{"symbol" + i, Integer.toString(i)});
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(seriesTable.getChild(new String[]{"symbol" + i, Integer.toString(i)}),
+                    "symbol" + i + "," + i);
+        }
+        Assert.assertEquals(seriesTable.size(), 1002);
+        Assert.assertEquals(createdChildren.get(), 1002);
+    }
+
+    @Test
+    public void seriesTableConcurrencyTest() throws Exception {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus series table test with concurrent updates");
+        log.info("----------------------------------------------------------------------------------");
+        AtomicInteger createdChildren = new AtomicInteger();
+        PrometheusSeriesTable<Object> seriesTable = new PrometheusSeriesTable<>(labelValues -> {
+            createdChildren.incrementAndGet();
+            return new Object();
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    seriesTable.getChild(new String[]{"symbol" + (i % 2000)});
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        Assert.assertEquals(seriesTable.size(), 2000);
+        Assert.assertEquals(createdChildren.get(), 2000);
+    }
+
+    @Test
+    public void seriesTableEvictionTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus series table test for evicting series beyond the maximum number of series");
+        log.info("----------------------------------------------------------------------------------");
+        Set<String> children = new HashSet<>();
+        PrometheusSeriesTable<String> seriesTable = new PrometheusSeriesTable<>(labelValues -> {
+            String child = String.join(",", labelValues);
+            children.add(child);
+            return child;
+        }, labelValues -> Assert.assertTrue(children.remove(String.join(",", labelValues))), 100, false, 0);
+        for (int i = 0; i < 1000; i++) {
+            seriesTable.getChild(new String[]{"hot"});
+            seriesTable.getChild(new String[]{"request" + i});
+        }
+        Assert.assertEquals(seriesTable.size(), 100);
+        Assert.assertEquals(seriesTable.getEvictedSeries(), 901L);
+        Assert.assertEquals(children.size(), 100);
+        Assert.assertTrue(children.contains("hot"));
+        for (String child : new ArrayList<>(children)) {
+            Assert.assertEquals(seriesTable.getChild(child.split(",")), child);
+        }
+        Assert.assertEquals(seriesTable.getEvictedSeries(), 901L);
+    }
+
+    @Test
+    public void seriesTableOverflowTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus series table test for routing series beyond the maximum into the overflow series");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusSeriesTable<String> seriesTable = new PrometheusSeriesTable<>(labelValues ->
+                String.join(",", labelValues), labelValues -> Assert.fail("No series should be evicted"), 10, true,
+                0);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(seriesTable.getChild(new String[]{"request" + i, "GET"}), "request" + i + ",GET");
+        }
+        String overflow = PrometheusSeriesTable.OVERFLOW_LABEL_VALUE + "," +
+                PrometheusSeriesTable.OVERFLOW_LABEL_VALUE;
+        for (int i = 10; i < 20; i++) {
+            Assert.assertEquals(seriesTable.getChild(new String[]{"request" + i, "GET"}), overflow);
+        }
+        Assert.assertEquals(seriesTable.getChild(new String[]{"request1", "GET"}), "request1,GET");
+        Assert.assertEquals(seriesTable.size(), 11);
+        Assert.assertEquals(seriesTable.getEvictedSeries(), 0L);
+    }
+
+    @Test
+    public void seriesTableExpiryTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus series table test for expiring series which are not updated within the ttl");
+        log.info("----------------------------------------------------------------------------------");
+        Set<String> children = new HashSet<>();
+        long timeToLive = TimeUnit.MILLISECONDS.toNanos(200);
+        PrometheusSeriesTable<String> seriesTable = new PrometheusSeriesTable<>(labelValues -> {
+            String child = String.join(",", labelValues);
+            children.add(child);
+            return child;
+        }, labelValues -> Assert.assertTrue(children.remove(String.join(",", labelValues))), 0, false,
+                timeToLive);
+        seriesTable.getChild(new String[]{"hot"});
+        for (int i = 0; i < 1000; i++) {
+            seriesTable.getChild(new String[]{"container" + i});
+        }
+        Thread.sleep(100);
+        seriesTable.getChild(new String[]{"hot"});
+        long now = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(150);
+        int sweeps = 1;
+        while (!seriesTable.expireSeries(now, 64)) {
+            sweeps++;
+        }
+        Assert.assertTrue(sweeps > 1);
+        Assert.assertEquals(seriesTable.size(), 1);
+        Assert.assertEquals(children.size(), 1);
+        Assert.assertTrue(children.contains("hot"));
+        Assert.assertEquals(seriesTable.getChild(new String[]{"container1"}), "container1");
+        Assert.assertTrue(seriesTable.expireSeries(now + timeToLive * 2, Integer.MAX_VALUE));
+        Assert.assertEquals(seriesTable.size(), 0);
+    }
+}
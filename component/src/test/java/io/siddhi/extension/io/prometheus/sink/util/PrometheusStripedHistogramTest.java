@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the striped histograms of Prometheus sink metrics.
+ */
+public class PrometheusStripedHistogramTest {
+    private static final Logger log = LogManager.getLogger(PrometheusStripedHistogramTest.class);
+
+    @Test
+    public void bucketSearchTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus striped histogram test for the binary search of buckets");
+        log.info("----------------------------------------------------------------------------------");
+        double[] upperBounds = PrometheusStripedHistogram.toUpperBounds(new double[]{4, 1, 2});
+        Assert.assertEquals(upperBounds.length, 4);
+        Assert.assertEquals(upperBounds[3], Double.POSITIVE_INFINITY);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, -5), 0);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, 1), 0);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, 1.5), 1);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, 4), 2);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, 5), 3);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, Double.POSITIVE_INFINITY), 3);
+        Assert.assertEquals(PrometheusStripedHistogram.bucketIndex(upperBounds, Double.NaN), 4);
+    }
+
+    @Test
+    public void stripedBucketConcurrencyTest() throws InterruptedException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus striped histogram test for concurrent observations into a wide histogram");
+        log.info("----------------------------------------------------------------------------------");
+        double[] buckets = new double[64];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = i + 1;
+        }
+        PrometheusStripedHistogram histogram = new PrometheusStripedHistogram("foo", "h",
+                Collections.singletonList("symbol"), buckets);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executorService.execute(() -> {
+                PrometheusStripedHistogram.Child child = histogram.labels("WSO2");
+                for (int i = 0; i < 10000; i++) {
+                    child.observe(i % 100);
+                }
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        List<Collector.MetricFamilySamples.Sample> samples = histogram.collect().get(0).samples;
+        Assert.assertEquals(samples.size(), 67);
+        // values 0 and 1 fall into the first bucket
+        Assert.assertEquals(samples.get(0).value, 4 * 200.0);
+        Assert.assertEquals(samples.get(63).value, 4 * 6500.0);
+        Assert.assertEquals(samples.get(64).labelValues.get(1), "+Inf");
+        Assert.assertEquals(samples.get(64).value, 40000.0);
+        Assert.assertEquals(samples.get(65).value, 40000.0);
+        Assert.assertEquals(samples.get(66).value, 4 * 100 * 4950.0);
+    }
+
+    @Test
+    public void weightedObservationTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus striped histogram test for observations with a weight");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusStripedHistogram histogram = new PrometheusStripedHistogram("foo", "h",
+                Collections.emptyList(), new double[]{1, 10});
+        PrometheusStripedHistogram.Child child = histogram.labels();
+        child.observe(0.5, 1000);
+        child.observe(5, 10);
+        List<Collector.MetricFamilySamples.Sample> samples = histogram.collect().get(0).samples;
+        Assert.assertEquals(samples.get(0).value, 1000.0);
+        Assert.assertEquals(samples.get(1).value, 1010.0);
+        Assert.assertEquals(samples.get(3).value, 1010.0);
+        Assert.assertEquals(samples.get(4).value, 550.0);
+    }
+}
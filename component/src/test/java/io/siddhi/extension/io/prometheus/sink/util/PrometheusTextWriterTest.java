@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.siddhi.extension.io.prometheus.sink.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for the streaming text exposition of Prometheus sink metrics.
+ */
+public class PrometheusTextWriterTest {
+    private static final Logger log = LogManager.getLogger(PrometheusTextWriterTest.class);
+
+    // the exposition of the collected samples by the Prometheus client, as sorted lines
+    private static List<String> toClientLines(PrometheusMetricBuilder metricBuilder) throws IOException {
+        StringWriter writer = new StringWriter();
+        TextFormat.write004(writer, Collections.enumeration(metricBuilder.collect()));
+        return toLines(writer.toString());
+    }
+
+    private static List<String> toLines(String text) {
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void sampleFormatTest() {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus text writer test for the escaping of labels and the formatting of values");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusTextWriter writer = new PrometheusTextWriter(16);
+        writer.writeHeader("text_total", "help with \\ and\nnew line", Collector.Type.COUNTER);
+        byte[] labels = PrometheusTextWriter.encodeLabels(Arrays.asList("symbol", "region"),
+                Arrays.asList("WS\"O2\\", "east\nwest"));
+        byte[] name = PrometheusTextWriter.encodeName("text_total");
+        double[] values = {42, -7, -0.0, 0, 1e7, 9999999, 0.5, Double.NaN, Double.POSITIVE_INFINITY};
+        for (double value : values) {
+            writer.writeSample(name, labels, null, value);
+        }
+        writer.writeSample(name, PrometheusTextWriter.NO_LABELS, null, 1);
+        writer.writeSample(name, PrometheusTextWriter.NO_LABELS, PrometheusTextWriter.encodeLabel("le", "+Inf"), 1);
+        String prefix = "text_total{symbol=\"WS\\\"O2\\\\\",region=\"east\\nwest\",} ";
+        Assert.assertEquals(new String(writer.toByteArray(), StandardCharsets.UTF_8),
+                "# HELP text_total help with \\\\ and\\nnew line\n" +
+                        "# TYPE text_total counter\n" +
+                        prefix + "42.0\n" +
+                        prefix + "-7.0\n" +
+                        prefix + "-0.0\n" +
+                        prefix + "0.0\n" +
+                        prefix + "1.0E7\n" +
+                        prefix + "9999999.0\n" +
+                        prefix + "0.5\n" +
+                        prefix + "NaN\n" +
+                        prefix + "+Inf\n" +
+                        "text_total 1.0\n" +
+                        "text_total{le=\"+Inf\",} 1.0\n");
+    }
+
+    @Test
+    public void metricExpositionTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus text writer test for counters, gauges and histograms written from their children");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("text_requests", "requests",
+                Collector.Type.COUNTER, new ArrayList<>(Arrays.asList("symbol", "region", "value")));
+        metricBuilder.addMetric("text_last", "last", Collector.Type.GAUGE);
+        metricBuilder.addMetric("text_latency", "latency", Collector.Type.HISTOGRAM);
+        metricBuilder.setHistogramBuckets(new double[]{0.5, 10, 100});
+        metricBuilder.setMaxSeries(50, false);
+        metricBuilder.setRegistry("http://localhost:9203", "TextTestStream");
+        metricBuilder.registerMetric("value");
+        try {
+            for (int i = 0; i < 100; i++) {
+                metricBuilder.insertMetricValues(new double[]{i, -i * 0.25, i * 1.5}, 1,
+                        new String[]{"symbol\"" + i % 60, i % 2 == 0 ? "east" : "west\nnorth"});
+            }
+            String text = new String(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT),
+                    StandardCharsets.UTF_8);
+            Assert.assertEquals(toLines(text), toClientLines(metricBuilder));
+            // the families are written in the order of the metrics
+            Assert.assertTrue(text.startsWith("# HELP text_requests requests\n# TYPE text_requests counter\n"));
+            Assert.assertTrue(text.indexOf("# TYPE text_last gauge") < text.indexOf("# TYPE text_latency histogram"));
+            Assert.assertTrue(text.contains("# TYPE text_requests_series_evicted_total counter\n"));
+
+            // the encoded labels of the series are reused by the following scrapes
+            metricBuilder.insertMetricValues(new double[]{1, 2, 3}, 1, new String[]{"symbol\"59", "west\nnorth"});
+            text = new String(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT), StandardCharsets.UTF_8);
+            Assert.assertEquals(toLines(text), toClientLines(metricBuilder));
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void noLabelsExpositionTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus text writer test for metrics without labels before their first event");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("text_events", "events",
+                Collector.Type.COUNTER, new ArrayList<>(Arrays.asList("value")));
+        metricBuilder.addMetric("text_level", "level", Collector.Type.GAUGE);
+        metricBuilder.addMetric("text_delay", "delay", Collector.Type.HISTOGRAM);
+        metricBuilder.setRegistry("http://localhost:9203", "TextTestStream");
+        metricBuilder.registerMetric("value");
+        try {
+            String text = new String(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT),
+                    StandardCharsets.UTF_8);
+            Assert.assertEquals(toLines(text), toClientLines(metricBuilder));
+            Assert.assertTrue(text.contains("text_events 0.0\n"));
+            Assert.assertTrue(text.contains("text_level 0.0\n"));
+            Assert.assertTrue(text.contains("text_delay_count 0.0\n"));
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+
+    @Test
+    public void nativeHistogramAndSketchSummaryExpositionTest() throws IOException {
+        log.info("----------------------------------------------------------------------------------");
+        log.info("Prometheus text writer test for native histograms and sketch summaries");
+        log.info("----------------------------------------------------------------------------------");
+        PrometheusMetricBuilder metricBuilder = new PrometheusMetricBuilder("text_duration", "duration",
+                Collector.Type.HISTOGRAM, new ArrayList<>(Arrays.asList("value")));
+        metricBuilder.addMetric("text_size", "size", Collector.Type.SUMMARY);
+        metricBuilder.setNativeHistogram(true, 2);
+        metricBuilder.setSketchSummary(true);
+        metricBuilder.setQuantiles(new double[]{0.5, 0.9}, 0.01);
+        metricBuilder.setRegistry("http://localhost:9203", "TextTestStream");
+        metricBuilder.registerMetric("value");
+        try {
+            for (int i = 0; i < 1000; i++) {
+                metricBuilder.insertValues(i * 0.01, new String[0]);
+            }
+            String text = new String(metricBuilder.encodeMetric(PrometheusExpositionFormat.TEXT),
+                    StandardCharsets.UTF_8);
+            Assert.assertEquals(toLines(text), toClientLines(metricBuilder));
+            Assert.assertTrue(text.contains("text_duration_bucket{le=\"+Inf\",} 1000.0\n"));
+            Assert.assertTrue(text.contains("text_size{quantile=\"0.5\",} "));
+        } finally {
+            metricBuilder.unregisterMetric();
+        }
+    }
+}